@@ -3,10 +3,57 @@ package nl.infomedics.invoicing.model;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotBlank;
+import java.util.ArrayList;
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * @param sharedModel model data common to all items, left out of their own models; {@code null} when there is none
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public record BatchConversionRequest(
     @NotBlank String html,
     boolean includeSanitisedXhtml,
-    @NotEmpty @Valid List<BatchConversionItem> items
-) {}
+    @NotEmpty @Valid List<BatchConversionItem> items,
+    BatchSharedModel sharedModel
+) {
+    public BatchConversionRequest(String html, boolean includeSanitisedXhtml, List<BatchConversionItem> items) {
+        this(html, includeSanitisedXhtml, items, null);
+    }
+
+    /**
+     * Builds a request that carries the practitioner once in its {@code sharedModel} when all items are debtors of
+     * the same practitioner instance, as the debtors of one zip are; otherwise every item keeps its own. The items
+     * given are not modified.
+     */
+    public static BatchConversionRequest sharingPractitioner(String html, boolean includeSanitisedXhtml,
+            List<BatchConversionItem> items) {
+        Practitioner shared = null;
+        for (BatchConversionItem item : items) {
+            DebiteurWithPractitioner dwp = debiteurOf(item.jsonModel());
+            Practitioner practitioner = dwp != null ? dwp.getPractitioner() : null;
+            if (practitioner == null || (shared != null && practitioner != shared)) {
+                return new BatchConversionRequest(html, includeSanitisedXhtml, items);
+            }
+            shared = practitioner;
+        }
+        if (shared == null) {
+            return new BatchConversionRequest(html, includeSanitisedXhtml, items);
+        }
+        List<BatchConversionItem> stripped = new ArrayList<>(items.size());
+        for (BatchConversionItem item : items) {
+            DebiteurWithPractitioner dwp = debiteurOf(item.jsonModel());
+            DebiteurWithPractitioner own = new DebiteurWithPractitioner(dwp.getDebiteur(), null, dwp.getTreatments());
+            // Keep the wrapper, receivers tell the JSON shapes apart by it
+            Object model = item.jsonModel() instanceof SingleDebtorInvoice ? new SingleDebtorInvoice(own) : own;
+            stripped.add(new BatchConversionItem(model, item.outputId()));
+        }
+        return new BatchConversionRequest(html, includeSanitisedXhtml, stripped, new BatchSharedModel(shared));
+    }
+
+    private static DebiteurWithPractitioner debiteurOf(Object model) {
+        if (model instanceof SingleDebtorInvoice sdi) return sdi.getDebiteur();
+        return model instanceof DebiteurWithPractitioner dwp ? dwp : null;
+    }
+}
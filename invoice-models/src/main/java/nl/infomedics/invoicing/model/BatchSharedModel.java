@@ -0,0 +1,17 @@
+package nl.infomedics.invoicing.model;
+
+/**
+ * Model data that every item of a batch has in common and that is therefore sent once per batch rather than once per
+ * item. An item whose model leaves a part out takes it from here before its placeholders are resolved.
+ *
+ * @param practitioner the practitioner of every debtor in the batch, resolved by {@code ${practitioner.*}}
+ */
+public record BatchSharedModel(
+        Practitioner practitioner) {
+
+    /**
+     * Response header with which pdf-creator advertises that it resolves placeholders from the shared model. Older
+     * versions ignore a {@code sharedModel} they do not know, so clients send one only to nodes that returned it.
+     */
+    public static final String SUPPORTED_HEADER = "X-Batch-Shared-Model";
+}
@@ -0,0 +1,479 @@
+package nl.infomedics.invoicing.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Compact binary encoding of {@link BatchConversionRequest} and {@link BatchConversionResponse}, exchanged as
+ * {@value #MEDIA_TYPE} between invoice-parser and pdf-creator; JSON stays the fallback for every other caller.
+ * PDFs travel as raw bytes instead of Base64, and item models of type {@link DebiteurWithPractitioner} (or a
+ * {@link SingleDebtorInvoice} wrapping one) are written field by field, so the receiver gets the typed model back
+ * without building a JSON tree. Models given as JSON text are passed on as text.
+ * <p>
+ * Layout, all integers big-endian: a 4-byte magic and a version byte, then the fields in declaration order.
+ * Strings and byte arrays are a 4-byte length ({@code -1} for null) followed by the UTF-8 or raw bytes; nullable
+ * numbers and dates are a presence byte followed by the value; dates are epoch days. Adding a field to one of the
+ * model classes means adding it here and bumping {@link #VERSION}.
+ * <p>
+ * Version 2 added the batch's shared model to requests; readers still accept version 1 requests, and responses keep
+ * version 1 as their layout did not change, so clients without it can read them. A request without a shared model is
+ * written as version 1, which pdf-creator versions from before the shared model can still read.
+ */
+public final class BatchWireFormat {
+
+    public static final String MEDIA_TYPE = "application/x-batch-conversion";
+
+    static final int REQUEST_MAGIC = 0x48325042; // "H2PB"
+    static final int RESPONSE_MAGIC = 0x48325052; // "H2PR"
+    static final byte VERSION = 2;
+    static final byte RESPONSE_VERSION = 1;
+
+    private static final byte MODEL_NONE = 0;
+    private static final byte MODEL_DEBITEUR = 1;
+    private static final byte MODEL_JSON_TEXT = 2;
+
+    private BatchWireFormat() {
+    }
+
+    /**
+     * @return whether {@code model} can be encoded; callers fall back to JSON for batches holding anything else
+     */
+    public static boolean supports(Object model) {
+        return model == null
+                || model instanceof DebiteurWithPractitioner
+                || model instanceof SingleDebtorInvoice
+                || model instanceof String;
+    }
+
+    /**
+     * @return whether the first bytes of {@code frame} are an encoded request
+     */
+    public static boolean isRequest(byte[] frame) {
+        return frame.length >= Integer.BYTES
+                && ((frame[0] & 0xFF) << 24 | (frame[1] & 0xFF) << 16 | (frame[2] & 0xFF) << 8 | frame[3] & 0xFF) == REQUEST_MAGIC;
+    }
+
+    public static void writeRequest(BatchConversionRequest request, OutputStream target) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(target, 64 * 1024));
+        BatchSharedModel shared = request.sharedModel();
+        out.writeInt(REQUEST_MAGIC);
+        out.writeByte(shared != null ? VERSION : 1);
+        writeString(out, request.html());
+        out.writeBoolean(request.includeSanitisedXhtml());
+        if (shared != null) {
+            out.writeBoolean(true);
+            writePractitioner(out, shared.practitioner());
+        }
+        List<BatchConversionItem> items = request.items() != null ? request.items() : List.of();
+        out.writeInt(items.size());
+        for (BatchConversionItem item : items) {
+            writeString(out, item.outputId());
+            writeModel(out, item.jsonModel());
+        }
+        out.flush();
+    }
+
+    public static BatchConversionRequest readRequest(InputStream source) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(source, 64 * 1024));
+        byte version = readHeader(in, REQUEST_MAGIC, VERSION);
+        String html = readString(in);
+        boolean includeSanitisedXhtml = in.readBoolean();
+        BatchSharedModel shared = version >= 2 && in.readBoolean() ? new BatchSharedModel(readPractitioner(in)) : null;
+        int count = readCount(in);
+        List<BatchConversionItem> items = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            String outputId = readString(in);
+            items.add(new BatchConversionItem(readModel(in), outputId));
+        }
+        return new BatchConversionRequest(html, includeSanitisedXhtml, items, shared);
+    }
+
+    public static void writeResponse(BatchConversionResponse response, OutputStream target) throws IOException {
+        List<BatchConversionResultItem> results = response.results() != null ? response.results() : List.of();
+        writeResponse(response.generatedAt(), results.stream().<Result>map(ArrayResult::new).toList(), target);
+    }
+
+    /**
+     * Writes a response whose PDFs each {@link Result} drains into the frame itself, so they need not be joined
+     * into one array first.
+     */
+    public static void writeResponse(Instant generatedAt, List<? extends Result> results, OutputStream target)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(target, 64 * 1024));
+        out.writeInt(RESPONSE_MAGIC);
+        out.writeByte(RESPONSE_VERSION);
+        out.writeBoolean(generatedAt != null);
+        if (generatedAt != null) {
+            out.writeLong(generatedAt.getEpochSecond());
+            out.writeInt(generatedAt.getNano());
+        }
+        out.writeInt(results.size());
+        for (Result result : results) {
+            writeString(out, result.outputId());
+            long size = result.pdfSize();
+            if (size < 0) {
+                out.writeInt(-1);
+            } else if (size > Integer.MAX_VALUE) {
+                throw new IOException("PDF of " + size + " bytes for " + result.outputId() + " exceeds the frame limit");
+            } else {
+                out.writeInt((int) size);
+                result.writePdf(out);
+            }
+            writeString(out, result.error());
+        }
+        out.flush();
+    }
+
+    public static BatchConversionResponse readResponse(InputStream source) throws IOException {
+        List<BatchConversionResultItem> results = new ArrayList<>();
+        Instant generatedAt = readResponse(source, results::add);
+        return new BatchConversionResponse(results, generatedAt);
+    }
+
+    /**
+     * Reads a response one result at a time, so only the PDF being handed to {@code consumer} is held in memory.
+     *
+     * @return the response's {@code generatedAt}
+     */
+    public static Instant readResponse(InputStream source, Consumer<BatchConversionResultItem> consumer) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(source, 64 * 1024));
+        readHeader(in, RESPONSE_MAGIC, RESPONSE_VERSION);
+        Instant generatedAt = in.readBoolean() ? Instant.ofEpochSecond(in.readLong(), in.readInt()) : null;
+        int count = readCount(in);
+        for (int i = 0; i < count; i++) {
+            consumer.accept(new BatchConversionResultItem(readString(in), readBytes(in), readString(in)));
+        }
+        return generatedAt;
+    }
+
+    /**
+     * One result of a response, with a PDF that is written to the frame on demand.
+     */
+    public interface Result {
+
+        String outputId();
+
+        /**
+         * @return size of the PDF in bytes, or {@code -1} when there is none
+         */
+        long pdfSize();
+
+        /**
+         * Writes exactly {@link #pdfSize()} bytes; not called when there is no PDF.
+         */
+        void writePdf(OutputStream target) throws IOException;
+
+        String error();
+    }
+
+    private record ArrayResult(BatchConversionResultItem item) implements Result {
+
+        @Override
+        public String outputId() {
+            return item.outputId();
+        }
+
+        @Override
+        public long pdfSize() {
+            return item.pdfContent() != null ? item.pdfContent().length : -1;
+        }
+
+        @Override
+        public void writePdf(OutputStream target) throws IOException {
+            target.write(item.pdfContent());
+        }
+
+        @Override
+        public String error() {
+            return item.error();
+        }
+    }
+
+    private static void writeModel(DataOutputStream out, Object model) throws IOException {
+        if (model instanceof SingleDebtorInvoice sdi) {
+            model = sdi.getDebiteur();
+        }
+        if (model == null) {
+            out.writeByte(MODEL_NONE);
+        } else if (model instanceof DebiteurWithPractitioner dwp) {
+            out.writeByte(MODEL_DEBITEUR);
+            writeDebiteurWithPractitioner(out, dwp);
+        } else if (model instanceof String json) {
+            out.writeByte(MODEL_JSON_TEXT);
+            writeString(out, json);
+        } else {
+            throw new IllegalArgumentException("Model type " + model.getClass().getName() + " has no binary encoding");
+        }
+    }
+
+    private static Object readModel(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        return switch (kind) {
+            case MODEL_NONE -> null;
+            case MODEL_DEBITEUR -> readDebiteurWithPractitioner(in);
+            case MODEL_JSON_TEXT -> readString(in);
+            default -> throw new IOException("Unknown model kind " + kind);
+        };
+    }
+
+    private static void writeDebiteurWithPractitioner(DataOutputStream out, DebiteurWithPractitioner dwp) throws IOException {
+        writeDebiteur(out, dwp.getDebiteur());
+        writePractitioner(out, dwp.getPractitioner());
+        List<Specificatie> treatments = dwp.getTreatments();
+        out.writeInt(treatments != null ? treatments.size() : -1);
+        if (treatments != null) {
+            for (Specificatie s : treatments) {
+                writeSpecificatie(out, s);
+            }
+        }
+    }
+
+    private static DebiteurWithPractitioner readDebiteurWithPractitioner(DataInputStream in) throws IOException {
+        DebiteurWithPractitioner dwp = new DebiteurWithPractitioner();
+        dwp.setDebiteur(readDebiteur(in));
+        dwp.setPractitioner(readPractitioner(in));
+        int count = in.readInt();
+        if (count >= 0) {
+            List<Specificatie> treatments = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                treatments.add(readSpecificatie(in));
+            }
+            dwp.setTreatments(treatments);
+        }
+        return dwp;
+    }
+
+    private static void writeDebiteur(DataOutputStream out, Debiteur d) throws IOException {
+        out.writeBoolean(d != null);
+        if (d == null) {
+            return;
+        }
+        writeString(out, d.getInvoiceNumber());
+        writeString(out, d.getPrintDate());
+        writeString(out, d.getHcpName());
+        writeString(out, d.getHcpStreet());
+        writeString(out, d.getHcpHouseNr());
+        writeString(out, d.getHcpZipCode());
+        writeString(out, d.getHcpCity());
+        writeString(out, d.getPracticeAgb());
+        writeString(out, d.getHcpAgb());
+        writeString(out, d.getInsuredId());
+        writeString(out, d.getPatientName());
+        writeString(out, d.getStreet());
+        writeString(out, d.getHouseNr());
+        writeString(out, d.getZipCode());
+        writeString(out, d.getCity());
+        out.writeInt(d.getInvoiceAmountCents());
+        out.writeInt(d.getOpenImfCents());
+        writeDate(out, d.getPatientDob());
+        writeString(out, d.getFirstExpirationDate());
+        writeString(out, d.getInsurer());
+        writeDate(out, d.getPeriodFrom());
+        writeDate(out, d.getPeriodTo());
+        writeInteger(out, d.getInvoiceType());
+        List<Integer> totals = d.getTotals();
+        out.writeInt(totals != null ? totals.size() : -1);
+        if (totals != null) {
+            for (Integer total : totals) {
+                writeInteger(out, total);
+            }
+        }
+        writeString(out, d.getImageUrl());
+    }
+
+    private static Debiteur readDebiteur(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        Debiteur d = new Debiteur();
+        d.setInvoiceNumber(readString(in));
+        d.setPrintDate(readString(in));
+        d.setHcpName(readString(in));
+        d.setHcpStreet(readString(in));
+        d.setHcpHouseNr(readString(in));
+        d.setHcpZipCode(readString(in));
+        d.setHcpCity(readString(in));
+        d.setPracticeAgb(readString(in));
+        d.setHcpAgb(readString(in));
+        d.setInsuredId(readString(in));
+        d.setPatientName(readString(in));
+        d.setStreet(readString(in));
+        d.setHouseNr(readString(in));
+        d.setZipCode(readString(in));
+        d.setCity(readString(in));
+        d.setInvoiceAmountCents(in.readInt());
+        d.setOpenImfCents(in.readInt());
+        d.setPatientDob(readDate(in));
+        d.setFirstExpirationDate(readString(in));
+        d.setInsurer(readString(in));
+        d.setPeriodFrom(readDate(in));
+        d.setPeriodTo(readDate(in));
+        d.setInvoiceType(readInteger(in));
+        int count = in.readInt();
+        if (count >= 0) {
+            List<Integer> totals = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                totals.add(readInteger(in));
+            }
+            d.setTotals(totals);
+        }
+        d.setImageUrl(readString(in));
+        return d;
+    }
+
+    private static void writePractitioner(DataOutputStream out, Practitioner p) throws IOException {
+        out.writeBoolean(p != null);
+        if (p == null) {
+            return;
+        }
+        writeString(out, p.getAgbCode());
+        writeInteger(out, p.getLogoNr());
+        Address a = p.getAddress();
+        out.writeBoolean(a != null);
+        if (a != null) {
+            writeString(out, a.getCountry());
+            writeString(out, a.getCity());
+            writeString(out, a.getPostcode());
+            writeString(out, a.getStreet());
+            writeString(out, a.getHouseNr());
+        }
+        Practice practice = p.getPractice();
+        out.writeBoolean(practice != null);
+        if (practice != null) {
+            writeString(out, practice.getName());
+            writeString(out, practice.getCode());
+            writeString(out, practice.getPhone());
+        }
+    }
+
+    private static Practitioner readPractitioner(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        Practitioner p = new Practitioner();
+        p.setAgbCode(readString(in));
+        p.setLogoNr(readInteger(in));
+        p.setAddress(in.readBoolean()
+                ? new Address(readString(in), readString(in), readString(in), readString(in), readString(in))
+                : null);
+        p.setPractice(in.readBoolean()
+                ? new Practice(readString(in), readString(in), readString(in))
+                : null);
+        return p;
+    }
+
+    private static void writeSpecificatie(DataOutputStream out, Specificatie s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s == null) {
+            return;
+        }
+        writeString(out, s.getInvoiceNumber());
+        writeDate(out, s.getDate());
+        writeString(out, s.getTreatmentCode());
+        writeString(out, s.getDescription());
+        writeInteger(out, s.getAmountCents());
+        writeString(out, s.getTreatmentProvider());
+        writeString(out, s.getVatIndicator());
+        writeString(out, s.getVatValueCents());
+    }
+
+    private static Specificatie readSpecificatie(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        // Arguments are evaluated left to right, i.e. in field order
+        return new Specificatie(readString(in), readDate(in), readString(in), readString(in), readInteger(in),
+                readString(in), readString(in), readString(in));
+    }
+
+    /**
+     * @return the version of the frame, between 1 and {@code maxVersion}
+     */
+    private static byte readHeader(DataInputStream in, int expectedMagic, byte maxVersion) throws IOException {
+        int magic = in.readInt();
+        if (magic != expectedMagic) {
+            throw new IOException("Not a " + MEDIA_TYPE + " frame (magic 0x" + Integer.toHexString(magic) + ")");
+        }
+        byte version = in.readByte();
+        if (version < 1 || version > maxVersion) {
+            throw new IOException("Unsupported " + MEDIA_TYPE + " version " + version + ", expected at most " + maxVersion);
+        }
+        return version;
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid item count " + count);
+        }
+        return count;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IOException("Invalid length " + length);
+        }
+        // readNBytes grows its buffer as data arrives, so a corrupt length cannot force a huge allocation
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length != length) {
+            throw new EOFException("Frame ended after " + bytes.length + " of " + length + " bytes");
+        }
+        return bytes;
+    }
+
+    private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInteger(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeDate(DataOutputStream out, LocalDate value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.toEpochDay());
+        }
+    }
+
+    private static LocalDate readDate(DataInputStream in) throws IOException {
+        return in.readBoolean() ? LocalDate.ofEpochDay(in.readLong()) : null;
+    }
+}
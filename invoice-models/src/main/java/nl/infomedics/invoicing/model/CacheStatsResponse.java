@@ -0,0 +1,25 @@
+package nl.infomedics.invoicing.model;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Statistics of the in-memory caches of a pdf-creator instance since it started.
+ *
+ * @param caches      statistics by cache name
+ * @param generatedAt timestamp indicating when the response was produced
+ */
+public record CacheStatsResponse(
+        Map<String, CacheStatistics> caches,
+        Instant generatedAt) {
+
+    /**
+     * @param hitCount      lookups answered from the cache
+     * @param missCount     lookups that had to compute the value
+     * @param evictionCount entries removed to stay within the bounds of the cache
+     */
+    public record CacheStatistics(
+            long hitCount,
+            long missCount,
+            long evictionCount) { }
+}
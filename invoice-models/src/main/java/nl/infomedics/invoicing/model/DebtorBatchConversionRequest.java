@@ -0,0 +1,72 @@
+package nl.infomedics.invoicing.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+
+/**
+ * Typed counterpart of {@link BatchConversionRequest} for batches whose items are all debtors, exchanged as JSON under
+ * {@value #MEDIA_TYPE}. Declaring the model type lets the receiver bind every item straight into a
+ * {@link DebiteurWithPractitioner} in one pass, instead of into a map that still has to be converted.
+ *
+ * @param sharedModel model data common to all items, left out of their own models; {@code null} when there is none
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record DebtorBatchConversionRequest(
+        @NotBlank String html,
+        boolean includeSanitisedXhtml,
+        @NotEmpty @Valid List<Item> items,
+        BatchSharedModel sharedModel) {
+
+    public static final String MEDIA_TYPE = "application/vnd.infomedics.debtor-batch+json";
+
+    /**
+     * @param debiteur the debtor with its practitioner and treatments
+     */
+    public record Item(
+            DebiteurWithPractitioner debiteur,
+            @NotBlank String outputId) { }
+
+    /**
+     * @return whether the model of {@code item} is a debtor, i.e. whether it fits this contract
+     */
+    public static boolean supports(BatchConversionItem item) {
+        Object model = item.jsonModel();
+        return model instanceof DebiteurWithPractitioner
+                || model instanceof SingleDebtorInvoice sdi && sdi.getDebiteur() != null;
+    }
+
+    /**
+     * @throws IllegalArgumentException when an item is not {@linkplain #supports(BatchConversionItem) supported}
+     */
+    public static DebtorBatchConversionRequest of(BatchConversionRequest request) {
+        List<Item> items = new ArrayList<>(request.items().size());
+        for (BatchConversionItem item : request.items()) {
+            Object model = item.jsonModel();
+            DebiteurWithPractitioner dwp = model instanceof SingleDebtorInvoice sdi ? sdi.getDebiteur()
+                    : model instanceof DebiteurWithPractitioner d ? d : null;
+            if (dwp == null) {
+                throw new IllegalArgumentException("Item " + item.outputId() + " is not a debtor");
+            }
+            items.add(new Item(dwp, item.outputId()));
+        }
+        return new DebtorBatchConversionRequest(request.html(), request.includeSanitisedXhtml(), items,
+                request.sharedModel());
+    }
+
+    /**
+     * @return the same batch as a {@link BatchConversionRequest} whose item models are the typed debtors
+     */
+    public BatchConversionRequest toBatchConversionRequest() {
+        List<BatchConversionItem> converted = new ArrayList<>(items.size());
+        for (Item item : items) {
+            converted.add(new BatchConversionItem(item.debiteur(), item.outputId()));
+        }
+        return new BatchConversionRequest(html, includeSanitisedXhtml, converted, sharedModel);
+    }
+}
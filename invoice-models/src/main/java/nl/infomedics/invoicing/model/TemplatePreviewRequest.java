@@ -0,0 +1,20 @@
+package nl.infomedics.invoicing.model;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Size;
+
+/**
+ * Request for a raster preview of the first pages of a template, as used by the template designer.
+ *
+ * @param html  template XHTML; placeholders are rendered as-is
+ * @param pages number of leading pages to render; {@code 0} selects the server default
+ * @param dpi   raster resolution of the PNG pages; {@code 0} selects the server default
+ */
+public record TemplatePreviewRequest(
+        @NotBlank(message = "html must not be blank")
+        @Size(max = 5_000_000, message = "html must be at most 5MB")
+        String html,
+        @Min(0) @Max(10) int pages,
+        @Min(0) @Max(300) int dpi) { }
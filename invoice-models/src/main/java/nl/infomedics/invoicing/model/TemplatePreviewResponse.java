@@ -0,0 +1,22 @@
+package nl.infomedics.invoicing.model;
+
+import java.time.Instant;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Raster preview of the leading pages of a template.
+ *
+ * @param pagePngs    PNG images of the rendered pages, in page order
+ * @param totalPages  number of pages the full document lays out to, or {@code 0} when the document runs past the
+ *                    rendered pages and the preview did not lay it out to its end
+ * @param cached      whether the preview was served from the preview cache
+ * @param generatedAt timestamp indicating when the response was produced
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record TemplatePreviewResponse(
+        List<byte[]> pagePngs,
+        int totalPages,
+        boolean cached,
+        Instant generatedAt) { }
@@ -0,0 +1,287 @@
+package nl.infomedics.invoicing.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Round trips through {@link BatchWireFormat} and the frames it must reject.
+ */
+public class BatchWireFormatTest extends TestCase {
+
+    public void testRequestRoundTripKeepsEveryField() throws IOException {
+        DebiteurWithPractitioner dwp = new DebiteurWithPractitioner(fullDebiteur(), fullPractitioner(),
+                List.of(new Specificatie("F-1", LocalDate.of(2025, 9, 1), "1000", "Consult", 4250, "Dr. Test", "H",
+                        "0")));
+        BatchSharedModel shared = new BatchSharedModel(fullPractitioner());
+        BatchConversionRequest request = new BatchConversionRequest("<html>ü</html>", true,
+                List.of(new BatchConversionItem(dwp, "out-1")), shared);
+
+        BatchConversionRequest read = roundTrip(request);
+
+        assertEquals("<html>ü</html>", read.html());
+        assertTrue(read.includeSanitisedXhtml());
+        assertPractitionerEquals(fullPractitioner(), read.sharedModel().practitioner());
+        assertEquals(1, read.items().size());
+        assertEquals("out-1", read.items().get(0).outputId());
+        DebiteurWithPractitioner model = (DebiteurWithPractitioner) read.items().get(0).jsonModel();
+        assertDebiteurEquals(fullDebiteur(), model.getDebiteur());
+        assertPractitionerEquals(fullPractitioner(), model.getPractitioner());
+        Specificatie s = model.getTreatments().get(0);
+        assertEquals("F-1", s.getInvoiceNumber());
+        assertEquals(LocalDate.of(2025, 9, 1), s.getDate());
+        assertEquals("1000", s.getTreatmentCode());
+        assertEquals("Consult", s.getDescription());
+        assertEquals(Integer.valueOf(4250), s.getAmountCents());
+        assertEquals("Dr. Test", s.getTreatmentProvider());
+        assertEquals("H", s.getVatIndicator());
+        assertEquals("0", s.getVatValueCents());
+    }
+
+    public void testRequestRoundTripKeepsNulls() throws IOException {
+        Practitioner practitioner = new Practitioner();
+        practitioner.setAddress(null);
+        practitioner.setPractice(null);
+        DebiteurWithPractitioner dwp = new DebiteurWithPractitioner(new Debiteur(), practitioner,
+                Arrays.asList((Specificatie) null));
+        BatchConversionRequest request = new BatchConversionRequest(null, false, Arrays.asList(
+                new BatchConversionItem(null, null),
+                new BatchConversionItem(new DebiteurWithPractitioner(null, null, null), "empty"),
+                new BatchConversionItem(dwp, "nulls")), null);
+
+        BatchConversionRequest read = roundTrip(request);
+
+        assertNull(read.html());
+        assertNull(read.sharedModel());
+        assertNull(read.items().get(0).outputId());
+        assertNull(read.items().get(0).jsonModel());
+        DebiteurWithPractitioner empty = (DebiteurWithPractitioner) read.items().get(1).jsonModel();
+        assertNull(empty.getDebiteur());
+        assertNull(empty.getPractitioner());
+        assertNull(empty.getTreatments());
+        DebiteurWithPractitioner nulls = (DebiteurWithPractitioner) read.items().get(2).jsonModel();
+        assertDebiteurEquals(new Debiteur(), nulls.getDebiteur());
+        assertNull(nulls.getPractitioner().getAgbCode());
+        assertNull(nulls.getPractitioner().getLogoNr());
+        assertNull(nulls.getPractitioner().getAddress());
+        assertNull(nulls.getPractitioner().getPractice());
+        assertEquals(1, nulls.getTreatments().size());
+        assertNull(nulls.getTreatments().get(0));
+    }
+
+    public void testSingleDebtorInvoiceIsSentAsItsDebtor() throws IOException {
+        DebiteurWithPractitioner dwp = new DebiteurWithPractitioner(fullDebiteur(), null, null);
+        BatchConversionRequest request = new BatchConversionRequest("<html/>", false,
+                List.of(new BatchConversionItem(new SingleDebtorInvoice(dwp), "sdi"),
+                        new BatchConversionItem(new SingleDebtorInvoice(null), "none"),
+                        new BatchConversionItem("{\"debiteur\":{}}", "text")));
+
+        BatchConversionRequest read = roundTrip(request);
+
+        assertTrue(read.items().get(0).jsonModel() instanceof DebiteurWithPractitioner);
+        assertDebiteurEquals(fullDebiteur(), ((DebiteurWithPractitioner) read.items().get(0).jsonModel()).getDebiteur());
+        assertNull(read.items().get(1).jsonModel());
+        assertEquals("{\"debiteur\":{}}", read.items().get(2).jsonModel());
+    }
+
+    public void testReadsVersionOneRequest() throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(frame);
+        out.writeInt(BatchWireFormat.REQUEST_MAGIC);
+        out.writeByte(1);
+        writeString(out, "<html/>");
+        out.writeBoolean(true);
+        // No shared model in version 1
+        out.writeInt(1);
+        writeString(out, "v1");
+        out.writeByte(2); // model given as JSON text
+        writeString(out, "{}");
+
+        BatchConversionRequest read = BatchWireFormat.readRequest(new ByteArrayInputStream(frame.toByteArray()));
+
+        assertEquals("<html/>", read.html());
+        assertTrue(read.includeSanitisedXhtml());
+        assertNull(read.sharedModel());
+        assertEquals("v1", read.items().get(0).outputId());
+        assertEquals("{}", read.items().get(0).jsonModel());
+    }
+
+    public void testWritesVersionOneWithoutSharedModel() throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        BatchWireFormat.writeRequest(new BatchConversionRequest("<html/>", false,
+                List.of(new BatchConversionItem("{}", "v1"))), frame);
+
+        assertEquals(1, frame.toByteArray()[Integer.BYTES]);
+        assertEquals("v1", BatchWireFormat.readRequest(new ByteArrayInputStream(frame.toByteArray()))
+                .items().get(0).outputId());
+    }
+
+    public void testResponseRoundTrip() throws IOException {
+        byte[] pdf = new byte[100_000];
+        Arrays.fill(pdf, (byte) 7);
+        Instant generatedAt = Instant.ofEpochSecond(1_760_000_000L, 123_456_789);
+        BatchConversionResponse response = new BatchConversionResponse(List.of(
+                BatchConversionResultItem.success("ok", pdf),
+                BatchConversionResultItem.failure("failed", "boom"),
+                new BatchConversionResultItem(null, new byte[0], null)), generatedAt);
+
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        BatchWireFormat.writeResponse(response, encoded);
+        BatchConversionResponse read = BatchWireFormat.readResponse(new ByteArrayInputStream(encoded.toByteArray()));
+
+        assertEquals(generatedAt, read.generatedAt());
+        assertEquals(3, read.results().size());
+        assertEquals("ok", read.results().get(0).outputId());
+        assertTrue(Arrays.equals(pdf, read.results().get(0).pdfContent()));
+        assertNull(read.results().get(0).error());
+        assertNull(read.results().get(1).pdfContent());
+        assertEquals("boom", read.results().get(1).error());
+        assertNull(read.results().get(2).outputId());
+        assertEquals(0, read.results().get(2).pdfContent().length);
+    }
+
+    public void testResponseWithoutTimestamp() throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        BatchWireFormat.writeResponse(new BatchConversionResponse(null, null), encoded);
+
+        BatchConversionResponse read = BatchWireFormat.readResponse(new ByteArrayInputStream(encoded.toByteArray()));
+
+        assertNull(read.generatedAt());
+        assertTrue(read.results().isEmpty());
+    }
+
+    public void testRejectsTruncatedFrames() throws IOException {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        BatchWireFormat.writeRequest(new BatchConversionRequest("<html/>", false,
+                List.of(new BatchConversionItem(new DebiteurWithPractitioner(fullDebiteur(), null, null), "x"))), request);
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        BatchWireFormat.writeResponse(new BatchConversionResponse(
+                List.of(BatchConversionResultItem.success("x", new byte[1000])), Instant.now()), response);
+
+        for (int length : new int[] {0, 3, 5, request.size() / 2, request.size() - 1}) {
+            try {
+                BatchWireFormat.readRequest(new ByteArrayInputStream(request.toByteArray(), 0, length));
+                fail("Request truncated to " + length + " bytes was accepted");
+            } catch (EOFException expected) {
+                // Reading stops at the end of the frame
+            }
+        }
+        try {
+            BatchWireFormat.readResponse(new ByteArrayInputStream(response.toByteArray(), 0, response.size() - 10));
+            fail("Truncated response was accepted");
+        } catch (EOFException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("of 1000 bytes"));
+        }
+    }
+
+    public void testRejectsBadMagicAndVersion() throws IOException {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        BatchWireFormat.writeResponse(new BatchConversionResponse(List.of(), null), response);
+        try {
+            // A response is not a request
+            BatchWireFormat.readRequest(new ByteArrayInputStream(response.toByteArray()));
+            fail("Response frame was read as a request");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("Not a "));
+        }
+        assertFalse(BatchWireFormat.isRequest(response.toByteArray()));
+        assertFalse(BatchWireFormat.isRequest("{\"html\":".getBytes(StandardCharsets.UTF_8)));
+
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        BatchWireFormat.writeRequest(new BatchConversionRequest("<html/>", false, List.of()), request);
+        byte[] frame = request.toByteArray();
+        assertTrue(BatchWireFormat.isRequest(frame));
+        frame[Integer.BYTES] = (byte) (BatchWireFormat.VERSION + 1);
+        try {
+            BatchWireFormat.readRequest(new ByteArrayInputStream(frame));
+            fail("Request of an unknown version was accepted");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("Unsupported"));
+        }
+    }
+
+    public void testRejectsUnsupportedModel() {
+        assertFalse(BatchWireFormat.supports(Integer.valueOf(1)));
+        try {
+            BatchWireFormat.writeRequest(new BatchConversionRequest("<html/>", false,
+                    List.of(new BatchConversionItem(Integer.valueOf(1), "x"))), new ByteArrayOutputStream());
+            fail("Unsupported model was encoded");
+        } catch (IllegalArgumentException | IOException expected) {
+            // Callers check supports() and fall back to JSON
+        }
+    }
+
+    private static BatchConversionRequest roundTrip(BatchConversionRequest request) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        BatchWireFormat.writeRequest(request, encoded);
+        return BatchWireFormat.readRequest(new ByteArrayInputStream(encoded.toByteArray()));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Debiteur fullDebiteur() {
+        return new Debiteur("F-1", "2025-09-30", "Praktijk", "Straat", "1a", "1234 AB", "Stad", "01234567", "07654321",
+                "INS-1", "J. Jansen", "Laan", "22", "4321 BA", "Dorp", 12_345, -50, LocalDate.of(1980, 2, 29),
+                "2025-10-30", "Verzekeraar", LocalDate.of(2025, 9, 1), LocalDate.of(2025, 9, 30), 20,
+                Arrays.asList(100, null, -3), "https://example.org/logo.png");
+    }
+
+    private static Practitioner fullPractitioner() {
+        return new Practitioner("01234567", 4, new Address("NL", "Stad", "1234 AB", "Straat", "1a"),
+                new Practice("Praktijk", "P1", "010-1234567"));
+    }
+
+    private static void assertDebiteurEquals(Debiteur expected, Debiteur actual) {
+        assertEquals(expected.getInvoiceNumber(), actual.getInvoiceNumber());
+        assertEquals(expected.getPrintDate(), actual.getPrintDate());
+        assertEquals(expected.getHcpName(), actual.getHcpName());
+        assertEquals(expected.getHcpStreet(), actual.getHcpStreet());
+        assertEquals(expected.getHcpHouseNr(), actual.getHcpHouseNr());
+        assertEquals(expected.getHcpZipCode(), actual.getHcpZipCode());
+        assertEquals(expected.getHcpCity(), actual.getHcpCity());
+        assertEquals(expected.getPracticeAgb(), actual.getPracticeAgb());
+        assertEquals(expected.getHcpAgb(), actual.getHcpAgb());
+        assertEquals(expected.getInsuredId(), actual.getInsuredId());
+        assertEquals(expected.getPatientName(), actual.getPatientName());
+        assertEquals(expected.getStreet(), actual.getStreet());
+        assertEquals(expected.getHouseNr(), actual.getHouseNr());
+        assertEquals(expected.getZipCode(), actual.getZipCode());
+        assertEquals(expected.getCity(), actual.getCity());
+        assertEquals(expected.getInvoiceAmountCents(), actual.getInvoiceAmountCents());
+        assertEquals(expected.getOpenImfCents(), actual.getOpenImfCents());
+        assertEquals(expected.getPatientDob(), actual.getPatientDob());
+        assertEquals(expected.getFirstExpirationDate(), actual.getFirstExpirationDate());
+        assertEquals(expected.getInsurer(), actual.getInsurer());
+        assertEquals(expected.getPeriodFrom(), actual.getPeriodFrom());
+        assertEquals(expected.getPeriodTo(), actual.getPeriodTo());
+        assertEquals(expected.getInvoiceType(), actual.getInvoiceType());
+        assertEquals(expected.getTotals(), actual.getTotals());
+        assertEquals(expected.getImageUrl(), actual.getImageUrl());
+    }
+
+    private static void assertPractitionerEquals(Practitioner expected, Practitioner actual) {
+        assertEquals(expected.getAgbCode(), actual.getAgbCode());
+        assertEquals(expected.getLogoNr(), actual.getLogoNr());
+        assertEquals(expected.getAddress().getCountry(), actual.getAddress().getCountry());
+        assertEquals(expected.getAddress().getCity(), actual.getAddress().getCity());
+        assertEquals(expected.getAddress().getPostcode(), actual.getAddress().getPostcode());
+        assertEquals(expected.getAddress().getStreet(), actual.getAddress().getStreet());
+        assertEquals(expected.getAddress().getHouseNr(), actual.getAddress().getHouseNr());
+        assertEquals(expected.getPractice().getName(), actual.getPractice().getName());
+        assertEquals(expected.getPractice().getCode(), actual.getPractice().getCode());
+        assertEquals(expected.getPractice().getPhone(), actual.getPractice().getPhone());
+    }
+}
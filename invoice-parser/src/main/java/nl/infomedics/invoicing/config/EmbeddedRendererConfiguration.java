@@ -0,0 +1,96 @@
+package nl.infomedics.invoicing.config;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import nl.infomedics.invoicing.metrics.DiagnosticsRecorder;
+import nl.infomedics.invoicing.service.EmbeddedPdfRenderer;
+import nl.infomedics.invoicing.service.PdfRenderer;
+import nl.infomedics.reporting.cache.BoundedCacheFactory;
+import nl.infomedics.reporting.io.SegmentPool;
+import nl.infomedics.reporting.service.BatchPdfRenderer;
+import nl.infomedics.reporting.service.FontRegistry;
+import nl.infomedics.reporting.service.Html2PdfConverterService;
+import nl.infomedics.reporting.service.PdfMemoryPolicy;
+import nl.infomedics.reporting.service.PlaceholderResolver;
+
+/**
+ * Wires the pdf-renderer library into this application when {@code xhtml2pdf.mode=embedded}, making
+ * {@link EmbeddedPdfRenderer} the {@link PdfRenderer} used for ZIP ingestion. The library's beans are declared
+ * here rather than component-scanned, so its {@code DiagnosticsRecorder} does not collide with ours; template
+ * previews keep going to pdf-creator over HTTP.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "xhtml2pdf.mode", havingValue = "embedded")
+public class EmbeddedRendererConfiguration {
+
+    @Bean
+    FontRegistry fontRegistry() {
+        return new FontRegistry();
+    }
+
+    @Bean
+    BoundedCacheFactory rendererCacheFactory(ObjectProvider<MeterRegistry> registryProvider, Environment environment) {
+        return new BoundedCacheFactory(registryProvider, environment);
+    }
+
+    @Bean
+    nl.infomedics.reporting.metrics.DiagnosticsRecorder rendererDiagnostics(ObjectProvider<MeterRegistry> registryProvider,
+            @Value("${diagnostics.metrics.enabled:false}") boolean enabled) {
+        return new nl.infomedics.reporting.metrics.DiagnosticsRecorder(registryProvider, enabled);
+    }
+
+    /**
+     * Platform threads that render the documents of a batch; sized to the processors by default.
+     */
+    @Bean(name = "embeddedPdfRenderExecutor", destroyMethod = "shutdown")
+    ExecutorService embeddedPdfRenderExecutor(@Value("${xhtml2pdf.embedded.threads:0}") int threads) {
+        int size = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors());
+        log.info("Embedded PDF rendering enabled with {} render threads", size);
+        return Executors.newFixedThreadPool(size, r -> {
+            Thread t = new Thread(r);
+            t.setName("pdf-render-" + t.threadId());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Bean
+    Html2PdfConverterService html2PdfConverterService(FontRegistry fontRegistry,
+            @Value("${xhtml2pdf.embedded.max-concurrent:16}") int maxConcurrent,
+            nl.infomedics.reporting.metrics.DiagnosticsRecorder rendererDiagnostics,
+            @Value("${xhtml2pdf.embedded.overlay.enabled:false}") boolean overlayEnabled,
+            BoundedCacheFactory rendererCacheFactory,
+            @Value("${xhtml2pdf.embedded.output-buffer.max-pooled-segments:512}") int maxPooledSegments) {
+        return new Html2PdfConverterService(fontRegistry, maxConcurrent, rendererDiagnostics, overlayEnabled,
+                rendererCacheFactory, new SegmentPool(maxPooledSegments),
+                new PdfMemoryPolicy(PdfMemoryPolicy.Mode.MAIN_MEMORY.name(), 0, 0, ""));
+    }
+
+    @Bean
+    BatchPdfRenderer batchPdfRenderer(Html2PdfConverterService converterService,
+            BoundedCacheFactory rendererCacheFactory,
+            @Qualifier("embeddedPdfRenderExecutor") ExecutorService executor,
+            nl.infomedics.reporting.metrics.DiagnosticsRecorder rendererDiagnostics) {
+        return new BatchPdfRenderer(converterService, new PlaceholderResolver(rendererCacheFactory), executor,
+                rendererDiagnostics);
+    }
+
+    @Bean
+    @Primary
+    PdfRenderer embeddedPdfRenderer(BatchPdfRenderer batchPdfRenderer, DiagnosticsRecorder diagnostics) {
+        return new EmbeddedPdfRenderer(batchPdfRenderer, diagnostics);
+    }
+}
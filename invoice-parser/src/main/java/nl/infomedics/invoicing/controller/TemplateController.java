@@ -7,6 +7,7 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.Map;
 
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -16,9 +17,12 @@ import org.springframework.web.bind.annotation.RestController;
 
 import com.googlecode.htmlcompressor.compressor.HtmlCompressor;
 
+import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import nl.infomedics.invoicing.config.TemplateHtmlConfig;
 import nl.infomedics.invoicing.model.PublishTemplateRequest;
+import nl.infomedics.invoicing.model.TemplatePreviewRequest;
+import nl.infomedics.invoicing.service.Xhtml2PdfClient;
 
 @Slf4j
 @RestController
@@ -26,10 +30,13 @@ public class TemplateController {
 
     private final Map<Integer, String> templateHtmlMap;
     private final Path templateDirectory;
+    private final Xhtml2PdfClient xhtml2PdfClient;
 
-    public TemplateController(Map<Integer, String> templateHtmlMap, Path templateDirectory) {
+    public TemplateController(Map<Integer, String> templateHtmlMap, Path templateDirectory,
+                              Xhtml2PdfClient xhtml2PdfClient) {
         this.templateHtmlMap = templateHtmlMap;
         this.templateDirectory = templateDirectory;
+        this.xhtml2PdfClient = xhtml2PdfClient;
     }
 
     @PutMapping(path = "/api/templates/publish", consumes = MediaType.APPLICATION_JSON_VALUE)
@@ -56,6 +63,20 @@ public class TemplateController {
         }
     }
 
+    @PostMapping(path = "/api/templates/preview", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> previewTemplate(@Valid @RequestBody TemplatePreviewRequest request) {
+        if (request == null || request.html() == null || request.html().isBlank()) {
+            return ResponseEntity.badRequest().body("html is required");
+        }
+        try {
+            return ResponseEntity.ok(xhtml2PdfClient.preview(request));
+        } catch (Xhtml2PdfClient.ConversionException e) {
+            log.warn("Template preview failed: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_GATEWAY).body("Failed to render preview: " + e.getMessage());
+        }
+    }
+
     @PostMapping(path = "/api/templates/compress", consumes = "text/plain", produces = "text/plain")
     public ResponseEntity<String> compressTemplate(@RequestBody String htmlString) {
         HtmlCompressor compressor = new HtmlCompressor();
@@ -2,6 +2,7 @@ package nl.infomedics.invoicing.metrics;
 
 import java.time.Duration;
 import java.util.Map;
+import java.util.function.ToDoubleFunction;
 
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
@@ -38,6 +39,14 @@ public class DiagnosticsRecorder {
         return new SampleTimer(name, micrometerTags, registry);
     }
 
+    /**
+     * Registers a gauge that reads {@code valueFunction} from {@code source} whenever it is sampled. Gauges are
+     * registered whether or not diagnostics are enabled, as they cost nothing until read.
+     */
+    public <T> void gauge(String name, T source, ToDoubleFunction<T> valueFunction) {
+        registry.gauge(name, Tags.empty(), source, valueFunction);
+    }
+
     public boolean isEnabled() {
         return enabled;
     }
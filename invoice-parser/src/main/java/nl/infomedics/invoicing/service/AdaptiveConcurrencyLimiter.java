@@ -0,0 +1,159 @@
+package nl.infomedics.invoicing.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the batch requests outstanding against pdf-creator to a limit that follows the latency it observes, in the
+ * manner of a gradient concurrency limiter. Every completed batch yields a latency per debtor; it is compared with a
+ * slowly moving average of the same. While a sample stays within {@code TOLERANCE} of the average the limit grows by
+ * about its square root per batch, probing for more throughput; once latency rises above that the gradient drops
+ * below 1 and shrinks the limit in proportion. A failed batch cuts the limit by {@code BACKOFF}.
+ * <p>
+ * Batches beyond the limit queue here in arrival order until a release makes room; none times out, and no thread
+ * waits for its turn.
+ * <p>
+ * Without {@code adaptive} the limit stays at {@code maxLimit}, which makes this a plain semaphore.
+ */
+final class AdaptiveConcurrencyLimiter {
+
+    /** Weight of a new sample in the long-term latency average, roughly a 20-batch window. */
+    private static final double LONG_WINDOW_WEIGHT = 0.05;
+    /** Share of a newly computed limit taken over per batch, so a single outlier moves it little. */
+    private static final double SMOOTHING = 0.2;
+    /** Latency may rise this far above the long-term average before the limit shrinks. */
+    private static final double TOLERANCE = 1.5;
+    private static final double BACKOFF = 0.9;
+
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Batches waiting for room under the limit. */
+    private final Queue<Runnable> queued = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private double longLatencyPerItem;
+    private double gradient = 1.0;
+
+    AdaptiveConcurrencyLimiter(boolean adaptive, int minLimit, int initialLimit, int maxLimit) {
+        this.adaptive = adaptive;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = Math.clamp(minLimit, 1, this.maxLimit);
+        this.limit = adaptive ? Math.clamp(initialLimit, this.minLimit, this.maxLimit) : this.maxLimit;
+    }
+
+    /**
+     * Counts a batch as outstanding and runs {@code admitted} once fewer batches than the limit are: right away on the
+     * calling thread, or else on the thread whose {@link #release} makes room. {@code admitted} should only hand the
+     * batch over, for it runs in the middle of whichever call admits it.
+     */
+    void acquire(Runnable admitted) {
+        lock.lock();
+        try {
+            if (!queued.isEmpty() || inFlight >= (int) limit) {
+                queued.add(admitted);
+                return;
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+        admitted.run();
+    }
+
+    /**
+     * Ends an outstanding batch, adjusts the limit by its outcome and admits the queued batches that then fit.
+     *
+     * @param latencyNanos time from sending the batch to having its last PDF
+     * @param items        debtors in the batch
+     * @param failed       whether pdf-creator answered with an error or not at all
+     */
+    void release(long latencyNanos, int items, boolean failed) {
+        List<Runnable> admitted;
+        lock.lock();
+        try {
+            // Whether the limit was actually reached; if not, low latency says nothing about a higher limit
+            boolean saturated = inFlight >= (int) limit - 1;
+            inFlight--;
+            if (adaptive) {
+                if (failed) {
+                    limit = Math.max(minLimit, limit * BACKOFF);
+                } else if (items > 0 && latencyNanos > 0) {
+                    update(latencyNanos / (double) items, saturated);
+                }
+            }
+            admitted = admitQueued();
+        } finally {
+            lock.unlock();
+        }
+        admitted.forEach(Runnable::run);
+    }
+
+    private List<Runnable> admitQueued() {
+        List<Runnable> admitted = new ArrayList<>();
+        while (!queued.isEmpty() && inFlight < (int) limit) {
+            inFlight++;
+            admitted.add(queued.poll());
+        }
+        return admitted;
+    }
+
+    private void update(double latencyPerItem, boolean saturated) {
+        longLatencyPerItem = longLatencyPerItem == 0
+                ? latencyPerItem
+                : longLatencyPerItem * (1 - LONG_WINDOW_WEIGHT) + latencyPerItem * LONG_WINDOW_WEIGHT;
+        gradient = Math.clamp(TOLERANCE * longLatencyPerItem / latencyPerItem, 0.5, 1.0);
+        if (gradient >= 1.0 && !saturated) {
+            return;
+        }
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = Math.clamp(limit * (1 - SMOOTHING) + target * SMOOTHING, minLimit, maxLimit);
+    }
+
+    int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int queued() {
+        lock.lock();
+        try {
+            return queued.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the last ratio of tolerated to observed latency, between 0.5 and 1; below 1 the limit is shrinking
+     */
+    double gradient() {
+        lock.lock();
+        try {
+            return gradient;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int maxLimit() {
+        return maxLimit;
+    }
+}
@@ -0,0 +1,47 @@
+package nl.infomedics.invoicing.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import nl.infomedics.invoicing.metrics.DiagnosticsRecorder;
+import nl.infomedics.invoicing.model.BatchConversionItem;
+import nl.infomedics.invoicing.model.BatchConversionRequest;
+import nl.infomedics.invoicing.model.BatchConversionResponse;
+import nl.infomedics.invoicing.model.BatchConversionResultItem;
+import nl.infomedics.reporting.service.BatchPdfRenderer;
+
+/**
+ * Renders batches in this JVM with the pdf-renderer library instead of calling pdf-creator, for deployments where
+ * both run on the same host. Item models are handed over as objects, so there is no JSON, TLS, HTTP or Base64
+ * on the way in or out. Enabled with {@code xhtml2pdf.mode=embedded}.
+ */
+public class EmbeddedPdfRenderer implements PdfRenderer {
+
+    private final BatchPdfRenderer batchRenderer;
+    private final DiagnosticsRecorder diagnostics;
+
+    public EmbeddedPdfRenderer(BatchPdfRenderer batchRenderer, DiagnosticsRecorder diagnostics) {
+        this.batchRenderer = batchRenderer;
+        this.diagnostics = diagnostics;
+    }
+
+    @Override
+    public Map<String, byte[]> convertBatch(String html, boolean includeSanitisedXhtml, List<BatchConversionItem> items) throws ConversionException {
+        if (html == null || html.isBlank()) throw new ConversionException("HTML must not be blank");
+        if (items == null || items.isEmpty()) throw new ConversionException("Items must not be empty");
+        try (var timer = diagnostics.start("parser.pdf.embedded", Map.of(
+                "items", Integer.toString(items.size())
+        ))) {
+            BatchConversionResponse r = batchRenderer.convertBatch(new BatchConversionRequest(html, includeSanitisedXhtml, items));
+            return r.results().stream()
+                    .filter(result -> result.pdfContent() != null && result.error() == null)
+                    .collect(Collectors.toMap(
+                            BatchConversionResultItem::outputId,
+                            BatchConversionResultItem::pdfContent
+                    ));
+        } catch (RuntimeException e) {
+            throw new ConversionException("Batch conversion failed: " + e.getMessage(), e);
+        }
+    }
+}
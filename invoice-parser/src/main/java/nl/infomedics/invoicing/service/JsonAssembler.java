@@ -1,44 +1,92 @@
 package nl.infomedics.invoicing.service;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.springframework.stereotype.Service;
 import nl.infomedics.invoicing.model.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 
 @Service
 public class JsonAssembler {
 	private final ObjectMapper om;
+	/** {@link #om} without a flush after every debtor of a bundle that is written incrementally. */
+	private final ObjectMapper streamingOm;
 
 	public JsonAssembler() {
 		this.om = new ObjectMapper()
 		.setDefaultPropertyInclusion(JsonInclude.Value.construct(JsonInclude.Include.NON_NULL, JsonInclude.Include.NON_NULL))
 		.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
 		.registerModule(new JavaTimeModule());
+		this.streamingOm = om.copy().disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
 	}
 
 
 	public InvoiceBundle assemble(MetaInfo meta, Practitioner practitioner, Map<String, Debiteur> debi, Map<String, List<Specificatie>> specs) {
 		List<DebiteurWithPractitioner> list = new ArrayList<>();
 		for (Debiteur d : debi.values()) {
-			DebiteurWithPractitioner dwp = new DebiteurWithPractitioner();
-			
-			dwp.setDebiteur(d);
-			dwp.setTreatments(specs.get(d.getInvoiceNumber()));
-			dwp.setPractitioner(practitioner);
-			list.add(dwp);
+			list.add(withPractitioner(d, specs.get(d.getInvoiceNumber()), practitioner));
 		}
 		return new InvoiceBundle(list);
 	}
 
+	public DebiteurWithPractitioner withPractitioner(Debiteur debiteur, List<Specificatie> treatments, Practitioner practitioner) {
+		DebiteurWithPractitioner dwp = new DebiteurWithPractitioner();
+		dwp.setDebiteur(debiteur);
+		dwp.setTreatments(treatments);
+		dwp.setPractitioner(practitioner);
+		return dwp;
+	}
+
 
 	public String stringify(InvoiceBundle bundle, boolean pretty) throws JsonProcessingException {
 		return pretty ? om.writerWithDefaultPrettyPrinter().writeValueAsString(bundle)
 		: om.writeValueAsString(bundle);
 	}
 
+	/**
+	 * Starts an {@link InvoiceBundle} on {@code out} that is written one debtor at a time; the result is the same
+	 * document {@link #stringify} makes of the whole bundle.
+	 */
+	public BundleWriter openBundle(OutputStream out, boolean pretty) throws IOException {
+		JsonGenerator generator = streamingOm.createGenerator(out);
+		if (pretty) generator.useDefaultPrettyPrinter();
+		generator.writeStartObject();
+		generator.writeFieldName("debiteuren");
+		generator.writeStartArray();
+		return new BundleWriter(streamingOm, generator);
+	}
+
+	public static final class BundleWriter implements Closeable {
+		private final ObjectMapper mapper;
+		private final JsonGenerator generator;
+
+		private BundleWriter(ObjectMapper mapper, JsonGenerator generator) {
+			this.mapper = mapper;
+			this.generator = generator;
+		}
+
+		public void write(DebiteurWithPractitioner debiteur) throws IOException {
+			// Through the mapper, as an ObjectWriter would start every debtor with a fresh pretty printer
+			mapper.writeValue(generator, debiteur);
+		}
+
+		/**
+		 * Ends the bundle and closes the underlying stream.
+		 */
+		@Override
+		public void close() throws IOException {
+			generator.writeEndArray();
+			generator.writeEndObject();
+			generator.close();
+		}
+	}
+
 	public SingleDebtorInvoice createSingleDebtorInvoice(MetaInfo meta, Practitioner practitioner, Debiteur debiteur, List<Specificatie> specs) {
 		DebiteurWithPractitioner w = new DebiteurWithPractitioner();
 		if (w.getDebiteur()==null) w.setDebiteur(debiteur);
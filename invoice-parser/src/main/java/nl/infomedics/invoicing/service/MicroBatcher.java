@@ -0,0 +1,98 @@
+package nl.infomedics.invoicing.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import nl.infomedics.invoicing.model.BatchConversionItem;
+
+/**
+ * Collects the debtors of small zips that share an invoice type, and therefore a template, into one batch. A batch
+ * is handed to the dispatcher once it holds {@code maxItems} debtors or {@code maxDelay} after its first zip
+ * arrived, whichever comes first.
+ */
+final class MicroBatcher {
+
+    record Entry(ZipConversion conversion, BatchConversionItem item) {}
+
+    record Batch(Integer invoiceType, String html, List<Entry> entries) {
+        Set<ZipConversion> conversions() {
+            Set<ZipConversion> conversions = new LinkedHashSet<>();
+            entries.forEach(e -> conversions.add(e.conversion()));
+            return conversions;
+        }
+    }
+
+    private final int maxItems;
+    private final Duration maxDelay;
+    private final Consumer<Batch> dispatcher;
+    private final ScheduledExecutorService timer;
+    /** Batches still accepting zips, by invoice type; guarded by {@code this}. */
+    private final Map<Integer, Batch> open = new HashMap<>();
+
+    MicroBatcher(int maxItems, Duration maxDelay, Consumer<Batch> dispatcher) {
+        this.maxItems = maxItems;
+        this.maxDelay = maxDelay;
+        this.dispatcher = dispatcher;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pdf-micro-batch-timer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    void add(ZipConversion conversion) {
+        Batch full = null;
+        synchronized (this) {
+            Batch batch = open.get(conversion.invoiceType());
+            if (batch == null) {
+                Batch created = new Batch(conversion.invoiceType(), conversion.html(), new ArrayList<>());
+                open.put(created.invoiceType(), created);
+                timer.schedule(() -> flush(created), maxDelay.toMillis(), TimeUnit.MILLISECONDS);
+                batch = created;
+            }
+            for (BatchConversionItem item : conversion.items()) {
+                batch.entries().add(new Entry(conversion, item));
+            }
+            if (batch.entries().size() >= maxItems) {
+                open.remove(batch.invoiceType());
+                full = batch;
+            }
+        }
+        if (full != null) {
+            dispatcher.accept(full);
+        }
+    }
+
+    /**
+     * Dispatches every open batch now and stops the timer.
+     */
+    void close() {
+        List<Batch> remaining;
+        synchronized (this) {
+            remaining = new ArrayList<>(open.values());
+            open.clear();
+        }
+        timer.shutdownNow();
+        remaining.forEach(dispatcher);
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            // Already dispatched when it filled up
+            if (open.get(batch.invoiceType()) != batch) {
+                return;
+            }
+            open.remove(batch.invoiceType());
+        }
+        dispatcher.accept(batch);
+    }
+}
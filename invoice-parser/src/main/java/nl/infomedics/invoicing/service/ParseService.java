@@ -5,9 +5,11 @@ import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -229,6 +231,47 @@ public class ParseService {
 		return specificatieMap;
 	}
 
+	/**
+	 * Streams the Specificaties CSV file as groups of adjacent rows that share an invoice number, so the debtor of a
+	 * group is complete as soon as the next group starts. An invoice number that comes back after another one starts a
+	 * new group.
+	 * 
+	 * @param reader The reader for the specificaties file content; it is read while iterating.
+	 * @return The groups in file order, each holding at least one Specificatie.
+	 */
+	public Iterator<List<Specificatie>> iterateSpecificatieGroups(Reader reader) {
+		Iterator<com.univocity.parsers.common.record.Record> records = createCsvParser().iterateRecords(reader).iterator();
+		return new Iterator<>() {
+			private Specificatie lookahead = nextSpecificatie(records);
+
+			@Override
+			public boolean hasNext() {
+				return lookahead != null;
+			}
+
+			@Override
+			public List<Specificatie> next() {
+				if (lookahead == null) throw new NoSuchElementException();
+				String invoiceNumber = lookahead.getInvoiceNumber();
+				List<Specificatie> group = new ArrayList<>();
+				do {
+					group.add(lookahead);
+					lookahead = nextSpecificatie(records);
+				} while (lookahead != null && invoiceNumber.equals(lookahead.getInvoiceNumber()));
+				return group;
+			}
+		};
+	}
+
+	private Specificatie nextSpecificatie(Iterator<com.univocity.parsers.common.record.Record> records) {
+		while (records.hasNext()) {
+			var record = records.next();
+			String invoiceNumber = getRecordValue(record, CSV_IDX_SPEC_INVOICE_NR);
+			if (invoiceNumber != null) return mapRecordToSpecificatie(record, invoiceNumber);
+		}
+		return null;
+	}
+
 	private Specificatie mapRecordToSpecificatie(com.univocity.parsers.common.record.Record record, String invoiceNumber) {
 		Specificatie specificatie = new Specificatie();
 		specificatie.setInvoiceNumber(invoiceNumber);
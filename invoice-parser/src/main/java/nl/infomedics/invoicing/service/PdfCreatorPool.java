@@ -0,0 +1,350 @@
+package nl.infomedics.invoicing.service;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.infomedics.invoicing.model.CacheStatsResponse;
+
+/**
+ * The pdf-creator instances a client spreads its requests over. Each request goes to the available node with the
+ * lowest score: its outstanding requests, or with {@link Balancing#EWMA} its moving average latency per item weighted
+ * by its outstanding requests. With {@link Balancing#AFFINITY} a request for a template goes to the node that template
+ * hashes to on a consistent-hash ring, so each node keeps a subset of the templates warm; only when that node carries
+ * more than {@code affinityLoadFactor} times the average load does the request spill over to the next node on the
+ * ring. A node is taken out of rotation for {@code ejectDuration} after
+ * {@code ejectAfterFailures} consecutive failures, or when its latency exceeds {@code ejectLatencyFactor} times that
+ * of the fastest other node; and while its readiness probe fails. Latency does not eject under affinity, where each
+ * node renders its own templates and their cost per item says nothing about the node. The last available node is
+ * never ejected, and when no node is available requests go to any of them rather than fail outright.
+ */
+@Slf4j
+final class PdfCreatorPool implements AutoCloseable {
+
+    enum Balancing { LEAST_OUTSTANDING, EWMA, AFFINITY }
+
+    /** Weight of a new sample in a node's moving average latency. */
+    private static final double EWMA_WEIGHT = 0.3;
+    /** Points per node on the hash ring; enough to spread some 70 templates evenly over a handful of nodes. */
+    private static final int RING_POINTS_PER_NODE = 128;
+
+    private final List<Node> nodes;
+    private final Balancing balancing;
+    private final double affinityLoadFactor;
+    private final TreeMap<Integer, Node> ring = new TreeMap<>();
+    private final int ejectAfterFailures;
+    private final double ejectLatencyFactor;
+    private final long ejectNanos;
+    private final ScheduledExecutorService healthChecks;
+
+    PdfCreatorPool(List<String> baseUrls, Balancing balancing, double affinityLoadFactor, int ejectAfterFailures,
+            double ejectLatencyFactor, Duration ejectDuration, HttpClient httpClient, ObjectMapper objectMapper,
+            Duration healthInterval, Duration cacheStatsInterval) {
+        if (baseUrls.isEmpty()) throw new IllegalArgumentException("No pdf-creator base URL configured");
+        this.nodes = baseUrls.stream().map(Node::new).toList();
+        this.balancing = balancing;
+        this.affinityLoadFactor = Math.max(1.0, affinityLoadFactor);
+        for (Node node : nodes) {
+            for (int i = 0; i < RING_POINTS_PER_NODE; i++) {
+                ring.put(ringPoint(node.baseUrl + "#" + i), node);
+            }
+        }
+        this.ejectAfterFailures = ejectAfterFailures;
+        this.ejectLatencyFactor = ejectLatencyFactor;
+        this.ejectNanos = ejectDuration.toNanos();
+        // With a single node there is nothing to steer around
+        boolean probeHealth = nodes.size() > 1 && healthInterval != null && !healthInterval.isZero();
+        boolean reportCaches = nodes.size() > 1 && cacheStatsInterval != null && !cacheStatsInterval.isZero();
+        if (probeHealth || reportCaches) {
+            this.healthChecks = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "pdf-creator-health");
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            this.healthChecks = null;
+        }
+        if (probeHealth) {
+            healthChecks.scheduleWithFixedDelay(() -> nodes.forEach(n -> probe(n, httpClient)),
+                    0, healthInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        if (reportCaches) {
+            long intervalMs = cacheStatsInterval.toMillis();
+            healthChecks.scheduleWithFixedDelay(() -> nodes.forEach(n -> reportCacheStats(n, httpClient, objectMapper)),
+                    intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    List<Node> nodes() {
+        return nodes;
+    }
+
+    /**
+     * Picks a node for a request without template affinity and counts the request as outstanding on it.
+     *
+     * @param exclude nodes that already failed this request
+     * @return the node, or {@code null} when every node is excluded
+     */
+    Node acquire(Collection<Node> exclude) {
+        return acquire(null, exclude);
+    }
+
+    /**
+     * Picks a node for a request and counts the request as outstanding on it.
+     *
+     * @param affinityKey the template of the request, or {@code null} when it has no preferred node
+     * @param exclude     nodes that already failed this request
+     * @return the node, or {@code null} when every node is excluded
+     */
+    Node acquire(String affinityKey, Collection<Node> exclude) {
+        long now = System.nanoTime();
+        List<Node> candidates = new ArrayList<>(nodes.size());
+        List<Node> available = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            if (exclude.contains(node)) continue;
+            candidates.add(node);
+            if (node.isAvailable(now)) available.add(node);
+        }
+        List<Node> pickFrom = available.isEmpty() ? candidates : available;
+        if (pickFrom.isEmpty()) return null;
+        if (balancing == Balancing.AFFINITY && affinityKey != null) {
+            Node preferred = onRing(affinityKey, pickFrom);
+            if (preferred != null) {
+                preferred.outstanding.incrementAndGet();
+                return preferred;
+            }
+        }
+        // Start at a random node so that ties do not all land on the first one
+        int offset = ThreadLocalRandom.current().nextInt(pickFrom.size());
+        Node best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < pickFrom.size(); i++) {
+            Node node = pickFrom.get((offset + i) % pickFrom.size());
+            double score = score(node);
+            if (score < bestScore) {
+                best = node;
+                bestScore = score;
+            }
+        }
+        best.outstanding.incrementAndGet();
+        return best;
+    }
+
+    /**
+     * Walks the ring clockwise from the point of {@code key} and returns the first node of {@code pickFrom} whose
+     * load stays within the bound, so a hot template spills over to the same next node every time.
+     *
+     * @return the node, or {@code null} when every node is above the bound
+     */
+    private Node onRing(String key, List<Node> pickFrom) {
+        int total = 0;
+        for (Node node : pickFrom) total += node.outstanding.get();
+        double bound = Math.ceil(affinityLoadFactor * (total + 1) / pickFrom.size());
+        Iterator<Node> walk = ring.tailMap(ringPoint(key), true).values().iterator();
+        boolean wrapped = false;
+        for (int seen = 0; seen < ring.size(); seen++) {
+            if (!walk.hasNext()) {
+                if (wrapped) break;
+                walk = ring.values().iterator();
+                wrapped = true;
+            }
+            Node node = walk.next();
+            if (pickFrom.contains(node) && node.outstanding.get() + 1 <= bound) return node;
+        }
+        return null;
+    }
+
+    /**
+     * Hashes to a point on the ring; MD5 spreads even near-identical keys such as consecutive ring point names.
+     */
+    private static int ringPoint(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getInt();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+
+    private double score(Node node) {
+        int load = node.outstanding.get() + 1;
+        // A node without samples yet counts as fast, so it gets traffic and a latency
+        return balancing == Balancing.EWMA ? node.latencyPerItem * load : load;
+    }
+
+    /**
+     * Ends an outstanding request on {@code node}.
+     *
+     * @param latencyNanos time from sending the request to having read its response
+     * @param items        items in the request; 0 when its latency says nothing about rendering
+     * @param failed       whether the node failed to answer or answered with a server error
+     */
+    void release(Node node, long latencyNanos, int items, boolean failed) {
+        node.outstanding.decrementAndGet();
+        String reason = null;
+        synchronized (this) {
+            if (failed) {
+                if (++node.consecutiveFailures >= ejectAfterFailures) {
+                    reason = node.consecutiveFailures + " consecutive failures";
+                }
+            } else {
+                node.consecutiveFailures = 0;
+                if (items > 0 && latencyNanos > 0) {
+                    double sample = latencyNanos / (double) items;
+                    node.latencyPerItem = node.latencyPerItem == 0
+                            ? sample : node.latencyPerItem * (1 - EWMA_WEIGHT) + sample * EWMA_WEIGHT;
+                    double fastestOther = balancing != Balancing.AFFINITY ? fastestOtherLatency(node) : 0;
+                    if (fastestOther > 0 && node.latencyPerItem > ejectLatencyFactor * fastestOther) {
+                        reason = String.format("latency %.1f ms/item against %.1f ms/item",
+                                node.latencyPerItem / 1e6, fastestOther / 1e6);
+                    }
+                }
+            }
+            if (reason != null && !eject(node)) reason = null;
+        }
+        if (reason != null) {
+            log.warn("Ejected pdf-creator {} for {} ms: {}", node.baseUrl,
+                    TimeUnit.NANOSECONDS.toMillis(ejectNanos), reason);
+        }
+    }
+
+    private double fastestOtherLatency(Node node) {
+        long now = System.nanoTime();
+        return nodes.stream()
+                .filter(n -> n != node && n.latencyPerItem > 0 && n.isAvailable(now))
+                .mapToDouble(n -> n.latencyPerItem)
+                .min().orElse(0);
+    }
+
+    /**
+     * @return {@code false} when {@code node} is the last available one and stays in rotation
+     */
+    private boolean eject(Node node) {
+        long now = System.nanoTime();
+        if (nodes.stream().noneMatch(n -> n != node && n.isAvailable(now))) return false;
+        node.ejectedUntil = now + ejectNanos;
+        // Back in rotation with a clean slate, so it is tried again rather than ejected on its old record
+        node.consecutiveFailures = 0;
+        node.latencyPerItem = 0;
+        return true;
+    }
+
+    private void probe(Node node, HttpClient httpClient) {
+        HttpRequest req = HttpRequest.newBuilder(node.healthEndpoint).timeout(Duration.ofSeconds(5)).GET().build();
+        httpClient.sendAsync(req, HttpResponse.BodyHandlers.discarding()).whenComplete((resp, error) -> {
+            boolean healthy = error == null && resp.statusCode() < 300;
+            if (healthy != node.healthy) {
+                node.healthy = healthy;
+                if (healthy) {
+                    log.info("pdf-creator {} is ready", node.baseUrl);
+                } else {
+                    log.warn("pdf-creator {} is not ready: {}", node.baseUrl,
+                            error != null ? error.getMessage() : "status " + resp.statusCode());
+                }
+            }
+        });
+    }
+
+    /**
+     * Logs the hit rate of every cache of {@code node} over the last interval.
+     */
+    private void reportCacheStats(Node node, HttpClient httpClient, ObjectMapper objectMapper) {
+        HttpRequest req = HttpRequest.newBuilder(node.cacheStatsEndpoint).timeout(Duration.ofSeconds(5)).GET().build();
+        httpClient.sendAsync(req, HttpResponse.BodyHandlers.ofByteArray()).whenComplete((resp, error) -> {
+            if (error != null || resp.statusCode() >= 300) {
+                log.debug("No cache statistics from pdf-creator {}", node.baseUrl);
+                return;
+            }
+            try {
+                CacheStatsResponse stats = objectMapper.readValue(resp.body(), CacheStatsResponse.class);
+                StringJoiner rates = new StringJoiner(", ");
+                Map<String, CacheStatsResponse.CacheStatistics> previous = node.cacheStats;
+                stats.caches().forEach((name, current) -> {
+                    CacheStatsResponse.CacheStatistics before = previous.get(name);
+                    long hits = current.hitCount() - (before != null ? before.hitCount() : 0);
+                    long misses = current.missCount() - (before != null ? before.missCount() : 0);
+                    if (hits + misses > 0) {
+                        rates.add(String.format("%s %.1f%% of %d", name, 100.0 * hits / (hits + misses), hits + misses));
+                    }
+                });
+                node.cacheStats = new HashMap<>(stats.caches());
+                if (rates.length() > 0) {
+                    log.info("pdf-creator {} cache hit rates: {}", node.baseUrl, rates);
+                }
+            } catch (Exception e) {
+                log.debug("Unreadable cache statistics from pdf-creator {}: {}", node.baseUrl, e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        if (healthChecks != null) healthChecks.shutdownNow();
+    }
+
+    static final class Node {
+        private final String baseUrl;
+        private final URI healthEndpoint;
+        private final URI cacheStatsEndpoint;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile boolean healthy = true;
+        private volatile long ejectedUntil = System.nanoTime();
+        /** Guarded by the pool. */
+        private int consecutiveFailures;
+        /** Nanoseconds; 0 until the first sample. Written under the pool's lock. */
+        private volatile double latencyPerItem;
+        /** Cache statistics at the last report, to compute hit rates per interval. */
+        private volatile Map<String, CacheStatsResponse.CacheStatistics> cacheStats = Map.of();
+        /** Whether the node's last batch response advertised it reads a shared model; false until one arrives. */
+        private volatile boolean sharesModel;
+
+        private Node(String baseUrl) {
+            this.baseUrl = baseUrl;
+            this.healthEndpoint = endpoint("/actuator/health/readiness");
+            this.cacheStatsEndpoint = endpoint("/api/v1/pdf/cache-stats");
+        }
+
+        private boolean isAvailable(long now) {
+            return healthy && now - ejectedUntil >= 0;
+        }
+
+        URI endpoint(String path) {
+            return URI.create(baseUrl + path);
+        }
+
+        boolean sharesModel() {
+            return sharesModel;
+        }
+
+        void sharesModel(boolean sharesModel) {
+            this.sharesModel = sharesModel;
+        }
+
+        @Override
+        public String toString() {
+            return baseUrl;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package nl.infomedics.invoicing.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import nl.infomedics.invoicing.model.BatchConversionItem;
+
+/**
+ * Renders a batch of debtors that share one template into PDFs. {@link Xhtml2PdfClient} sends the batch to a
+ * pdf-creator service; {@link EmbeddedPdfRenderer} renders it in this JVM with the pdf-renderer library
+ * ({@code xhtml2pdf.mode=embedded}).
+ */
+public interface PdfRenderer {
+
+    /**
+     * @param html                  shared template markup
+     * @param includeSanitisedXhtml whether the sanitised XHTML should be returned as well
+     * @param items                 per-debtor models and output ids
+     * @return PDF bytes by output id; items that failed to render are absent
+     * @throws ConversionException when the batch as a whole could not be converted
+     */
+    Map<String, byte[]> convertBatch(String html, boolean includeSanitisedXhtml, List<BatchConversionItem> items)
+            throws ConversionException;
+
+    /**
+     * Like {@link #convertBatch(String, boolean, List)}, but hands every PDF to {@code sink} as soon as it is
+     * available instead of when the whole batch is done. Renderers that split a batch call the sink from several
+     * threads, so it must be thread-safe.
+     *
+     * @param sink receives output id and PDF bytes of every item that rendered
+     * @throws ConversionException when the batch, or a part of it that renderers split off, could not be converted;
+     *                             the PDFs already handed to {@code sink} stand
+     */
+    default void convertBatch(String html, boolean includeSanitisedXhtml, List<BatchConversionItem> items,
+            BiConsumer<String, byte[]> sink) throws ConversionException {
+        convertBatch(html, includeSanitisedXhtml, items).forEach(sink);
+    }
+
+    class ConversionException extends Exception {
+        private static final long serialVersionUID = 8288132479461418327L;
+        public ConversionException(String m){super(m);} public ConversionException(String m, Throwable c){super(m,c);} }
+}
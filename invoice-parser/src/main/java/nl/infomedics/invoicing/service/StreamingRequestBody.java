@@ -0,0 +1,94 @@
+package nl.infomedics.invoicing.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Request body that is encoded while it is being sent: the {@link Encoder} writes to an {@link OutputStream} on its
+ * own thread and every filled chunk is published to the HTTP client right away. The client's demand bounds how far
+ * encoding runs ahead of the upload, so at most {@code MAX_BUFFERED_CHUNKS} chunks are held at a time instead of the
+ * whole document. Every subscription encodes anew, so the client may resend the body.
+ */
+final class StreamingRequestBody implements Flow.Publisher<ByteBuffer> {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int MAX_BUFFERED_CHUNKS = 16;
+
+    @FunctionalInterface
+    interface Encoder {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private final Encoder encoder;
+    private final Executor executor;
+
+    StreamingRequestBody(Encoder encoder, Executor executor) {
+        this.encoder = encoder;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        SubmissionPublisher<ByteBuffer> chunks = new SubmissionPublisher<>(executor, MAX_BUFFERED_CHUNKS);
+        chunks.subscribe(subscriber);
+        executor.execute(() -> {
+            try {
+                ChunkStream out = new ChunkStream(chunks);
+                encoder.writeTo(out);
+                out.publishRemainder();
+                chunks.close();
+            } catch (Throwable e) {
+                chunks.closeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Cuts the written bytes into chunks; {@code submit} blocks while the subscriber has no demand.
+     */
+    private static final class ChunkStream extends OutputStream {
+        private final SubmissionPublisher<ByteBuffer> chunks;
+        private byte[] buffer = new byte[CHUNK_SIZE];
+        private int count;
+
+        ChunkStream(SubmissionPublisher<ByteBuffer> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) publish();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) publish();
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void publishRemainder() throws IOException {
+            if (count > 0) publish();
+        }
+
+        private void publish() throws IOException {
+            if (chunks.getNumberOfSubscribers() == 0) {
+                // The client cancelled the upload; stop encoding
+                throw new IOException("Request body no longer wanted");
+            }
+            chunks.submit(ByteBuffer.wrap(buffer, 0, count));
+            buffer = new byte[CHUNK_SIZE];
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package nl.infomedics.invoicing.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import jakarta.annotation.PreDestroy;
+import nl.infomedics.invoicing.metrics.DiagnosticsRecorder;
+import nl.infomedics.invoicing.model.BatchConversionItem;
+import nl.infomedics.invoicing.model.BatchConversionRequest;
+import nl.infomedics.invoicing.model.BatchConversionResponse;
+import nl.infomedics.invoicing.model.BatchWireFormat;
+
+/**
+ * Sends batches to a pdf-creator on the same host over its Unix domain socket ({@code converter.uds.path} there,
+ * {@code xhtml2pdf.uds.path} here) instead of HTTPS over TCP. Payloads are encoded as on the HTTP endpoint, in
+ * {@link BatchWireFormat} unless {@code xhtml2pdf.wire-format=json}; see {@code UnixSocketConversionListener} in pdf-creator for the framing. Connections are kept
+ * open and reused. Enabled with {@code xhtml2pdf.mode=uds}.
+ */
+@Service
+@Primary
+@ConditionalOnProperty(name = "xhtml2pdf.mode", havingValue = "uds")
+public class UnixSocketPdfClient implements PdfRenderer {
+
+    private static final byte STATUS_OK = 0;
+
+    private final UnixDomainSocketAddress address;
+    private final Duration requestTimeout;
+    private final ObjectMapper objectMapper;
+    private final DiagnosticsRecorder diagnostics;
+    private final boolean binaryWire;
+    private final LinkedBlockingDeque<SocketChannel> idleConnections = new LinkedBlockingDeque<>();
+
+    public UnixSocketPdfClient(
+            @Value("${xhtml2pdf.uds.path}") String socketPath,
+            @Value("${xhtml2pdf.request-timeout:PT30S}") Duration requestTimeout,
+            @Value("${xhtml2pdf.wire-format:binary}") String wireFormat,
+            DiagnosticsRecorder diagnostics) {
+        this.address = UnixDomainSocketAddress.of(Path.of(socketPath).toAbsolutePath());
+        this.requestTimeout = requestTimeout;
+        this.objectMapper = new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .registerModule(new JavaTimeModule());
+        this.diagnostics = diagnostics;
+        this.binaryWire = "binary".equalsIgnoreCase(wireFormat == null ? "" : wireFormat.trim());
+    }
+
+    @Override
+    public Map<String, byte[]> convertBatch(String html, boolean includeSanitisedXhtml, List<BatchConversionItem> items) throws ConversionException {
+        if (html == null || html.isBlank()) throw new ConversionException("HTML must not be blank");
+        if (items == null || items.isEmpty()) throw new ConversionException("Items must not be empty");
+        SocketChannel channel = null;
+        try {
+            // Items stay whole: the socket has no way to learn whether the listener reads a shared model, and one
+            // that does not would leave the practitioner blank
+            BatchConversionRequest payload = new BatchConversionRequest(html, includeSanitisedXhtml, items);
+            boolean binary = binaryWire && items.stream().allMatch(i -> BatchWireFormat.supports(i.jsonModel()));
+            byte[] body;
+            if (binary) {
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream(html.length() + items.size() * 512);
+                BatchWireFormat.writeRequest(payload, encoded);
+                body = encoded.toByteArray();
+            } else {
+                body = objectMapper.writeValueAsBytes(payload);
+            }
+            try (var timer = diagnostics.start("parser.pdf.uds", Map.of(
+                    "endpoint", "convert-batch",
+                    "wire", binary ? "binary" : "json",
+                    "items", Integer.toString(items.size())
+            ))) {
+                channel = borrow();
+                byte[] response = exchange(channel, body, requestTimeout.multipliedBy(Math.max(2, items.size() / 10)));
+                idleConnections.offerFirst(channel);
+                channel = null;
+                BatchConversionResponse r = binary
+                        ? BatchWireFormat.readResponse(new ByteArrayInputStream(response))
+                        : objectMapper.readValue(response, BatchConversionResponse.class);
+                return Xhtml2PdfClient.successfulPdfs(r);
+            }
+        } catch (IOException e) {
+            throw new ConversionException("Batch conversion failed: " + e.getMessage(), e);
+        } finally {
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Writes one request frame and reads its response. A blocking socket channel has no read timeout, so the
+     * channel is closed when the timeout expires, which fails the pending read.
+     */
+    private byte[] exchange(SocketChannel channel, byte[] body, Duration timeout) throws IOException, ConversionException {
+        CompletableFuture<Void> watchdog = CompletableFuture.runAsync(() -> closeQuietly(channel),
+                CompletableFuture.delayedExecutor(timeout.toMillis(), TimeUnit.MILLISECONDS));
+        try {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).putInt(body.length).flip();
+            ByteBuffer payload = ByteBuffer.wrap(body);
+            while (header.hasRemaining() || payload.hasRemaining()) {
+                channel.write(new ByteBuffer[] {header, payload});
+            }
+            ByteBuffer responseHeader = ByteBuffer.allocate(Integer.BYTES + 1);
+            readFully(channel, responseHeader);
+            responseHeader.flip();
+            int length = responseHeader.getInt();
+            byte status = responseHeader.get();
+            if (length < 0) throw new IOException("Invalid response frame length " + length);
+            ByteBuffer response = ByteBuffer.allocate(length);
+            readFully(channel, response);
+            if (status != STATUS_OK) {
+                throw new ConversionException("Remote error: " + new String(response.array(), StandardCharsets.UTF_8));
+            }
+            return response.array();
+        } catch (IOException e) {
+            if (!channel.isOpen()) throw new IOException("No response within " + timeout, e);
+            throw e;
+        } finally {
+            watchdog.cancel(false);
+        }
+    }
+
+    private SocketChannel borrow() throws IOException {
+        SocketChannel channel;
+        while ((channel = idleConnections.pollFirst()) != null) {
+            if (channel.isOpen()) return channel;
+        }
+        return SocketChannel.open(address);
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new EOFException("pdf-creator closed the connection");
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel == null) return;
+        try { channel.close(); } catch (IOException ignored) { }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        SocketChannel channel;
+        while ((channel = idleConnections.pollFirst()) != null) closeQuietly(channel);
+    }
+}
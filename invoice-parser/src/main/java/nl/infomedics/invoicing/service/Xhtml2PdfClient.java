@@ -3,38 +3,102 @@ package nl.infomedics.invoicing.service;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
+import lombok.extern.slf4j.Slf4j;
 import nl.infomedics.invoicing.metrics.DiagnosticsRecorder;
 import nl.infomedics.invoicing.model.BatchConversionItem;
 import nl.infomedics.invoicing.model.BatchConversionRequest;
 import nl.infomedics.invoicing.model.BatchConversionResponse;
 import nl.infomedics.invoicing.model.BatchConversionResultItem;
+import nl.infomedics.invoicing.model.BatchSharedModel;
+import nl.infomedics.invoicing.model.BatchWireFormat;
+import nl.infomedics.invoicing.model.DebiteurWithPractitioner;
+import nl.infomedics.invoicing.model.DebtorBatchConversionRequest;
 import nl.infomedics.invoicing.model.HtmlToPdfResponse;
 import nl.infomedics.invoicing.model.HtmlToPdfWithModelRequest;
+import nl.infomedics.invoicing.model.SingleDebtorInvoice;
+import nl.infomedics.invoicing.model.TemplatePreviewRequest;
+import nl.infomedics.invoicing.model.TemplatePreviewResponse;
 
 import java.io.IOException;
-import java.net.URI;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+import jakarta.annotation.PreDestroy;
+
+@Slf4j
 @Service
-public class Xhtml2PdfClient {
+public class Xhtml2PdfClient implements PdfRenderer {
+    private static final String CONVERT_PATH = "/api/v1/pdf/convert-with-model";
+    private static final String BATCH_CONVERT_PATH = "/api/v1/pdf/convert-batch";
+    private static final String PREVIEW_PATH = "/api/v1/pdf/preview";
+
     private final HttpClient httpClient;
     private final ObjectMapper objectMapper;
-    private final URI convertEndpoint;
-    private final URI batchConvertEndpoint;
+    private final PdfCreatorPool pool;
+    private final int maxAttempts;
     private final Duration requestTimeout;
     private final DiagnosticsRecorder diagnostics;
+    private final int subBatchSize;
+    private final int maxInFlight;
+    /**
+     * Encodes streamed request bodies and reads streamed responses; the exchanges themselves run on the HTTP client.
+     * A request holds one thread while its body is encoded and one while its response is read, so the threads in use
+     * are bounded by the requests in flight: the PDF conversion limit of the caller, times
+     * {@code xhtml2pdf.http2.max-in-flight} when batches are split. Not a fixed pool, as an encoder blocks until the
+     * upload wants more and must not starve the reads that would let it proceed. Platform threads: these block on the
+     * network, and on virtual threads a pinned carrier elsewhere in the process could stall an upload indefinitely.
+     */
+    private final Executor ioThreads = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r);
+        t.setName("pdf-client-io-" + t.threadId());
+        t.setDaemon(true);
+        return t;
+    });
+    /**
+     * Encodings of a batch, most efficient first. Typed JSON declares that every item is a debtor, so pdf-creator binds
+     * items straight into typed models; plain JSON leaves item models untyped.
+     */
+    private enum Wire {
+        BINARY(BatchWireFormat.MEDIA_TYPE), TYPED_JSON(DebtorBatchConversionRequest.MEDIA_TYPE), JSON("application/json");
+
+        private final String mediaType;
+
+        Wire(String mediaType) {
+            this.mediaType = mediaType;
+        }
+    }
+
+    /** Steps down when pdf-creator answers 415 to an encoding, i.e. runs a version without it. */
+    private volatile Wire preferredWire;
 
     public Xhtml2PdfClient(
             @Value("${xhtml2pdf.base-url:https://localhost:8080}") String baseUrl,
@@ -42,12 +106,22 @@ public class Xhtml2PdfClient {
             @Value("${xhtml2pdf.connect-timeout:PT5S}") Duration connectTimeout,
             @Value("${xhtml2pdf.ssl.trust-store:}") String trustStorePath,
             @Value("${xhtml2pdf.ssl.trust-store-password:}") String trustStorePassword,
+            @Value("${xhtml2pdf.wire-format:binary}") String wireFormat,
+            @Value("${xhtml2pdf.http-version:HTTP_1_1}") HttpClient.Version httpVersion,
+            @Value("${xhtml2pdf.http2.sub-batch-size:25}") int subBatchSize,
+            @Value("${xhtml2pdf.http2.max-in-flight:4}") int maxInFlight,
+            @Value("${xhtml2pdf.pool.balancing:least-outstanding}") String balancing,
+            @Value("${xhtml2pdf.pool.affinity.load-factor:1.25}") double affinityLoadFactor,
+            @Value("${xhtml2pdf.pool.max-attempts:3}") int maxAttempts,
+            @Value("${xhtml2pdf.pool.health-interval:PT5S}") Duration healthInterval,
+            @Value("${xhtml2pdf.pool.eject.consecutive-failures:3}") int ejectAfterFailures,
+            @Value("${xhtml2pdf.pool.eject.latency-factor:3.0}") double ejectLatencyFactor,
+            @Value("${xhtml2pdf.pool.eject.duration:PT30S}") Duration ejectDuration,
+            @Value("${xhtml2pdf.pool.cache-stats-interval:PT1M}") Duration cacheStatsInterval,
             DiagnosticsRecorder diagnostics) {
-        this.convertEndpoint = buildEndpoint(baseUrl, "/api/v1/pdf/convert-with-model");
-        this.batchConvertEndpoint = buildEndpoint(baseUrl, "/api/v1/pdf/convert-batch");
         this.requestTimeout = requestTimeout;
         HttpClient.Builder builder = HttpClient.newBuilder()
-                .version(HttpClient.Version.HTTP_1_1)
+                .version(httpVersion)
                 .connectTimeout(connectTimeout);
         // Configure TLS trust store if provided
         if (trustStorePath != null && !trustStorePath.isBlank()) {
@@ -66,25 +140,53 @@ public class Xhtml2PdfClient {
             }
         }
         this.httpClient = builder.build();
+        // A comma-separated list of base URLs makes a pool of pdf-creator nodes
+        List<String> baseUrls = Arrays.stream(Objects.requireNonNullElse(baseUrl, "").split(","))
+                .map(url -> url.trim().replaceAll("/+$", ""))
+                .filter(url -> !url.isEmpty())
+                .distinct()
+                .toList();
+        if (baseUrls.isEmpty()) baseUrls = List.of("https://localhost:8080");
         this.objectMapper = new ObjectMapper()
                 .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
                 .registerModule(new JavaTimeModule());
+        PdfCreatorPool.Balancing balancingBy = switch (Objects.requireNonNullElse(balancing, "").trim().toLowerCase()) {
+            case "ewma" -> PdfCreatorPool.Balancing.EWMA;
+            case "affinity" -> PdfCreatorPool.Balancing.AFFINITY;
+            default -> PdfCreatorPool.Balancing.LEAST_OUTSTANDING;
+        };
+        this.pool = new PdfCreatorPool(baseUrls, balancingBy, affinityLoadFactor, Math.max(1, ejectAfterFailures),
+                ejectLatencyFactor, ejectDuration, httpClient, objectMapper, healthInterval, cacheStatsInterval);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        if (baseUrls.size() > 1) {
+            log.info("Balancing batches over {} pdf-creator nodes by {}: {}", baseUrls.size(), balancingBy, baseUrls);
+        }
         this.diagnostics = diagnostics;
+        this.preferredWire = switch (Objects.requireNonNullElse(wireFormat, "").trim().toLowerCase()) {
+            case "binary" -> Wire.BINARY;
+            case "typed-json" -> Wire.TYPED_JSON;
+            default -> Wire.JSON;
+        };
+        this.subBatchSize = subBatchSize;
+        this.maxInFlight = Math.max(1, maxInFlight);
     }
 
     public byte[] convert(String html, String jsonModel) throws ConversionException {
         if (html == null || html.isBlank()) throw new ConversionException("HTML must not be blank");
         if (jsonModel == null || jsonModel.isBlank()) jsonModel = "{}";
         HtmlToPdfWithModelRequest payload = new HtmlToPdfWithModelRequest(html, jsonModel, false);
+        PdfCreatorPool.Node node = pool.acquire(Set.of());
+        boolean failed = true;
         try {
             String body = objectMapper.writeValueAsString(payload);
-            HttpRequest req = HttpRequest.newBuilder(convertEndpoint)
+            HttpRequest req = HttpRequest.newBuilder(node.endpoint(CONVERT_PATH))
                     .timeout(requestTimeout)
                     .header("Content-Type", "application/json")
                     .header("Accept", "application/json")
                     .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
                     .build();
             HttpResponse<String> resp = httpClient.send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            failed = resp.statusCode() >= 500;
             if (resp.statusCode() >= 400) throw new ConversionException("Remote error status=" + resp.statusCode());
             HtmlToPdfResponse r = objectMapper.readValue(resp.body(), HtmlToPdfResponse.class);
             if (r.pdfContent()==null || r.pdfContent().length==0) throw new ConversionException("Empty PDF payload");
@@ -92,52 +194,360 @@ public class Xhtml2PdfClient {
         } catch (IOException | InterruptedException e) {
             if (e instanceof InterruptedException) Thread.currentThread().interrupt();
             throw new ConversionException("Conversion failed: " + e.getMessage(), e);
+        } finally {
+            pool.release(node, 0, 0, failed);
         }
     }
 
+    @Override
     public Map<String, byte[]> convertBatch(String html, boolean includeSanitisedXhtml, List<BatchConversionItem> items) throws ConversionException {
+        Map<String, byte[]> results = new ConcurrentHashMap<>();
+        convertBatch(html, includeSanitisedXhtml, items, results::put);
+        return results;
+    }
+
+    /**
+     * Reads the response as a stream, one result at a time, and hands each PDF to {@code sink} as soon as it is
+     * decoded; only the PDF being handed over is held in memory, whatever the size of the batch.
+     * <p>
+     * With {@code xhtml2pdf.http-version=HTTP_2}, splits the batch into sub-batches of
+     * {@code xhtml2pdf.http2.sub-batch-size} items and sends up to {@code xhtml2pdf.http2.max-in-flight} of them at
+     * once as streams on one multiplexed connection, so uploading, rendering and downloading of different
+     * sub-batches overlap.
+     */
+    @Override
+    public void convertBatch(String html, boolean includeSanitisedXhtml, List<BatchConversionItem> items,
+            BiConsumer<String, byte[]> sink) throws ConversionException {
         if (html == null || html.isBlank()) throw new ConversionException("HTML must not be blank");
         if (items == null || items.isEmpty()) throw new ConversionException("Items must not be empty");
+        if (pipelined(items)) {
+            convertSubBatches(html, includeSanitisedXhtml, items, sink);
+            return;
+        }
+        sendBatch(html, includeSanitisedXhtml, items, sink);
+    }
+
+    private void sendBatch(String html, boolean includeSanitisedXhtml, List<BatchConversionItem> items,
+            BiConsumer<String, byte[]> sink) throws ConversionException {
+        CompletableFuture<Void> exchange = sendBatchAsync(html, includeSanitisedXhtml, items, sink);
         try {
-            BatchConversionRequest payload = new BatchConversionRequest(html, includeSanitisedXhtml, items.stream()
-                .map(i -> new BatchConversionItem(i.jsonModel(), i.outputId()))
-                .collect(Collectors.toList()));
-            String body = objectMapper.writeValueAsString(payload);
-            HttpRequest req = HttpRequest.newBuilder(batchConvertEndpoint)
-                    .timeout(requestTimeout.multipliedBy(Math.max(2, items.size() / 10)))
+            exchange.get();
+        } catch (InterruptedException e) {
+            exchange.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ConversionException("Batch conversion interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ConversionException ce) throw ce;
+            throw new ConversionException("Batch conversion failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Sends a batch to a node of the pool. When the node fails to answer, or answers with a server error, the items
+     * whose PDFs have not arrived yet are sent to another node, up to {@code xhtml2pdf.pool.max-attempts} nodes.
+     */
+    private CompletableFuture<Void> sendBatchAsync(String html, boolean includeSanitisedXhtml,
+            List<BatchConversionItem> items, BiConsumer<String, byte[]> sink) {
+        return new BatchExchange(html, includeSanitisedXhtml, sink).send(items);
+    }
+
+    /**
+     * The attempts of one batch; each runs once the one before it has failed, so the nodes tried need no lock.
+     */
+    private final class BatchExchange {
+        private final String html;
+        private final boolean includeSanitisedXhtml;
+        private final String affinityKey;
+        private final Set<PdfCreatorPool.Node> tried = new HashSet<>();
+        private final Set<String> delivered = ConcurrentHashMap.newKeySet();
+        private final BiConsumer<String, byte[]> tracking;
+
+        BatchExchange(String html, boolean includeSanitisedXhtml, BiConsumer<String, byte[]> sink) {
+            this.html = html;
+            this.includeSanitisedXhtml = includeSanitisedXhtml;
+            // Batches of one template go to the same node, whose caches then hold it; String caches its hash
+            this.affinityKey = Integer.toHexString(html.hashCode());
+            this.tracking = (outputId, pdf) -> {
+                delivered.add(outputId);
+                sink.accept(outputId, pdf);
+            };
+        }
+
+        CompletableFuture<Void> send(List<BatchConversionItem> remaining) {
+            PdfCreatorPool.Node node = pool.acquire(affinityKey, tried);
+            Wire wire = wireFor(remaining);
+            var timer = diagnostics.start("parser.pdf.http", Map.of(
+                    "endpoint", "convert-batch",
+                    "wire", wire.name().toLowerCase(),
+                    "items", Integer.toString(remaining.size())
+            ));
+            long start = System.nanoTime();
+            CompletableFuture<HttpResponse<InputStream>> response;
+            try {
+                response = httpClient.sendAsync(batchRequest(node, html, includeSanitisedXhtml, remaining, wire),
+                        HttpResponse.BodyHandlers.ofInputStream());
+            } catch (RuntimeException e) {
+                // Still released below
+                response = CompletableFuture.failedFuture(e);
+            }
+            return response
+                    .thenApplyAsync(resp -> {
+                        try {
+                            return readBatchResponse(resp, node, wire, tracking);
+                        } catch (IOException | ConversionException e) {
+                            throw new CompletionException(e);
+                        }
+                    }, ioThreads)
+                    .handle((accepted, error) -> {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        boolean failed = cause instanceof IOException || cause instanceof NodeFailureException;
+                        pool.release(node, System.nanoTime() - start,
+                                Boolean.TRUE.equals(accepted) ? remaining.size() : 0, failed);
+                        timer.close();
+                        if (failed) {
+                            // It may restart as another version: whole items until it advertises the shared model again
+                            node.sharesModel(false);
+                        }
+                        if (cause == null) {
+                            // Not accepted: pdf-creator does not know the encoding, preferredWire has stepped down
+                            return accepted ? CompletableFuture.<Void>completedFuture(null) : send(remaining);
+                        }
+                        return failed ? retry(node, remaining, cause) : CompletableFuture.<Void>failedFuture(cause);
+                    })
+                    .thenCompose(next -> next);
+        }
+
+        private CompletableFuture<Void> retry(PdfCreatorPool.Node node, List<BatchConversionItem> items,
+                Throwable cause) {
+            String reason = Objects.requireNonNullElse(cause.getMessage(), cause.getClass().getSimpleName());
+            List<BatchConversionItem> remaining = items.stream().filter(i -> !delivered.contains(i.outputId())).toList();
+            tried.add(node);
+            if (tried.size() >= maxAttempts || tried.size() >= pool.nodes().size() || remaining.isEmpty()) {
+                return CompletableFuture.failedFuture(new ConversionException("Batch conversion failed: " + reason, cause));
+            }
+            log.warn("Batch conversion on {} failed ({}), retrying {} items on another node",
+                    node, reason, remaining.size());
+            return send(remaining);
+        }
+    }
+
+    private boolean pipelined(List<BatchConversionItem> items) {
+        return httpClient.version() == HttpClient.Version.HTTP_2 && subBatchSize > 0 && items.size() > subBatchSize;
+    }
+
+    /**
+     * @throws ConversionException when any sub-batch failed, naming the items whose PDFs did not arrive; the PDFs of
+     *                             the other sub-batches are already with the sink
+     */
+    private void convertSubBatches(String html, boolean includeSanitisedXhtml, List<BatchConversionItem> items,
+            BiConsumer<String, byte[]> sink) throws ConversionException {
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        List<List<BatchConversionItem>> subBatches = new ArrayList<>();
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        Set<String> delivered = ConcurrentHashMap.newKeySet();
+        BiConsumer<String, byte[]> tracking = (outputId, pdf) -> {
+            delivered.add(outputId);
+            sink.accept(outputId, pdf);
+        };
+        try (var timer = diagnostics.start("parser.pdf.http2", Map.of(
+                "endpoint", "convert-batch",
+                "items", Integer.toString(items.size())
+        ))) {
+            for (int from = 0; from < items.size(); from += subBatchSize) {
+                List<BatchConversionItem> subBatch = items.subList(from, Math.min(items.size(), from + subBatchSize));
+                inFlight.acquire();
+                subBatches.add(subBatch);
+                pending.add(sendBatchAsync(html, includeSanitisedXhtml, subBatch, tracking)
+                        .whenComplete((ignored, error) -> inFlight.release()));
+            }
+            CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.forEach(f -> f.cancel(true));
+            throw new ConversionException("Batch conversion interrupted", e);
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            int failed = 0;
+            List<String> missing = new ArrayList<>();
+            for (int i = 0; i < pending.size(); i++) {
+                if (pending.get(i).isCompletedExceptionally()) {
+                    failed++;
+                    subBatches.get(i).stream()
+                            .map(BatchConversionItem::outputId)
+                            .filter(outputId -> !delivered.contains(outputId))
+                            .forEach(missing::add);
+                }
+            }
+            throw new ConversionException(failed + " of " + pending.size() + " sub-batches failed ("
+                    + cause.getMessage() + "), no PDFs for " + missing.size() + " items: " + missing, cause);
+        }
+    }
+
+    private Wire wireFor(List<BatchConversionItem> items) {
+        Wire preferred = preferredWire;
+        if (preferred == Wire.BINARY && items.stream().allMatch(i -> BatchWireFormat.supports(i.jsonModel()))) {
+            return Wire.BINARY;
+        }
+        if (preferred != Wire.JSON && items.stream().allMatch(DebtorBatchConversionRequest::supports)) {
+            return Wire.TYPED_JSON;
+        }
+        return Wire.JSON;
+    }
+
+    /**
+     * Builds a convert-batch request whose body is encoded item by item while it is uploaded, so the document as a
+     * whole never exists in memory. A practitioner common to all items is sent once, as the shared model, to nodes
+     * that have advertised reading it; older pdf-creator versions would ignore it and leave the practitioner blank.
+     */
+    private HttpRequest batchRequest(PdfCreatorPool.Node node, String html, boolean includeSanitisedXhtml,
+            List<BatchConversionItem> items, Wire wire) {
+        BatchConversionRequest request = node.sharesModel()
+                ? BatchConversionRequest.sharingPractitioner(html, includeSanitisedXhtml, items)
+                : new BatchConversionRequest(html, includeSanitisedXhtml, items);
+        StreamingRequestBody body = switch (wire) {
+            case BINARY -> new StreamingRequestBody(out -> BatchWireFormat.writeRequest(request, out), ioThreads);
+            case TYPED_JSON -> new StreamingRequestBody(out -> writeJsonRequest(request, true, out), ioThreads);
+            case JSON -> new StreamingRequestBody(out -> writeJsonRequest(request, false, out), ioThreads);
+        };
+        return HttpRequest.newBuilder(node.endpoint(BATCH_CONVERT_PATH))
+                .timeout(requestTimeout.multipliedBy(Math.max(2, items.size() / 10)))
+                .header("Content-Type", wire.mediaType)
+                .header("Accept", wire == Wire.BINARY ? BatchWireFormat.MEDIA_TYPE : "application/json")
+                .POST(HttpRequest.BodyPublishers.fromPublisher(body))
+                .build();
+    }
+
+    /**
+     * Writes the same document as serialising a {@code BatchConversionRequest}, or with {@code typed} a
+     * {@code DebtorBatchConversionRequest}, one item at a time.
+     */
+    private void writeJsonRequest(BatchConversionRequest request, boolean typed, OutputStream out) throws IOException {
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("html", request.html());
+            generator.writeBooleanField("includeSanitisedXhtml", request.includeSanitisedXhtml());
+            if (request.sharedModel() != null) {
+                generator.writeFieldName("sharedModel");
+                objectMapper.writeValue(generator, request.sharedModel());
+            }
+            generator.writeArrayFieldStart("items");
+            for (BatchConversionItem item : request.items()) {
+                if (typed) {
+                    Object model = item.jsonModel();
+                    DebiteurWithPractitioner debiteur = model instanceof SingleDebtorInvoice sdi
+                            ? sdi.getDebiteur() : (DebiteurWithPractitioner) model;
+                    objectMapper.writeValue(generator, new DebtorBatchConversionRequest.Item(debiteur, item.outputId()));
+                } else {
+                    objectMapper.writeValue(generator, item);
+                }
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Streams the successful results of a batch response to {@code sink}.
+     *
+     * @return {@code false} when pdf-creator does not accept {@code wire} and a simpler encoding must be used
+     */
+    private boolean readBatchResponse(HttpResponse<InputStream> resp, PdfCreatorPool.Node node, Wire wire,
+            BiConsumer<String, byte[]> sink) throws IOException, ConversionException {
+        try (InputStream body = resp.body()) {
+            if (wire != Wire.JSON && resp.statusCode() == 415) {
+                stepDown(wire);
+                return false;
+            }
+            if (resp.statusCode() >= 500) throw new NodeFailureException("Remote error status=" + resp.statusCode());
+            if (resp.statusCode() >= 400) throw new ConversionException("Remote error status=" + resp.statusCode());
+            node.sharesModel(resp.headers().firstValue(BatchSharedModel.SUPPORTED_HEADER).isPresent());
+            Consumer<BatchConversionResultItem> results = result -> {
+                if (result.pdfContent() != null && result.error() == null) sink.accept(result.outputId(), result.pdfContent());
+            };
+            if (wire == Wire.BINARY) {
+                BatchWireFormat.readResponse(body, results);
+            } else {
+                readJsonResults(body, results);
+            }
+            return true;
+        }
+    }
+
+    private synchronized void stepDown(Wire rejected) {
+        if (preferredWire.ordinal() > rejected.ordinal()) {
+            return;
+        }
+        preferredWire = Wire.values()[rejected.ordinal() + 1];
+        log.warn("pdf-creator does not accept {}, sending batches as {} from now on", rejected.mediaType,
+                preferredWire.mediaType);
+    }
+
+    /**
+     * Walks a {@code BatchConversionResponse} document with the streaming parser and binds one element of
+     * {@code results} at a time, so the Base64 of a PDF is decoded as it is read and never held as a String.
+     */
+    private void readJsonResults(InputStream body, Consumer<BatchConversionResultItem> results) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) throw new IOException("Batch response is not a JSON object");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("results".equals(field) && value == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        results.accept(objectMapper.readValue(parser, BatchConversionResultItem.class));
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    static Map<String, byte[]> successfulPdfs(BatchConversionResponse r) {
+        return r.results().stream()
+            .filter(result -> result.pdfContent() != null && result.error() == null)
+            .collect(Collectors.toMap(
+                    BatchConversionResultItem::outputId,
+                BatchConversionResultItem::pdfContent
+            ));
+    }
+
+    public TemplatePreviewResponse preview(TemplatePreviewRequest request) throws ConversionException {
+        if (request == null || request.html() == null || request.html().isBlank()) throw new ConversionException("HTML must not be blank");
+        PdfCreatorPool.Node node = pool.acquire(Set.of());
+        boolean failed = true;
+        try {
+            String body = objectMapper.writeValueAsString(request);
+            HttpRequest req = HttpRequest.newBuilder(node.endpoint(PREVIEW_PATH))
+                    .timeout(requestTimeout)
                     .header("Content-Type", "application/json")
                     .header("Accept", "application/json")
                     .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
                     .build();
-            Map<String, byte[]> results;
-            try (var timer = diagnostics.start("parser.pdf.http", Map.of(
-                    "endpoint", "convert-batch",
-                    "items", Integer.toString(items.size())
-            ))) {
-                HttpResponse<String> resp = httpClient.send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
-                if (resp.statusCode() >= 400) throw new ConversionException("Remote error status=" + resp.statusCode());
-                BatchConversionResponse r = objectMapper.readValue(resp.body(), BatchConversionResponse.class);
-                results = r.results().stream()
-                    .filter(result -> result.pdfContent() != null && result.error() == null)
-                    .collect(Collectors.toMap(
-                            BatchConversionResultItem::outputId,
-                        BatchConversionResultItem::pdfContent
-                    ));
-            }
-            return results;
+            HttpResponse<String> resp = httpClient.send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            failed = resp.statusCode() >= 500;
+            if (resp.statusCode() >= 400) throw new ConversionException("Remote error status=" + resp.statusCode());
+            return objectMapper.readValue(resp.body(), TemplatePreviewResponse.class);
         } catch (IOException | InterruptedException e) {
             if (e instanceof InterruptedException) Thread.currentThread().interrupt();
-            throw new ConversionException("Batch conversion failed: " + e.getMessage(), e);
+            throw new ConversionException("Preview failed: " + e.getMessage(), e);
+        } finally {
+            pool.release(node, 0, 0, failed);
         }
     }
 
-    private URI buildEndpoint(String baseUrl, String path) {
-        String norm = Objects.requireNonNullElse(baseUrl, "").replaceAll("/+$", "");
-        if (norm.isEmpty()) norm = "https://localhost:8080";
-        return URI.create(norm + path);
+    @PreDestroy
+    public void close() {
+        pool.close();
     }
 
-    public static class ConversionException extends Exception {
-        private static final long serialVersionUID = 8288132479461418327L;
-        public ConversionException(String m){super(m);} public ConversionException(String m, Throwable c){super(m,c);} }
-}
+    /** A server error or a broken exchange: the node is at fault and the batch may succeed on another one. */
+    private static final class NodeFailureException extends ConversionException {
+        private static final long serialVersionUID = -4127536885219043361L;
+
+        NodeFailureException(String message) {
+            super(message);
+        }
+    }
+}
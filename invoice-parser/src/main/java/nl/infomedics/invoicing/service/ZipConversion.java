@@ -0,0 +1,161 @@
+package nl.infomedics.invoicing.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.infomedics.invoicing.model.BatchConversionItem;
+
+/**
+ * PDF conversion of one zip, split into chunks of at most {@code maxItems} debtors that are converted
+ * independently; tracks which chunk goes next and when the last one has finished.
+ * <p>
+ * Debtors are added while the zip is still being parsed. A chunk can be handed out once it is full, or once
+ * {@link #complete()} has been called for the last, partial one, so converting the first chunks overlaps with
+ * parsing the rest.
+ */
+final class ZipConversion {
+
+    private final String zipFileName;
+    private final String html;
+    private final Integer invoiceType;
+    private final int maxItems;
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger written = new AtomicInteger();
+    // Guarded by this
+    private final List<BatchConversionItem> items = new ArrayList<>();
+    private int dispatchedChunks;
+    private int finishedChunks;
+    private boolean complete;
+    private boolean cancelled;
+
+    ZipConversion(String zipFileName, String html, Integer invoiceType, int maxItems) {
+        this.zipFileName = zipFileName;
+        this.html = html;
+        this.invoiceType = invoiceType;
+        this.maxItems = maxItems;
+    }
+
+    /**
+     * @return {@code true} when {@code item} filled up a chunk
+     */
+    synchronized boolean add(BatchConversionItem item) {
+        items.add(item);
+        return items.size() % maxItems == 0;
+    }
+
+    /**
+     * Ends the input; the last, partial chunk becomes available.
+     *
+     * @return {@code true} when every chunk has finished already, so no {@link #chunkDone()} will report it
+     */
+    synchronized boolean complete() {
+        complete = true;
+        notifyAll();
+        return finishedChunks == chunkCount();
+    }
+
+    /**
+     * Ends the input without handing out chunks that have not gone out yet.
+     *
+     * @return {@code true} when no chunk is in flight, so no {@link #chunkDone()} will report the end
+     */
+    synchronized boolean cancel() {
+        complete = true;
+        cancelled = true;
+        notifyAll();
+        return finishedChunks == dispatchedChunks;
+    }
+
+    /**
+     * @param window the number of chunks of this zip that may be in flight at once
+     * @return the next chunk to convert, or {@code null} when none is ready or {@code window} are in flight
+     */
+    synchronized TemplateBatch nextChunk(int window) {
+        if (dispatchedChunks >= readyChunks() || dispatchedChunks - finishedChunks >= window) {
+            return null;
+        }
+        int from = dispatchedChunks++ * maxItems;
+        notifyAll();
+        // A copy, as adding to the list invalidates views of it
+        return new TemplateBatch(html, List.copyOf(items.subList(from, Math.min(items.size(), from + maxItems))));
+    }
+
+    /**
+     * Holds the producer while more than {@code backlog} full chunks wait for a free slot in the window, bounding
+     * how far parsing runs ahead of conversion.
+     */
+    synchronized void awaitBacklog(int backlog) throws InterruptedException {
+        while (!cancelled && readyChunks() - dispatchedChunks > backlog) {
+            wait();
+        }
+    }
+
+    /**
+     * Waits until every chunk handed out has finished, e.g. after {@link #cancel()}.
+     */
+    synchronized void awaitIdle() throws InterruptedException {
+        while (finishedChunks < dispatchedChunks) {
+            wait();
+        }
+    }
+
+    private int readyChunks() {
+        if (cancelled) {
+            return dispatchedChunks;
+        }
+        return complete ? chunkCount() : items.size() / maxItems;
+    }
+
+    void written(int count) {
+        written.addAndGet(count);
+    }
+
+    /**
+     * @return {@code true} for the last chunk to finish once the input is complete
+     */
+    synchronized boolean chunkDone() {
+        finishedChunks++;
+        notifyAll();
+        return complete && finishedChunks == (cancelled ? dispatchedChunks : chunkCount());
+    }
+
+    /**
+     * @return whether no chunk has been handed out; a zip may then still go into a micro-batch as a whole
+     */
+    synchronized boolean undispatched() {
+        return dispatchedChunks == 0;
+    }
+
+    String zipFileName() {
+        return zipFileName;
+    }
+
+    Integer invoiceType() {
+        return invoiceType;
+    }
+
+    String html() {
+        return html;
+    }
+
+    synchronized List<BatchConversionItem> items() {
+        return List.copyOf(items);
+    }
+
+    synchronized int chunkCount() {
+        return (int) ((items.size() + (long) maxItems - 1) / maxItems);
+    }
+
+    synchronized int itemCount() {
+        return items.size();
+    }
+
+    int writtenCount() {
+        return written.get();
+    }
+
+    long startNanos() {
+        return startNanos;
+    }
+}
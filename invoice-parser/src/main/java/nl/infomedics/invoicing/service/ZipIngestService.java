@@ -3,6 +3,7 @@ package nl.infomedics.invoicing.service;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -10,15 +11,21 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -32,9 +39,11 @@ import lombok.extern.slf4j.Slf4j;
 import nl.infomedics.invoicing.config.AppProperties;
 import nl.infomedics.invoicing.metrics.DiagnosticsRecorder;
 import nl.infomedics.invoicing.model.BatchConversionItem;
+import nl.infomedics.invoicing.model.Debiteur;
 import nl.infomedics.invoicing.model.DebiteurWithPractitioner;
 import nl.infomedics.invoicing.model.MetaInfo;
 import nl.infomedics.invoicing.model.Practitioner;
+import nl.infomedics.invoicing.model.Specificatie;
 
 @Getter @Setter @Slf4j
 @Service
@@ -46,35 +55,65 @@ public class ZipIngestService {
     private final Path jsonOutputDirectory;
     private final Path pdfOutputDirectory;
     private final boolean isJsonPrettyPrint;
-    private final Xhtml2PdfClient pdfClient;
+    private final boolean pipelinedIngest;
+    private final PdfRenderer pdfRenderer;
     private final ThreadPoolExecutor pdfConversionExecutor;
-    private final Semaphore pdfConversionPermits;
+    private final AdaptiveConcurrencyLimiter pdfConversionLimiter;
     private final int maxConcurrentPdfConversions;
+    private final int chunkMaxItems;
+    private final int chunksInFlightPerZip;
+    private final int microBatchMaxZipItems;
+    private final MicroBatcher microBatcher;
     private final Map<Integer,String> templateHtmlMap;
     private final DiagnosticsRecorder diagnostics;
+    // Zips whose PDF conversion has not finished, see awaitConversions
+    private final Object conversionsLock = new Object();
+    private int pendingConversions;
     
     // Guard against concurrent processing of the same zip name in this JVM
     private static final java.util.Set<String> ACTIVE_FILES = java.util.concurrent.ConcurrentHashMap.newKeySet();
 
-    public ZipIngestService(ParseService parseService, JsonAssembler jsonAssembler, AppProperties appProperties, Xhtml2PdfClient pdfClient, Map<Integer,String> templateHtmlMap,
+    public ZipIngestService(ParseService parseService, JsonAssembler jsonAssembler, AppProperties appProperties, PdfRenderer pdfRenderer, Map<Integer,String> templateHtmlMap,
             @Value("${json.output.folder}") String jsonOutputPath, @Value("${json.pretty:false}") boolean isJsonPrettyPrint,
             @Value("${pdf.output.folder:C:/invoice-data/_pdf}") String pdfOutputPath,
+            @Value("${zip.pipelined-ingest:false}") boolean pipelinedIngest,
             @Value("${pdf.max-concurrent-conversions:64}") int maxConcurrentPdfConversions,
+            @Value("${pdf.adaptive-limit.enabled:false}") boolean adaptiveLimitEnabled,
+            @Value("${pdf.adaptive-limit.min:1}") int adaptiveLimitMin,
+            @Value("${pdf.adaptive-limit.initial:2}") int adaptiveLimitInitial,
+            @Value("${pdf.chunk.max-items:500}") int chunkMaxItems,
+            @Value("${pdf.chunk.max-in-flight-per-zip:0}") int chunksInFlightPerZip,
+            @Value("${pdf.micro-batch.max-zip-items:0}") int microBatchMaxZipItems,
+            @Value("${pdf.micro-batch.max-items:100}") int microBatchMaxItems,
+            @Value("${pdf.micro-batch.max-delay:PT0.25S}") Duration microBatchMaxDelay,
             DiagnosticsRecorder diagnostics)
             throws IOException {
         this.parseService = parseService;
         this.jsonAssembler = jsonAssembler;
         this.appProperties = appProperties;
-        this.pdfClient = pdfClient;
+        this.pdfRenderer = pdfRenderer;
         this.jsonOutputDirectory = Paths.get(jsonOutputPath);
         this.pdfOutputDirectory = Paths.get(pdfOutputPath);
         this.isJsonPrettyPrint = isJsonPrettyPrint;
+        this.pipelinedIngest = pipelinedIngest;
         this.maxConcurrentPdfConversions = Math.max(1, maxConcurrentPdfConversions);
-        this.pdfConversionPermits = new Semaphore(this.maxConcurrentPdfConversions);
+        this.pdfConversionLimiter = new AdaptiveConcurrencyLimiter(adaptiveLimitEnabled, adaptiveLimitMin,
+                adaptiveLimitInitial, this.maxConcurrentPdfConversions);
+        this.chunkMaxItems = chunkMaxItems > 0 ? chunkMaxItems : Integer.MAX_VALUE;
+        this.chunksInFlightPerZip = chunksInFlightPerZip;
+        this.microBatchMaxZipItems = microBatchMaxZipItems;
+        this.microBatcher = microBatchMaxZipItems > 0
+                ? new MicroBatcher(microBatchMaxItems, microBatchMaxDelay, this::dispatchMicroBatch)
+                : null;
         this.templateHtmlMap = templateHtmlMap;
         this.diagnostics = diagnostics;
+        diagnostics.gauge("parser.pdf.concurrency.limit", pdfConversionLimiter, AdaptiveConcurrencyLimiter::limit);
+        diagnostics.gauge("parser.pdf.concurrency.in-flight", pdfConversionLimiter, AdaptiveConcurrencyLimiter::inFlight);
+        diagnostics.gauge("parser.pdf.concurrency.queued", pdfConversionLimiter, AdaptiveConcurrencyLimiter::queued);
+        diagnostics.gauge("parser.pdf.latency.gradient", pdfConversionLimiter, AdaptiveConcurrencyLimiter::gradient);
         
-        // Create thread pool for PDF conversions with bounded queue
+        // Create thread pool for PDF conversions with bounded queue; sized for the upper bound of the limiter, which
+        // admits no more conversions than it has threads, so it only rejects once shut down
         int queueCapacity = this.maxConcurrentPdfConversions * 4;
         this.pdfConversionExecutor = new ThreadPoolExecutor(
                 this.maxConcurrentPdfConversions,
@@ -87,18 +126,22 @@ public class ZipIngestService {
                     thread.setDaemon(false);
                     return thread;
                 },
-                new ThreadPoolExecutor.CallerRunsPolicy()
+                new ThreadPoolExecutor.AbortPolicy()
         );
         
         Files.createDirectories(this.jsonOutputDirectory);
         Files.createDirectories(this.pdfOutputDirectory);
-        log.info("ZipIngestService initialized with max {} concurrent PDF conversions, queue capacity: {}", 
+        log.info("ZipIngestService initialized with {} {} concurrent PDF conversions, queue capacity: {}",
+                adaptiveLimitEnabled ? "adaptive limit starting at " + pdfConversionLimiter.limit() + " of max" : "max",
                 this.maxConcurrentPdfConversions, queueCapacity);
     }
 
     @PreDestroy
     public void shutdown() {
         log.info("Shutting down ZipIngestService...");
+        if (microBatcher != null) {
+            microBatcher.close();
+        }
         pdfConversionExecutor.shutdown();
         try {
             if (!pdfConversionExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
@@ -112,6 +155,39 @@ public class ZipIngestService {
         log.info("ZipIngestService shutdown complete");
     }
 
+    /**
+     * Waits until the PDF conversions of every zip processed so far have finished, for runs that exit once their
+     * input is done.
+     *
+     * @return {@code false} when {@code timeout} elapsed first
+     */
+    public boolean awaitConversions(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (conversionsLock) {
+            while (pendingConversions > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(conversionsLock, remaining);
+            }
+            return true;
+        }
+    }
+
+    private void conversionStarted() {
+        synchronized (conversionsLock) {
+            pendingConversions++;
+        }
+    }
+
+    private void conversionFinished() {
+        synchronized (conversionsLock) {
+            pendingConversions--;
+            conversionsLock.notifyAll();
+        }
+    }
+
     private boolean attemptMoveWithRetry(Path source, Path target, int attempts, long sleepMs) {
         for (int i = 0; i < attempts; i++) {
             try {
@@ -128,7 +204,8 @@ public class ZipIngestService {
     }
 
     /**
-     * Processes a ZIP file containing invoice data.
+     * Processes a ZIP file containing invoice data. Debtors go to the JSON output and to PDF conversion as soon as
+     * parsing has completed them, so pdf-creator is busy with the first chunks of a big zip while the rest is parsed.
      * 
      * @param zipPath The path to the ZIP file to process.
      */
@@ -148,28 +225,48 @@ public class ZipIngestService {
                 return;
             }
 
+            IngestPipeline pipeline = null;
             try (ZipFile zipFile = new ZipFile(zipPath.toFile(), StandardCharsets.UTF_8)) {
                 currentStage = "parse content";
-                ZipContent content;
+                ZipEntries entries = findEntries(zipFile, zipFileName);
+                MetaInfo metaInfo = parseWithReader(zipFile, entries.meta(), parseService::parseMeta);
+                pipeline = new IngestPipeline(zipFileName, createConversion(zipFileName, metaInfo));
+                int specificatieCount;
                 try (var timer = diagnostics.start("parser.zip.stage", Map.of("stage", "parse", "zip", zipFileName))) {
-                    content = parseZipContent(zipFile, zipFileName);
-                }
-                
-                currentStage = "assemble json";
-                try (var timer = diagnostics.start("parser.zip.stage", Map.of("stage", "assemble-json", "zip", zipFileName))) {
-                    var invoiceBundle = jsonAssembler.assemble(content.metaInfo, content.practitioner, content.debiteuren, content.specificaties);
-                    currentStage = "write json";
-                    try (var writeTimer = diagnostics.start("parser.zip.stage", Map.of("stage", "write-json", "zip", zipFileName))) {
-                        writeJsonOutput(zipFileName, invoiceBundle);
+                    try {
+                        specificatieCount = parseZipContent(zipFile, zipFileName, entries, pipeline, pipelinedIngest);
+                    } catch (RowsNotAdjacentException ex) {
+                        // Debtors that went out may miss rows; start over from the whole file, which rewrites every PDF
+                        log.warn("Specificaties of invoice {} in {} are not adjacent, converting it again after parsing"
+                                + " it whole", ex.getMessage(), zipFileName);
+                        IngestPipeline aborted = pipeline;
+                        pipeline = null;
+                        aborted.abort();
+                        aborted.awaitAborted();
+                        pipeline = new IngestPipeline(zipFileName, createConversion(zipFileName, metaInfo));
+                        specificatieCount = parseZipContent(zipFile, zipFileName, entries, pipeline, false);
                     }
+                }
 
-                    currentStage = "generate pdfs";
-                    triggerPdfGeneration(zipFileName, content.metaInfo, content.practitioner, invoiceBundle.getDebiteuren());
+                currentStage = "write json";
+                try (var timer = diagnostics.start("parser.zip.stage", Map.of("stage", "write-json", "zip", zipFileName))) {
+                    pipeline.finish();
                 }
                 
                 log.info("Processed {} ({} debiteuren, {} specificaties)", 
-                        zipFileName, content.debiteuren.size(), content.specificaties.size());
+                        zipFileName, pipeline.debtorCount(), specificatieCount);
+            } catch (InterruptedException ex) {
+                // Shutting down while parsing waited for conversions; the zip stays for the next run
+                if (pipeline != null) {
+                    pipeline.abort();
+                }
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted during {} of {}, left in the input folder", currentStage, zipFileName);
+                return;
             } catch (Exception ex) {
+                if (pipeline != null) {
+                    pipeline.abort();
+                }
                 handleProcessingFailure(zipPath, zipFileName, currentStage, ex);
                 return;
             }
@@ -197,14 +294,9 @@ public class ZipIngestService {
         ACTIVE_FILES.remove(fileName);
     }
 
-    private static class ZipContent {
-        MetaInfo metaInfo;
-        Map<String, nl.infomedics.invoicing.model.Debiteur> debiteuren;
-        Map<String, java.util.List<nl.infomedics.invoicing.model.Specificatie>> specificaties;
-        nl.infomedics.invoicing.model.Practitioner practitioner;
-    }
+    private record ZipEntries(ZipEntry meta, ZipEntry debiteuren, ZipEntry specificaties, ZipEntry notas) {}
 
-    private ZipContent parseZipContent(ZipFile zipFile, String zipFileName) throws IOException {
+    private static ZipEntries findEntries(ZipFile zipFile, String zipFileName) {
         ZipEntry metaEntry = findEntry(zipFile, e -> e.getName().endsWith("_Meta.txt"));
         ZipEntry debiteurenEntry = findEntry(zipFile, e -> e.getName().endsWith("_Debiteuren.txt"));
         ZipEntry specificatiesEntry = findEntry(zipFile, e -> e.getName().endsWith("_Specificaties.txt"));
@@ -215,36 +307,201 @@ public class ZipIngestService {
         boolean isXmlType = notasEntry != null;
         if (!isXmlType && (debiteurenEntry == null || specificatiesEntry == null))
             throw new IllegalStateException("Missing expected classic entries in " + zipFileName);
+        return new ZipEntries(metaEntry, debiteurenEntry, specificatiesEntry, notasEntry);
+    }
 
-        ZipContent content = new ZipContent();
-        content.metaInfo = parseWithReader(zipFile, metaEntry, parseService::parseMeta);
+    /**
+     * Feeds the debtors of the zip to {@code pipeline}, in the order of its Debiteuren file. The practitioner of a
+     * classic zip is the last row of that file, so it is read first; with {@code pipelinedIngest} a debtor is complete
+     * once the Specificaties rows of the next invoice start, and goes out once the debtors before it have. XML notas
+     * carry the practitioner of every nota and are parsed whole.
+     *
+     * @return the number of invoices with specificaties
+     * @throws RowsNotAdjacentException when rows of an invoice whose debtor has gone out turn up later in the file
+     */
+    private int parseZipContent(ZipFile zipFile, String zipFileName, ZipEntries entries, IngestPipeline pipeline,
+            boolean pipelined) throws IOException, InterruptedException, RowsNotAdjacentException {
+        if (entries.notas() != null) {
+            var notasResult = parseWithReader(zipFile, entries.notas(), parseService::parseNotas);
+            return feed(pipeline, notasResult.practitioner, notasResult.debiteuren, notasResult.specificaties);
+        }
+        Map<String, Debiteur> debiteuren = parseWithReader(zipFile, entries.debiteuren(), parseService::parseDebiteuren);
+        Practitioner practitioner = parseService.getPractitioner();
+        if (!pipelined) {
+            return feed(pipeline, practitioner, debiteuren,
+                    parseWithReader(zipFile, entries.specificaties(), parseService::parseSpecificaties));
+        }
 
-        if (isXmlType) {
-            var notasResult = parseWithReader(zipFile, notasEntry, reader -> parseService.parseNotas(reader));
-            content.debiteuren = notasResult.debiteuren;
-            content.specificaties = notasResult.specificaties;
-            content.practitioner = notasResult.practitioner;
-        } else {
-            content.debiteuren = parseWithReader(zipFile, debiteurenEntry, parseService::parseDebiteuren);
-            content.specificaties = parseWithReader(zipFile, specificatiesEntry, parseService::parseSpecificaties);
-            content.practitioner = parseService.getPractitioner();
+        // Debtors not sent yet, in Debiteuren order, and the rows of those that wait for a debtor before them
+        Map<String, Debiteur> pending = new LinkedHashMap<>(debiteuren);
+        Map<String, List<Specificatie>> complete = new HashMap<>();
+        Set<String> invoiceNumbers = new HashSet<>();
+        try (Reader reader = createReader(zipFile, entries.specificaties())) {
+            Iterator<List<Specificatie>> groups = parseService.iterateSpecificatieGroups(reader);
+            while (groups.hasNext()) {
+                List<Specificatie> group = groups.next();
+                String invoiceNumber = group.get(0).getInvoiceNumber();
+                invoiceNumbers.add(invoiceNumber);
+                // Debiteuren are keyed by insured id, which classic rows take from the invoice number column
+                if (pending.containsKey(invoiceNumber)) {
+                    // More rows of an invoice whose debtor still waits join its earlier ones
+                    complete.computeIfAbsent(invoiceNumber, _ -> new ArrayList<>()).addAll(group);
+                    feedCompleted(pipeline, practitioner, pending, complete);
+                } else if (debiteuren.containsKey(invoiceNumber)) {
+                    throw new RowsNotAdjacentException(invoiceNumber);
+                }
+            }
+        }
+        for (Map.Entry<String, Debiteur> debiteur : pending.entrySet()) {
+            pipeline.accept(jsonAssembler.withPractitioner(debiteur.getValue(), complete.get(debiteur.getKey()),
+                    practitioner));
+        }
+        return invoiceNumbers.size();
+    }
+
+    /**
+     * Sends the leading debtors of {@code pending} whose rows are all read, so the output keeps Debiteuren order. As
+     * the export lists invoices in that order, each debtor normally goes out as soon as its rows are complete; one
+     * without rows holds back those after it until Specificaties has been read.
+     */
+    private void feedCompleted(IngestPipeline pipeline, Practitioner practitioner, Map<String, Debiteur> pending,
+            Map<String, List<Specificatie>> complete) throws IOException, InterruptedException {
+        Iterator<Map.Entry<String, Debiteur>> head = pending.entrySet().iterator();
+        while (head.hasNext()) {
+            Map.Entry<String, Debiteur> debiteur = head.next();
+            List<Specificatie> group = complete.remove(debiteur.getKey());
+            if (group == null) {
+                return;
+            }
+            head.remove();
+            pipeline.accept(jsonAssembler.withPractitioner(debiteur.getValue(), group, practitioner));
         }
-        return content;
     }
 
-    private void writeJsonOutput(String zipFileName, nl.infomedics.invoicing.model.InvoiceBundle bundle) throws IOException {
-        String jsonString = jsonAssembler.stringify(bundle, isJsonPrettyPrint);
-        Path outputPath = jsonOutputDirectory.resolve(stripZipExtension(zipFileName) + ".json");
-        Files.writeString(outputPath, jsonString, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    private int feed(IngestPipeline pipeline, Practitioner practitioner, Map<String, Debiteur> debiteuren,
+            Map<String, List<Specificatie>> specificaties) throws IOException, InterruptedException {
+        for (Debiteur debiteur : debiteuren.values()) {
+            pipeline.accept(jsonAssembler.withPractitioner(debiteur, specificaties.get(debiteur.getInvoiceNumber()),
+                    practitioner));
+        }
+        return specificaties.size();
     }
 
-    private void triggerPdfGeneration(String zipFileName, MetaInfo metaInfo, Practitioner practitioner, List<DebiteurWithPractitioner> debiteuren) {
+    /**
+     * @return the PDF conversion of the zip, or {@code null} when it has no invoice type or template
+     */
+    private ZipConversion createConversion(String zipFileName, MetaInfo metaInfo) {
         Integer invoiceType = metaInfo != null ? metaInfo.getInvoiceType() : null;
-        if (invoiceType != null && debiteuren != null && !debiteuren.isEmpty()) {
-            generatePdfsPerDebtor(zipFileName, invoiceType, metaInfo, practitioner, debiteuren);
-        } else {
-            log.warn("PDF generation skipped for {}: invoiceType={}, debtorCount={}", 
-                zipFileName, invoiceType, debiteuren != null ? debiteuren.size() : 0);
+        if (invoiceType == null) {
+            log.warn("PDF generation skipped for {}: invoiceType={}", zipFileName, invoiceType);
+            return null;
+        }
+        String templateHtml = templateHtmlMap.get(invoiceType);
+        if (templateHtml == null) {
+            log.error("PDF generation FAILED for {} at stage 'load template': Missing template HTML for invoiceType={}",
+                    zipFileName, invoiceType);
+            return null;
+        }
+        log.debug("Template type {} size {} bytes", invoiceType, templateHtml.length());
+        conversionStarted();
+        return new ZipConversion(zipFileName, templateHtml, invoiceType, chunkMaxItems);
+    }
+
+    /**
+     * Takes the debtors of one zip as parsing completes them. Each is appended to the JSON output, which is written
+     * next to its final name until the zip is done, and to the PDF conversion of the zip, whose chunks are dispatched
+     * as they fill up. Parsing waits while a full window of chunks of the zip is already waiting for dispatch.
+     */
+    private final class IngestPipeline {
+        private final String zipFileName;
+        private final ZipConversion conversion;
+        private final Path jsonPath;
+        private final Path partialJsonPath;
+        private final OutputStream jsonStream;
+        private final JsonAssembler.BundleWriter json;
+        private int debtorCount;
+
+        IngestPipeline(String zipFileName, ZipConversion conversion) throws IOException {
+            this.zipFileName = zipFileName;
+            this.conversion = conversion;
+            this.jsonPath = jsonOutputDirectory.resolve(stripZipExtension(zipFileName) + ".json");
+            this.partialJsonPath = jsonOutputDirectory.resolve(stripZipExtension(zipFileName) + ".json.part");
+            OutputStream stream = null;
+            try {
+                stream = Files.newOutputStream(partialJsonPath);
+                this.json = jsonAssembler.openBundle(stream, isJsonPrettyPrint);
+            } catch (IOException e) {
+                if (stream != null) {
+                    stream.close();
+                    Files.deleteIfExists(partialJsonPath);
+                }
+                if (conversion != null && conversion.cancel()) {
+                    conversionFinished();
+                }
+                throw e;
+            }
+            this.jsonStream = stream;
+        }
+
+        void accept(DebiteurWithPractitioner debiteur) throws IOException, InterruptedException {
+            json.write(debiteur);
+            debtorCount++;
+            if (conversion == null) {
+                return;
+            }
+            BatchConversionItem item = toBatchItem(zipFileName, debiteur);
+            if (item != null && conversion.add(item)) {
+                dispatchChunks(conversion);
+                conversion.awaitBacklog(chunkWindow());
+            }
+        }
+
+        void finish() throws IOException {
+            json.close();
+            Files.move(partialJsonPath, jsonPath, StandardCopyOption.REPLACE_EXISTING);
+            if (conversion != null) {
+                completeConversion(conversion);
+            }
+        }
+
+        /**
+         * Drops the partial JSON output; chunks already dispatched still finish.
+         */
+        void abort() {
+            if (conversion != null && conversion.cancel()) {
+                conversionFinished();
+            }
+            try {
+                jsonStream.close();
+                Files.deleteIfExists(partialJsonPath);
+            } catch (IOException e) {
+                log.warn("Failed to remove partial JSON output of {}: {}", zipFileName, e.getMessage());
+            }
+        }
+
+        /**
+         * Waits after {@link #abort()} until the chunks dispatched before it have finished, so none of their PDFs is
+         * written after those of a new conversion of the zip.
+         */
+        void awaitAborted() throws InterruptedException {
+            if (conversion != null) {
+                conversion.awaitIdle();
+            }
+        }
+
+        int debtorCount() {
+            return debtorCount;
+        }
+    }
+
+    /**
+     * Rows of an invoice turned up after those of other invoices, once its debtor had gone out.
+     */
+    private static final class RowsNotAdjacentException extends Exception {
+        private static final long serialVersionUID = 6523804117942361258L;
+
+        RowsNotAdjacentException(String invoiceNumber) {
+            super(invoiceNumber, null, false, false);
         }
     }
 
@@ -304,101 +561,208 @@ public class ZipIngestService {
         }
     }
 
-    private void generatePdfsPerDebtor(String zipFileName, Integer invoiceType, MetaInfo metaInfo, Practitioner practitioner, List<DebiteurWithPractitioner> debiteuren) {
-        String stage = "load template";
+    private BatchConversionItem toBatchItem(String zipFileName, DebiteurWithPractitioner dwp) {
         try {
-            String templateHtml = loadTemplateHtml(invoiceType);
-            log.debug("Template type {} size {} bytes debtors {}", invoiceType, templateHtml.length(), debiteuren.size());
-            
-            stage = "prepare batch items";
-            List<BatchConversionItem> batchItems = new ArrayList<>();
-            for (DebiteurWithPractitioner dwp : debiteuren) {
-                try {
-                    // Pass object directly, avoiding double serialization
-                    nl.infomedics.invoicing.model.SingleDebtorInvoice singleDebtorInvoice = new nl.infomedics.invoicing.model.SingleDebtorInvoice(dwp);
-                    String outputId = sanitizeFilename(dwp.getDebiteur().getInvoiceNumber() != null ? 
-                        dwp.getDebiteur().getInvoiceNumber() : dwp.getDebiteur().getInsuredId());
-                    batchItems.add(new BatchConversionItem(singleDebtorInvoice, outputId));
-                } catch (Exception e) {
-                    log.error("Failed to prepare batch item for debtor {} in {}: {}", 
-                        dwp.getDebiteur().getInvoiceNumber(), zipFileName, e.getMessage(), e);
-                }
+            // Pass object directly, avoiding double serialization
+            nl.infomedics.invoicing.model.SingleDebtorInvoice singleDebtorInvoice = new nl.infomedics.invoicing.model.SingleDebtorInvoice(dwp);
+            String outputId = sanitizeFilename(dwp.getDebiteur().getInvoiceNumber() != null ? 
+                dwp.getDebiteur().getInvoiceNumber() : dwp.getDebiteur().getInsuredId());
+            return new BatchConversionItem(singleDebtorInvoice, outputId);
+        } catch (Exception e) {
+            log.error("Failed to prepare batch item for debtor {} in {}: {}", 
+                dwp.getDebiteur().getInvoiceNumber(), zipFileName, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Hands out the rest of a zip once parsing is done. A zip that is still whole and small enough joins a
+     * micro-batch instead.
+     */
+    private void completeConversion(ZipConversion conversion) {
+        boolean allFinished = conversion.complete();
+        if (conversion.itemCount() == 0) {
+            log.warn("No batch items prepared for {}", conversion.zipFileName());
+            conversionFinished();
+            return;
+        }
+        if (microBatcher != null && conversion.undispatched() && conversion.itemCount() <= microBatchMaxZipItems) {
+            microBatcher.add(conversion);
+            return;
+        }
+        if (conversion.chunkCount() > 1) {
+            log.info("Split {} ({} debtors) into {} chunks of at most {}, {} in flight",
+                    conversion.zipFileName(), conversion.itemCount(), conversion.chunkCount(), chunkMaxItems, chunkWindow());
+        }
+        if (allFinished) {
+            conversionDone(conversion);
+        } else {
+            dispatchChunks(conversion);
+        }
+    }
+
+    /**
+     * By default one slot of the current concurrency limit stays free of any single zip, so small zips keep flowing
+     * next to a big one; the window follows the limit as it adapts.
+     */
+    private int chunkWindow() {
+        return chunksInFlightPerZip > 0 ? chunksInFlightPerZip : Math.max(1, pdfConversionLimiter.limit() - 1);
+    }
+
+    /**
+     * Queues chunks of a zip that have not been dispatched yet until {@link #chunkWindow()} of them are in flight.
+     * Each finished chunk tops the window up again, so chunks of other zips queue between its chunks rather than
+     * behind all of them.
+     */
+    private void dispatchChunks(ZipConversion conversion) {
+        TemplateBatch chunk;
+        while ((chunk = conversion.nextChunk(chunkWindow())) != null) {
+            TemplateBatch next = chunk;
+            String zipFileName = conversion.zipFileName();
+            submitConversion(zipFileName, next.items().size(),
+                    () -> convertBatchPdfs(conversion, next),
+                    () -> finishChunk(conversion));
+        }
+    }
+
+    /**
+     * Converts a micro-batch of small zips as one request; every zip in it counts it as its only chunk.
+     */
+    private void dispatchMicroBatch(MicroBatcher.Batch batch) {
+        Set<ZipConversion> conversions = batch.conversions();
+        String label = "micro-batch of " + conversions.size() + " zips";
+        submitConversion(label, batch.entries().size(),
+                () -> convertMicroBatch(batch),
+                () -> conversions.forEach(this::finishChunk));
+    }
+
+    /**
+     * Queues {@code conversion} with {@code pdfConversionLimiter}, which hands it to the PDF executor once it admits
+     * it, then runs {@code onFinished} whatever the outcome. No thread waits while it is queued, and it stays queued
+     * however long that takes. Its latency per debtor and whether it failed are fed back to the limiter.
+     */
+    private void submitConversion(String label, int items, PdfConversion conversion, Runnable onFinished) {
+        long waitStart = System.nanoTime();
+        pdfConversionLimiter.acquire(() -> {
+            try {
+                pdfConversionExecutor.execute(() -> runConversion(label, items, waitStart, conversion, onFinished));
+            } catch (RejectedExecutionException e) {
+                log.error("PDF conversion executor rejected batch task for {} (shut down)", label);
+                logPdfExecutorState();
+                pdfConversionLimiter.release(0, 0, false);
+                onFinished.run();
             }
-            
-            if (batchItems.isEmpty()) {
-                log.warn("No batch items prepared for {}", zipFileName);
-                return;
+        });
+    }
+
+    private void runConversion(String label, int items, long waitStart, PdfConversion conversion,
+            Runnable onFinished) {
+        boolean failed = true;
+        long conversionStart = System.nanoTime();
+        try {
+            long waitMs = TimeUnit.NANOSECONDS.toMillis(conversionStart - waitStart);
+            if (diagnostics.isEnabled()) {
+                log.info("METRIC parser.pdf.wait zip={} ms={} items={}", label, waitMs, items);
             }
-            
-            stage = "submit batch conversion";
-            submitBatchPdfConversion(zipFileName, batchItems, templateHtml, invoiceType);
-            
-        } catch (Exception ex) {
-            log.error("PDF generation FAILED for {} at stage '{}': {}", zipFileName, stage, ex.getMessage(), ex);
+            conversion.run();
+            failed = false;
+        } catch (PdfRenderer.ConversionException e) {
+            log.error("Batch PDF conversion FAILED for {}: {}", label, e.getMessage(), e);
+        } catch (Exception e) {
+            log.error("Unexpected error during batch PDF conversion for {}: {}", label, e.getMessage(), e);
+        } finally {
+            releasePermit(System.nanoTime() - conversionStart, items, failed);
+            onFinished.run();
         }
     }
 
-    private void submitBatchPdfConversion(String zipFileName, List<BatchConversionItem> batchItems, String templateHtml, Integer invoiceType) {
-        try {
-            pdfConversionExecutor.submit(() -> {
-                boolean permitAcquired = false;
-                long waitStart = System.nanoTime();
-                try {
-                    permitAcquired = pdfConversionPermits.tryAcquire(30, TimeUnit.SECONDS);
-                    if (!permitAcquired) {
-                        log.error("Unable to acquire PDF conversion permit for {} after 30 seconds", zipFileName);
-                        logPdfExecutorState();
-                        return;
-                    }
-                    long waitMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStart);
-                    if (diagnostics.isEnabled()) {
-                        log.info("METRIC parser.pdf.wait zip={} ms={} items={}", zipFileName, waitMs, batchItems.size());
-                    }
-                    convertBatchPdfs(zipFileName, new TemplateBatch(templateHtml, batchItems), invoiceType);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    log.error("Interrupted while converting PDFs for {}", zipFileName);
-                } catch (Exception e) {
-                    log.error("Unexpected error during batch PDF conversion for {}: {}", zipFileName, e.getMessage(), e);
-                } finally {
-                    if (permitAcquired) {
-                        pdfConversionPermits.release();
-                    }
+    private void releasePermit(long latencyNanos, int items, boolean failed) {
+        int limitBefore = pdfConversionLimiter.limit();
+        pdfConversionLimiter.release(latencyNanos, items, failed);
+        int limit = pdfConversionLimiter.limit();
+        if (limit != limitBefore && diagnostics.isEnabled()) {
+            log.info("METRIC parser.pdf.concurrency limit={} previous={} gradient={} inFlight={} failed={}", limit,
+                    limitBefore, String.format("%.2f", pdfConversionLimiter.gradient()),
+                    pdfConversionLimiter.inFlight(), failed);
+        }
+    }
+
+    private void finishChunk(ZipConversion conversion) {
+        if (!conversion.chunkDone()) {
+            dispatchChunks(conversion);
+            return;
+        }
+        conversionDone(conversion);
+    }
+
+    private void conversionDone(ZipConversion conversion) {
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - conversion.startNanos());
+        log.info("Wrote {}/{} PDFs for {} in {} ms", conversion.writtenCount(), conversion.itemCount(),
+                conversion.zipFileName(), elapsedMs);
+        if (diagnostics.isEnabled()) {
+            log.info("METRIC parser.pdf.zip zip={} ms={} items={} written={} chunks={}", conversion.zipFileName(),
+                    elapsedMs, conversion.itemCount(), conversion.writtenCount(), conversion.chunkCount());
+        }
+        conversionFinished();
+    }
+
+    /**
+     * Counts every PDF with the zip as it is written, so those of a chunk that fails in part are counted too.
+     */
+    private void convertBatchPdfs(ZipConversion conversion, TemplateBatch batch)
+            throws PdfRenderer.ConversionException {
+        String zipFileName = conversion.zipFileName();
+        Integer invoiceType = conversion.invoiceType();
+        log.debug("Converting {} PDFs for {}", batch.items().size(), zipFileName);
+        AtomicInteger successCount = new AtomicInteger();
+        try (var timer = diagnostics.start("parser.pdf.convert", Map.of(
+                "zip", zipFileName,
+                "invoiceType", invoiceType != null ? invoiceType.toString() : "unknown",
+                "items", Integer.toString(batch.items().size())
+        ))) {
+            // PDFs are written as they arrive; with HTTP/2 sub-batches that is while later ones still render
+            pdfRenderer.convertBatch(batch.html(), false, batch.items(), (outputId, pdf) -> {
+                if (writePdf(zipFileName, outputId, pdf)) {
+                    successCount.incrementAndGet();
+                    conversion.written(1);
                 }
             });
-        } catch (RejectedExecutionException e) {
-            log.error("PDF conversion executor rejected batch task for {} (queue full or shutdown)", zipFileName);
-            logPdfExecutorState();
         }
+        log.debug("Wrote {}/{} PDFs for {}", successCount.get(), batch.items().size(), zipFileName);
     }
 
-    private void convertBatchPdfs(String zipFileName, TemplateBatch batch, Integer invoiceType) {
-        try {
-            log.debug("Converting {} PDFs for {}", batch.items().size(), zipFileName);
-            Map<String, byte[]> results;
-            try (var timer = diagnostics.start("parser.pdf.convert", Map.of(
-                    "zip", zipFileName,
-                    "invoiceType", invoiceType != null ? invoiceType.toString() : "unknown",
-                    "items", Integer.toString(batch.items().size())
-            ))) {
-                results = pdfClient.convertBatch(batch.html(), false, batch.items());
-            }
-            
-            String baseFileName = stripZipExtension(zipFileName);
-            int successCount = 0;
-            for (Map.Entry<String, byte[]> entry : results.entrySet()) {
-                try {
-                    Path pdfOutputPath = pdfOutputDirectory.resolve(baseFileName + "_" + entry.getKey() + ".pdf");
-                    Files.write(pdfOutputPath, entry.getValue(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-                    successCount++;
-                } catch (Exception e) {
-                    log.error("Failed to write PDF for debtor {} in {}: {}", entry.getKey(), zipFileName, e.getMessage(), e);
+    /**
+     * Output ids of different zips may clash, so items go out numbered by their position in the micro-batch and
+     * each PDF is written under the output name of its own zip.
+     */
+    private void convertMicroBatch(MicroBatcher.Batch batch) throws PdfRenderer.ConversionException {
+        List<MicroBatcher.Entry> entries = batch.entries();
+        List<BatchConversionItem> items = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            items.add(new BatchConversionItem(entries.get(i).item().jsonModel(), Integer.toString(i)));
+        }
+        try (var timer = diagnostics.start("parser.pdf.convert", Map.of(
+                "zip", "micro-batch",
+                "invoiceType", batch.invoiceType() != null ? batch.invoiceType().toString() : "unknown",
+                "items", Integer.toString(items.size())
+        ))) {
+            pdfRenderer.convertBatch(batch.html(), false, items, (position, pdf) -> {
+                MicroBatcher.Entry entry = entries.get(Integer.parseInt(position));
+                if (writePdf(entry.conversion().zipFileName(), entry.item().outputId(), pdf)) {
+                    entry.conversion().written(1);
                 }
-            }
-            log.debug("Wrote {}/{} PDFs for {}", successCount, batch.items().size(), zipFileName);
-            
-        } catch (Xhtml2PdfClient.ConversionException e) {
-            log.error("Batch PDF conversion FAILED for {}: {}", zipFileName, e.getMessage(), e);
+            });
+        }
+    }
+
+    private boolean writePdf(String zipFileName, String outputId, byte[] pdf) {
+        try {
+            Path pdfOutputPath = pdfOutputDirectory.resolve(stripZipExtension(zipFileName) + "_" + outputId + ".pdf");
+            Files.write(pdfOutputPath, pdf, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            return true;
+        } catch (Exception e) {
+            log.error("Failed to write PDF for debtor {} in {}: {}", outputId, zipFileName, e.getMessage(), e);
+            return false;
         }
     }
 
@@ -408,13 +772,16 @@ public class ZipIngestService {
     }
 
     private void logPdfExecutorState() {
-        int availablePermits = pdfConversionPermits.availablePermits();
+        int limit = pdfConversionLimiter.limit();
+        int inFlight = pdfConversionLimiter.inFlight();
         int queuedTasks = pdfConversionExecutor.getQueue().size();
         int activeThreads = pdfConversionExecutor.getActiveCount();
         long completedTasks = pdfConversionExecutor.getCompletedTaskCount();
         
         log.error("PDF EXECUTOR STATE:");
-        log.error("  Available permits: {}/{}", availablePermits, maxConcurrentPdfConversions);
+        log.error("  Conversions in flight: {}/{} (limit, max {}, latency gradient {}), {} queued", inFlight, limit,
+                maxConcurrentPdfConversions, String.format("%.2f", pdfConversionLimiter.gradient()),
+                pdfConversionLimiter.queued());
         log.error("  Active threads: {}/{}", activeThreads, maxConcurrentPdfConversions);
         log.error("  Queued tasks: {}", queuedTasks);
         log.error("  Completed tasks: {}", completedTasks);
@@ -425,13 +792,12 @@ public class ZipIngestService {
         O apply(I input) throws IOException;
     }
 
-    private static String stripZipExtension(String fileName) {
-        return fileName.endsWith(".zip") ? fileName.substring(0, fileName.length() - 4) : fileName;
+    @FunctionalInterface
+    private interface PdfConversion {
+        void run() throws PdfRenderer.ConversionException;
     }
 
-    private String loadTemplateHtml(Integer invoiceType) {
-        String html = templateHtmlMap.get(invoiceType);
-        if (html == null) throw new IllegalStateException("Missing template HTML for invoiceType=" + invoiceType);
-        return html;
+    private static String stripZipExtension(String fileName) {
+        return fileName.endsWith(".zip") ? fileName.substring(0, fileName.length() - 4) : fileName;
     }
 }
@@ -0,0 +1,76 @@
+package nl.infomedics.invoicing.watch;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.infomedics.invoicing.config.AppProperties;
+import nl.infomedics.invoicing.service.ZipIngestService;
+
+/**
+ * Training workload of the {@code aot-cache} build profile: ingests every zip in {@code training.samples-folder}
+ * the way the watcher hands them over, waits until their PDFs have been written and shuts the application down, so
+ * parsing, JSON output and PDF conversion are loaded and linked when the AOT cache is written. Does nothing unless
+ * the folder is set.
+ */
+@Slf4j
+@Component
+public class TrainingRun implements ApplicationRunner {
+
+    private final ZipIngestService ingest;
+    private final AppProperties props;
+    private final String samplesFolder;
+    private final Duration maxDuration;
+    private final ApplicationContext context;
+
+    public TrainingRun(ZipIngestService ingest, AppProperties props,
+                       @Value("${training.samples-folder:}") String samplesFolder,
+                       @Value("${training.max-duration:PT5M}") Duration maxDuration,
+                       ApplicationContext context) {
+        this.ingest = ingest;
+        this.props = props;
+        this.samplesFolder = samplesFolder;
+        this.maxDuration = maxDuration;
+        this.context = context;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws IOException, InterruptedException {
+        if (samplesFolder == null || samplesFolder.isBlank()) {
+            return;
+        }
+        long start = System.nanoTime();
+        // The watcher creates these in its own run, which may come after this one
+        Files.createDirectories(Paths.get(props.getArchiveFolder()));
+        Files.createDirectories(Paths.get(props.getErrorFolder()));
+        // Ingested zips are moved to the archive folder, so the samples are processed as copies
+        Path work = Files.createTempDirectory("ingest-training");
+        int zips = 0;
+        try (DirectoryStream<Path> samples = Files.newDirectoryStream(Paths.get(samplesFolder.trim()), "*.zip")) {
+            for (Path sample : samples) {
+                ingest.processZip(Files.copy(sample, work.resolve(sample.getFileName())));
+                zips++;
+            }
+        }
+        boolean finished = ingest.awaitConversions(maxDuration);
+        try {
+            Files.deleteIfExists(work);
+        } catch (IOException ex) {
+            log.debug("Training copies left in {}: {}", work, ex.getMessage());
+        }
+        log.info("Training run {} after {} ms: {} sample zips from {}", finished ? "finished" : "timed out",
+                (System.nanoTime() - start) / 1_000_000, zips, samplesFolder);
+        System.exit(SpringApplication.exit(context, () -> 0));
+    }
+}
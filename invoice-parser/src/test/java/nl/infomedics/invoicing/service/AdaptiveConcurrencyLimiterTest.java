@@ -0,0 +1,127 @@
+package nl.infomedics.invoicing.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    void growsWhileLatencyStaysWithinTolerance() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(true, 1, 4, 100);
+        saturatedBatches(limiter, 1, 10 * MILLIS);
+        // 1.4 times the average is still within the 1.5 tolerance
+        saturatedBatches(limiter, 30, 14 * MILLIS);
+
+        assertEquals(1.0, limiter.gradient());
+        assertTrue(limiter.limit() > 8, "limit " + limiter.limit());
+    }
+
+    @Test
+    void doesNotGrowWhenTheLimitIsNotReached() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(true, 1, 10, 100);
+        for (int i = 0; i < 30; i++) {
+            limiter.acquire(() -> { });
+            limiter.release(10 * MILLIS, 10, false);
+        }
+
+        assertEquals(10, limiter.limit());
+    }
+
+    @Test
+    void shrinksWhenLatencyRises() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(true, 1, 40, 100);
+        saturatedBatches(limiter, 5, 10 * MILLIS);
+        int before = limiter.limit();
+
+        saturatedBatches(limiter, 10, 30 * MILLIS);
+
+        assertTrue(limiter.gradient() < 1.0, "gradient " + limiter.gradient());
+        assertTrue(limiter.limit() < before, limiter.limit() + " not below " + before);
+    }
+
+    @Test
+    void cutsTheLimitByTenPercentOnError() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(true, 1, 20, 100);
+        limiter.acquire(() -> { });
+        limiter.release(0, 0, true);
+
+        assertEquals(18, limiter.limit());
+
+        limiter.acquire(() -> { });
+        limiter.release(0, 0, true);
+
+        assertEquals(16, limiter.limit());
+    }
+
+    @Test
+    void keepsTheLimitBetweenMinAndMax() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(true, 5, 100, 8);
+        assertEquals(8, limiter.limit());
+
+        saturatedBatches(limiter, 50, 10 * MILLIS);
+        assertEquals(8, limiter.limit());
+
+        for (int i = 0; i < 50; i++) {
+            limiter.acquire(() -> { });
+            limiter.release(0, 0, true);
+        }
+        assertEquals(5, limiter.limit());
+
+        // Ten times the average: the gradient is at its floor, the limit at its minimum
+        saturatedBatches(limiter, 5, 100 * MILLIS);
+        assertEquals(0.5, limiter.gradient());
+        assertEquals(5, limiter.limit());
+    }
+
+    @Test
+    void staysAtMaxWhenNotAdaptive() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(false, 1, 2, 6);
+        limiter.acquire(() -> { });
+        limiter.release(0, 0, true);
+        saturatedBatches(limiter, 10, 100 * MILLIS);
+
+        assertEquals(6, limiter.limit());
+    }
+
+    @Test
+    void admitsQueuedBatchesInArrivalOrder() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(false, 1, 2, 2);
+        List<String> admitted = new ArrayList<>();
+        for (String batch : List.of("a", "b", "c", "d", "e")) {
+            limiter.acquire(() -> admitted.add(batch));
+        }
+
+        assertEquals(List.of("a", "b"), admitted);
+        assertEquals(2, limiter.inFlight());
+        assertEquals(3, limiter.queued());
+
+        limiter.release(10 * MILLIS, 10, false);
+        assertEquals(List.of("a", "b", "c"), admitted);
+
+        limiter.release(10 * MILLIS, 10, false);
+        limiter.release(10 * MILLIS, 10, false);
+        assertEquals(List.of("a", "b", "c", "d", "e"), admitted);
+        assertEquals(0, limiter.queued());
+        assertEquals(2, limiter.inFlight());
+    }
+
+    /**
+     * Completes {@code batches} batches of 10 debtors that each took {@code latencyNanos}, with the limit reached
+     * every time, as it is under load.
+     */
+    private static void saturatedBatches(AdaptiveConcurrencyLimiter limiter, int batches, long latencyNanos) {
+        for (int i = 0; i < batches; i++) {
+            while (limiter.inFlight() < limiter.limit()) {
+                limiter.acquire(() -> { });
+            }
+            limiter.release(latencyNanos, 10, false);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package nl.infomedics.invoicing.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import nl.infomedics.invoicing.model.BatchConversionItem;
+
+class MicroBatcherTest {
+
+    @Test
+    void groupsZipsByInvoiceTypeAndKeepsEveryItemWithItsZip() {
+        List<MicroBatcher.Batch> dispatched = new CopyOnWriteArrayList<>();
+        MicroBatcher batcher = new MicroBatcher(100, Duration.ofMinutes(1), dispatched::add);
+        ZipConversion a = zip("a.zip", 20, 2);
+        ZipConversion b = zip("b.zip", 20, 3);
+        ZipConversion c = zip("c.zip", 30, 1);
+
+        batcher.add(a);
+        batcher.add(c);
+        batcher.add(b);
+        batcher.close();
+
+        assertEquals(2, dispatched.size());
+        MicroBatcher.Batch type20 = dispatched.stream().filter(batch -> batch.invoiceType() == 20).findFirst().get();
+        assertEquals(List.of(a, b), List.copyOf(type20.conversions()));
+        assertEquals(List.of("a.zip/0", "a.zip/1", "b.zip/0", "b.zip/1", "b.zip/2"), entries(type20));
+        MicroBatcher.Batch type30 = dispatched.stream().filter(batch -> batch.invoiceType() == 30).findFirst().get();
+        assertEquals(List.of("c.zip/0"), entries(type30));
+        assertEquals("<html>30</html>", type30.html());
+    }
+
+    @Test
+    void dispatchesABatchAsSoonAsItIsFull() {
+        List<MicroBatcher.Batch> dispatched = new CopyOnWriteArrayList<>();
+        MicroBatcher batcher = new MicroBatcher(4, Duration.ofMinutes(1), dispatched::add);
+
+        batcher.add(zip("a.zip", 20, 2));
+        assertEquals(0, dispatched.size());
+        batcher.add(zip("b.zip", 20, 3));
+        assertEquals(1, dispatched.size());
+        assertEquals(5, dispatched.getFirst().entries().size());
+
+        // The next zip starts a new batch
+        ZipConversion c = zip("c.zip", 20, 1);
+        batcher.add(c);
+        batcher.close();
+        assertEquals(2, dispatched.size());
+        assertEquals(List.of(c), List.copyOf(dispatched.get(1).conversions()));
+    }
+
+    @Test
+    void flushesABatchMaxDelayAfterItsFirstZip() throws Exception {
+        CompletableFuture<MicroBatcher.Batch> dispatched = new CompletableFuture<>();
+        MicroBatcher batcher = new MicroBatcher(100, Duration.ofMillis(200), dispatched::complete);
+        ZipConversion a = zip("a.zip", 20, 1);
+        long start = System.nanoTime();
+
+        batcher.add(a);
+        MicroBatcher.Batch batch = dispatched.get(5, TimeUnit.SECONDS);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+        assertSame(a, batch.entries().getFirst().conversion());
+        batcher.close();
+    }
+
+    @Test
+    void doesNotFlushABatchThatAlreadyWentOutFull() throws Exception {
+        List<MicroBatcher.Batch> dispatched = new CopyOnWriteArrayList<>();
+        MicroBatcher batcher = new MicroBatcher(2, Duration.ofMillis(50), dispatched::add);
+
+        batcher.add(zip("a.zip", 20, 2));
+        TimeUnit.MILLISECONDS.sleep(250);
+
+        assertEquals(1, dispatched.size());
+        batcher.close();
+    }
+
+    private static ZipConversion zip(String name, int invoiceType, int items) {
+        ZipConversion conversion = new ZipConversion(name, "<html>" + invoiceType + "</html>", invoiceType, 500);
+        for (int i = 0; i < items; i++) {
+            conversion.add(new BatchConversionItem(null, Integer.toString(i)));
+        }
+        conversion.complete();
+        return conversion;
+    }
+
+    private static List<String> entries(MicroBatcher.Batch batch) {
+        return batch.entries().stream()
+                .map(e -> e.conversion().zipFileName() + "/" + e.item().outputId())
+                .toList();
+    }
+}
@@ -0,0 +1,170 @@
+package nl.infomedics.invoicing.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import nl.infomedics.invoicing.service.PdfCreatorPool.Balancing;
+import nl.infomedics.invoicing.service.PdfCreatorPool.Node;
+
+class PdfCreatorPoolTest {
+
+    private static final List<String> URLS = List.of(
+            "https://pdf-a:6969", "https://pdf-b:6969", "https://pdf-c:6969", "https://pdf-d:6969");
+
+    @Test
+    void mapsATemplateToTheSameNodeEveryTime() {
+        PdfCreatorPool pool = pool(URLS, Balancing.AFFINITY, 1.25);
+        PdfCreatorPool other = pool(URLS, Balancing.AFFINITY, 1.25);
+        Set<String> homes = new HashSet<>();
+        for (int t = 0; t < 40; t++) {
+            String template = "template-" + t;
+            Node home = home(pool, template);
+            for (int i = 0; i < 5; i++) {
+                assertSame(home, home(pool, template));
+            }
+            // The ring depends on the URLs only, so every client sends a template to the same pdf-creator
+            assertEquals(home.toString(), home(other, template).toString());
+            homes.add(home.toString());
+        }
+        assertEquals(URLS.size(), homes.size());
+    }
+
+    @Test
+    void spillsOverAboveLoadFactorTimesAverage() {
+        PdfCreatorPool pool = pool(URLS, Balancing.AFFINITY, 1.5);
+        Node home = home(pool, "template");
+        for (Node node : pool.nodes()) {
+            load(pool, node, 2);
+        }
+
+        int homeLoad = 2;
+        Node spill;
+        while ((spill = pool.acquire("template", Set.of())) == home) {
+            homeLoad++;
+        }
+
+        // With 11 outstanding and this one a node may carry ceil(1.5 * 12 / 4) = 5
+        assertEquals(5, homeLoad);
+        assertNotSame(home, spill);
+        pool.release(spill, 0, 0, false);
+        // The same next node on the ring every time
+        assertSame(spill, pool.acquire("template", Set.of()));
+    }
+
+    @Test
+    void neverReturnsAnExcludedNode() {
+        for (Balancing balancing : Balancing.values()) {
+            PdfCreatorPool pool = pool(URLS, balancing, 1.25);
+            List<Node> nodes = pool.nodes();
+            for (int t = 0; t < 40; t++) {
+                String template = "template-" + t;
+                Set<Node> tried = new HashSet<>();
+                for (int attempt = 0; attempt < nodes.size(); attempt++) {
+                    Node node = pool.acquire(template, tried);
+                    assertFalse(tried.contains(node), balancing + " returned excluded " + node);
+                    tried.add(node);
+                    pool.release(node, 0, 0, true);
+                }
+                assertNull(pool.acquire(template, tried));
+            }
+        }
+    }
+
+    @Test
+    void returnsAnEjectedNodeRatherThanAnExcludedOne() {
+        PdfCreatorPool pool = pool(URLS.subList(0, 2), Balancing.LEAST_OUTSTANDING, 1.25);
+        Node first = pool.nodes().get(0);
+        Node second = pool.nodes().get(1);
+        fail(pool, second, 3);
+
+        for (int i = 0; i < 10; i++) {
+            Node node = pool.acquire(Set.of(first));
+            assertSame(second, node);
+            pool.release(node, 0, 0, false);
+        }
+    }
+
+    @Test
+    void neverEjectsTheLastAvailableNode() {
+        PdfCreatorPool pool = pool(URLS.subList(0, 2), Balancing.LEAST_OUTSTANDING, 1.25);
+        Node first = pool.nodes().get(0);
+        Node second = pool.nodes().get(1);
+        fail(pool, first, 3);
+        fail(pool, second, 10);
+
+        // Had the second node been ejected as well, requests would go to either node again
+        for (int i = 0; i < 20; i++) {
+            Node node = pool.acquire(Set.of());
+            assertSame(second, node);
+            pool.release(node, 0, 0, false);
+        }
+    }
+
+    @Test
+    void ejectsSlowNodesExceptUnderAffinity() {
+        PdfCreatorPool balanced = pool(URLS.subList(0, 2), Balancing.LEAST_OUTSTANDING, 1.25);
+        slowSecondNode(balanced);
+        for (int i = 0; i < 10; i++) {
+            assertSame(balanced.nodes().get(0), balanced.acquire(Set.of()));
+        }
+
+        PdfCreatorPool affinity = pool(URLS.subList(0, 2), Balancing.AFFINITY, 1.25);
+        Node second = affinity.nodes().get(1);
+        String template = null;
+        for (int t = 0; template == null; t++) {
+            if (home(affinity, "template-" + t) == second) template = "template-" + t;
+        }
+        slowSecondNode(affinity);
+        assertSame(second, home(affinity, template));
+    }
+
+    private static PdfCreatorPool pool(List<String> urls, Balancing balancing, double affinityLoadFactor) {
+        return new PdfCreatorPool(urls, balancing, affinityLoadFactor, 3, 3.0, Duration.ofMinutes(1), null, null,
+                Duration.ZERO, Duration.ZERO);
+    }
+
+    /**
+     * @return the node {@code template} goes to, without leaving a request outstanding on it
+     */
+    private static Node home(PdfCreatorPool pool, String template) {
+        Node node = pool.acquire(template, Set.of());
+        pool.release(node, 0, 0, false);
+        return node;
+    }
+
+    private static void load(PdfCreatorPool pool, Node node, int requests) {
+        List<Node> others = pool.nodes().stream().filter(n -> n != node).toList();
+        for (int i = 0; i < requests; i++) {
+            assertSame(node, pool.acquire(others));
+        }
+    }
+
+    private static void fail(PdfCreatorPool pool, Node node, int times) {
+        for (int i = 0; i < times; i++) {
+            load(pool, node, 1);
+            pool.release(node, 0, 0, true);
+        }
+    }
+
+    /**
+     * Reports batches on the second node at ten times the latency per item of the first.
+     */
+    private static void slowSecondNode(PdfCreatorPool pool) {
+        Node first = pool.nodes().get(0);
+        Node second = pool.nodes().get(1);
+        load(pool, first, 1);
+        pool.release(first, 10_000_000L, 10, false);
+        load(pool, second, 1);
+        pool.release(second, 100_000_000L, 10, false);
+    }
+}
@@ -0,0 +1,151 @@
+package nl.infomedics.invoicing.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import nl.infomedics.invoicing.model.BatchConversionItem;
+
+class ZipConversionTest {
+
+    @Test
+    void handsOutFullChunksWhileParsingAndTheRestOnCompletion() {
+        ZipConversion conversion = new ZipConversion("a.zip", "<html/>", 20, 3);
+        List<Boolean> filled = add(conversion, 7);
+
+        assertEquals(List.of(false, false, true, false, false, true, false), filled);
+        assertEquals(List.of("0", "1", "2"), outputIds(conversion.nextChunk(10)));
+        assertEquals(List.of("3", "4", "5"), outputIds(conversion.nextChunk(10)));
+        // The third chunk is not full yet
+        assertNull(conversion.nextChunk(10));
+
+        assertFalse(conversion.complete());
+        assertEquals(List.of("6"), outputIds(conversion.nextChunk(10)));
+        assertNull(conversion.nextChunk(10));
+        assertEquals(3, conversion.chunkCount());
+    }
+
+    @Test
+    void keepsAtMostTheWindowInFlight() {
+        ZipConversion conversion = new ZipConversion("a.zip", "<html/>", 20, 2);
+        add(conversion, 8);
+        conversion.complete();
+
+        assertNotNull(conversion.nextChunk(2));
+        assertNotNull(conversion.nextChunk(2));
+        assertNull(conversion.nextChunk(2));
+
+        conversion.chunkDone();
+        assertNotNull(conversion.nextChunk(2));
+        assertNull(conversion.nextChunk(2));
+    }
+
+    @Test
+    void reportsTheEndOnceForTheLastChunk() {
+        ZipConversion conversion = new ZipConversion("a.zip", "<html/>", 20, 2);
+        add(conversion, 5);
+        conversion.complete();
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(conversion.nextChunk(10));
+        }
+
+        // Chunks finish in any order; only the third to finish ends the zip
+        assertFalse(conversion.chunkDone());
+        assertFalse(conversion.chunkDone());
+        assertTrue(conversion.chunkDone());
+    }
+
+    @Test
+    void reportsTheEndOnCompletionWhenEveryChunkFinishedBefore() {
+        ZipConversion conversion = new ZipConversion("a.zip", "<html/>", 20, 2);
+        add(conversion, 4);
+        conversion.nextChunk(10);
+        conversion.nextChunk(10);
+
+        // Input not complete yet, so more chunks may follow
+        assertFalse(conversion.chunkDone());
+        assertFalse(conversion.chunkDone());
+        assertTrue(conversion.complete());
+    }
+
+    @Test
+    void countsAFailedChunkTowardsTheEndButNotItsPdfs() {
+        ZipConversion conversion = new ZipConversion("a.zip", "<html/>", 20, 3);
+        add(conversion, 9);
+        conversion.complete();
+        TemplateBatch first = conversion.nextChunk(10);
+        TemplateBatch failed = conversion.nextChunk(10);
+        TemplateBatch last = conversion.nextChunk(10);
+
+        conversion.written(first.items().size());
+        assertFalse(conversion.chunkDone());
+        // No PDFs from the failed chunk, but it has finished
+        assertFalse(conversion.chunkDone());
+        conversion.written(last.items().size());
+        assertTrue(conversion.chunkDone());
+
+        assertEquals(3, failed.items().size());
+        assertEquals(6, conversion.writtenCount());
+        assertEquals(9, conversion.itemCount());
+    }
+
+    @Test
+    void cancelStopsHandingOutChunksAndWaitsForThoseInFlight() throws Exception {
+        ZipConversion conversion = new ZipConversion("a.zip", "<html/>", 20, 2);
+        add(conversion, 6);
+        assertNotNull(conversion.nextChunk(10));
+
+        assertFalse(conversion.cancel());
+        assertNull(conversion.nextChunk(10));
+
+        CompletableFuture<Void> idle = CompletableFuture.runAsync(() -> {
+            try {
+                conversion.awaitIdle();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertFalse(idle.isDone());
+        assertTrue(conversion.chunkDone());
+        idle.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void backlogReleasesTheProducerOnceChunksGoOut() throws Exception {
+        ZipConversion conversion = new ZipConversion("a.zip", "<html/>", 20, 1);
+        add(conversion, 3);
+
+        CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+            try {
+                conversion.awaitBacklog(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertFalse(producer.isDone());
+
+        conversion.nextChunk(10);
+        conversion.nextChunk(10);
+        producer.get(5, TimeUnit.SECONDS);
+    }
+
+    private static List<Boolean> add(ZipConversion conversion, int items) {
+        return IntStream.range(0, items)
+                .mapToObj(i -> conversion.add(new BatchConversionItem(null, Integer.toString(i))))
+                .toList();
+    }
+
+    private static List<String> outputIds(TemplateBatch chunk) {
+        return chunk.items().stream().map(BatchConversionItem::outputId).toList();
+    }
+}
@@ -0,0 +1,154 @@
+package nl.infomedics.invoicing.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import nl.infomedics.invoicing.config.AppProperties;
+import nl.infomedics.invoicing.metrics.DiagnosticsRecorder;
+import nl.infomedics.invoicing.model.BatchConversionItem;
+import nl.infomedics.invoicing.model.SingleDebtorInvoice;
+
+/**
+ * Runs sample zips through {@link ZipIngestService} against a renderer that answers every item with its invoice
+ * number as the "PDF", so each file written shows which debtor it was rendered for.
+ */
+class ZipIngestServiceTest {
+
+    private static final Path SAMPLES = Path.of("samples");
+    /** Ten debtors of invoice type 20. */
+    private static final String TEN_DEBTORS = "ACC_CMIB_TIM_20250930_638947954981529855.zip";
+    /** Four debtors each, of invoice type 20. */
+    private static final List<String> FOUR_DEBTORS = List.of(
+            "ACC_InfFactoring_NOLA_20250922_638941375192547176.zip",
+            "ACC_InfFactoring_NOLA_20250922_638941377462466104.zip");
+
+    @TempDir
+    Path dir;
+
+    private final List<List<BatchConversionItem>> batches = new ArrayList<>();
+    private ZipIngestService service;
+
+    @AfterEach
+    void shutdown() {
+        if (service != null) service.shutdown();
+    }
+
+    @Test
+    void aFailedChunkLeavesOnlyItsOwnPdfsOut() throws Exception {
+        AtomicBoolean failNext = new AtomicBoolean(true);
+        List<String> failed = new CopyOnWriteArrayList<>();
+        service = service(3, 0, (html, incl, items) -> {
+            if (failNext.getAndSet(false)) {
+                failed.addAll(outputIds(items));
+                throw new PdfRenderer.ConversionException("1 of 1 sub-batches failed");
+            }
+            return pdfs(items);
+        });
+
+        service.processZip(input(TEN_DEBTORS));
+
+        assertTrue(service.awaitConversions(Duration.ofSeconds(30)));
+        assertEquals(4, batches.size());
+        assertEquals(3, failed.size());
+        Map<String, String> written = writtenPdfs(TEN_DEBTORS);
+        assertEquals(10 - failed.size(), written.size());
+        failed.forEach(outputId -> assertFalse(written.containsKey(outputId), outputId));
+        // The zip itself was parsed, so it is archived rather than moved to the error folder
+        assertTrue(Files.exists(dir.resolve("archive").resolve(TEN_DEBTORS)));
+    }
+
+    @Test
+    void writesEveryPdfOfAMicroBatchUnderItsOwnZip() throws Exception {
+        service = service(500, 10, (html, incl, items) -> pdfs(items));
+
+        for (String zip : FOUR_DEBTORS) {
+            service.processZip(input(zip));
+        }
+
+        assertTrue(service.awaitConversions(Duration.ofSeconds(30)));
+        assertEquals(1, batches.size());
+        assertEquals(8, batches.getFirst().size());
+        for (String zip : FOUR_DEBTORS) {
+            Map<String, String> written = writtenPdfs(zip);
+            assertEquals(4, written.size(), zip);
+            // Named after the debtor's invoice number and rendered for that debtor
+            written.forEach((outputId, pdf) -> assertEquals(outputId, pdf, zip));
+        }
+    }
+
+    private ZipIngestService service(int chunkMaxItems, int microBatchMaxZipItems, PdfRenderer renderer)
+            throws IOException {
+        for (String folder : List.of("archive", "error", "json", "pdf", "in")) {
+            Files.createDirectories(dir.resolve(folder));
+        }
+        AppProperties properties = new AppProperties();
+        properties.setInputFolder(dir.resolve("in").toString());
+        properties.setArchiveFolder(dir.resolve("archive").toString());
+        properties.setErrorFolder(dir.resolve("error").toString());
+        DiagnosticsRecorder diagnostics = new DiagnosticsRecorder(
+                new DefaultListableBeanFactory().getBeanProvider(MeterRegistry.class), false);
+        PdfRenderer recording = (html, includeSanitisedXhtml, items) -> {
+            synchronized (batches) {
+                batches.add(items);
+            }
+            return renderer.convertBatch(html, includeSanitisedXhtml, items);
+        };
+        return new ZipIngestService(new ParseService(), new JsonAssembler(), properties, recording,
+                Map.of(20, "<html/>"), dir.resolve("json").toString(), false, dir.resolve("pdf").toString(), false,
+                4, false, 1, 2, chunkMaxItems, 0, microBatchMaxZipItems, 100, Duration.ofSeconds(2), diagnostics);
+    }
+
+    private Path input(String sample) throws IOException {
+        return Files.copy(SAMPLES.resolve(sample), dir.resolve("in").resolve(sample));
+    }
+
+    /**
+     * @return the PDFs written for {@code zipFileName}, by output id
+     */
+    private Map<String, String> writtenPdfs(String zipFileName) throws IOException {
+        String prefix = zipFileName.substring(0, zipFileName.lastIndexOf('.')) + "_";
+        try (Stream<Path> files = Files.list(dir.resolve("pdf"))) {
+            Map<String, String> pdfs = new LinkedHashMap<>();
+            for (Path file : files.filter(f -> f.getFileName().toString().startsWith(prefix)).toList()) {
+                String name = file.getFileName().toString();
+                pdfs.put(name.substring(prefix.length(), name.length() - ".pdf".length()),
+                        Files.readString(file, StandardCharsets.UTF_8));
+            }
+            return pdfs;
+        }
+    }
+
+    private static Map<String, byte[]> pdfs(List<BatchConversionItem> items) {
+        return items.stream().collect(Collectors.toMap(BatchConversionItem::outputId,
+                item -> invoiceNumber(item).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String invoiceNumber(BatchConversionItem item) {
+        return ((SingleDebtorInvoice) item.jsonModel()).getDebiteur().getDebiteur().getInvoiceNumber();
+    }
+
+    private static List<String> outputIds(List<BatchConversionItem> items) {
+        return items.stream().map(BatchConversionItem::outputId).toList();
+    }
+}
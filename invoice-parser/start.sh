@@ -1,5 +1,11 @@
 #!/usr/bin/env bash
 set -euo pipefail
 
-# Start the Spring Boot app
-java -jar ./target/invoice-parser-0.0.1-SNAPSHOT-exec.jar
+JAR=invoice-parser-0.0.1-SNAPSHOT-exec.jar
+AOT_DIR=./target/aot
+
+# Start the Spring Boot app, from the AOT cache built by `mvn -Paot-cache package` when present
+if [ -f "$AOT_DIR/invoice-parser.aot" ] && [ -f "$AOT_DIR/$JAR" ]; then
+  exec java ${JAVA_OPTS:-} -XX:AOTCache="$AOT_DIR/invoice-parser.aot" -jar "$AOT_DIR/$JAR" "$@"
+fi
+exec java ${JAVA_OPTS:-} -jar ./target/$JAR "$@"
@@ -0,0 +1,233 @@
+package nl.infomedics.xhtml2pdf.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.infomedics.invoicing.model.BatchConversionItem;
+import nl.infomedics.invoicing.model.BatchConversionRequest;
+import nl.infomedics.invoicing.model.Debiteur;
+import nl.infomedics.invoicing.model.DebiteurWithPractitioner;
+import nl.infomedics.invoicing.model.Specificatie;
+import nl.infomedics.reporting.service.BatchPdfRenderer;
+import nl.infomedics.reporting.service.RenderedBatch;
+
+/**
+ * Renders the configured templates with synthetic debtors before the service reports ready, so the
+ * first real batches after a deploy run on compiled code instead of in the interpreter. Each round sends every
+ * template as a batch with one item per conversion thread through the regular batch path; rounds repeat until
+ * the round time changes by less than the tolerance. Spring Boot keeps the readiness state at
+ * {@code REFUSING_TRAFFIC} until application runners have completed. With {@code warmup.exit-on-completion} the
+ * application shuts down after the warmup, which makes it the training run for the {@code aot-cache} build profile.
+ */
+@Slf4j
+@Component
+public class RenderWarmup implements ApplicationRunner {
+
+    private static final int TREATMENT_ROWS = 12;
+
+    private final BatchPdfRenderer batchRenderer;
+    private final ExecutorService pdfConversionExecutor;
+    private final boolean enabled;
+    private final String[] templateLocations;
+    private final int maxRounds;
+    private final double settleTolerance;
+    private final Duration maxDuration;
+    private final boolean exitOnCompletion;
+    private final ApplicationContext context;
+
+    public RenderWarmup(BatchPdfRenderer batchRenderer,
+                        @Qualifier("pdfConversionExecutor") ExecutorService pdfConversionExecutor,
+                        @Value("${warmup.enabled:true}") boolean enabled,
+                        @Value("${warmup.templates:classpath*:warmup/*.html}") String[] templateLocations,
+                        @Value("${warmup.max-rounds:20}") int maxRounds,
+                        @Value("${warmup.settle-tolerance:0.10}") double settleTolerance,
+                        @Value("${warmup.max-duration:PT2M}") Duration maxDuration,
+                        @Value("${warmup.exit-on-completion:false}") boolean exitOnCompletion,
+                        ApplicationContext context) {
+        this.batchRenderer = batchRenderer;
+        this.pdfConversionExecutor = pdfConversionExecutor;
+        this.enabled = enabled;
+        this.templateLocations = templateLocations;
+        this.maxRounds = Math.max(2, maxRounds);
+        this.settleTolerance = Math.max(0.0, settleTolerance);
+        this.maxDuration = maxDuration;
+        this.exitOnCompletion = exitOnCompletion;
+        this.context = context;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (enabled) {
+            warmUp();
+        }
+        if (exitOnCompletion) {
+            log.info("Render warmup complete; shutting down as requested by warmup.exit-on-completion");
+            System.exit(SpringApplication.exit(context, () -> 0));
+        }
+    }
+
+    private void warmUp() {
+        Map<String, String> templates = loadTemplates();
+        if (templates.isEmpty()) {
+            log.warn("Render warmup enabled but skipped: no templates found at {}; the first batches after startup will"
+                    + " run in the interpreter", String.join(", ", templateLocations));
+            return;
+        }
+        int workers = workerCount();
+        long deadline = System.nanoTime() + maxDuration.toNanos();
+        long start = System.nanoTime();
+        int renders = 0;
+        int failures = 0;
+        double previousMillis = -1;
+        double roundMillis = -1;
+        boolean settled = false;
+        int round = 0;
+        while (round < maxRounds && System.nanoTime() < deadline) {
+            round++;
+            long roundStart = System.nanoTime();
+            for (Map.Entry<String, String> template : templates.entrySet()) {
+                failures += renderBatch(template.getKey(), template.getValue(), workers, round);
+                renders += workers;
+            }
+            roundMillis = (System.nanoTime() - roundStart) / 1_000_000.0;
+            log.debug("Render warmup round {}: {} templates x {} threads in {} ms", round, templates.size(), workers,
+                    Math.round(roundMillis));
+            if (previousMillis > 0 && Math.abs(roundMillis - previousMillis) <= previousMillis * settleTolerance) {
+                settled = true;
+                break;
+            }
+            previousMillis = roundMillis;
+        }
+        long totalMillis = (System.nanoTime() - start) / 1_000_000;
+        // Every batch keeps all conversion threads busy with one item each, so a batch takes one render time
+        long steadyRenderMillis = Math.round(roundMillis / templates.size());
+        log.info("Render warmup {} after {} ms: {} renders ({} failed) in {} rounds over {} templates and {} threads; "
+                        + "steady-state render time {} ms per document",
+                settled ? "settled" : "stopped", totalMillis, renders, failures, round, templates.size(), workers,
+                steadyRenderMillis);
+    }
+
+    private int renderBatch(String name, String html, int workers, int round) {
+        List<BatchConversionItem> items = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            items.add(new BatchConversionItem(syntheticDebtor(round * workers + i), "warmup-" + name + "-" + i));
+        }
+        try (RenderedBatch batch = batchRenderer.renderBatch(new BatchConversionRequest(html, false, items))) {
+            // Drained like a response, so the writers are warm as well
+            batch.writeJson(OutputStream.nullOutputStream());
+            int failed = 0;
+            for (RenderedBatch.Item result : batch.results()) {
+                if (result.error() != null) {
+                    failed++;
+                }
+            }
+            if (failed > 0 && round == 1) {
+                log.warn("Render warmup: template {} failed for {} of {} items", name, failed, workers);
+            }
+            return failed;
+        } catch (IOException | RuntimeException ex) {
+            log.warn("Render warmup: template {} failed: {}", name, ex.getMessage());
+            return workers;
+        }
+    }
+
+    private Map<String, String> loadTemplates() {
+        ResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+        Map<String, String> templates = new LinkedHashMap<>();
+        for (String location : templateLocations) {
+            if (location == null || location.isBlank()) {
+                continue;
+            }
+            try {
+                for (Resource resource : resolver.getResources(location.trim())) {
+                    if (!resource.isReadable()) {
+                        continue;
+                    }
+                    try (InputStream in = resource.getInputStream()) {
+                        templates.putIfAbsent(resource.getFilename(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                    }
+                }
+            } catch (IOException ex) {
+                log.warn("Render warmup: unable to read templates from {}: {}", location, ex.getMessage());
+            }
+        }
+        return templates;
+    }
+
+    private int workerCount() {
+        if (pdfConversionExecutor instanceof ThreadPoolExecutor tpe) {
+            return Math.max(1, tpe.getMaximumPoolSize());
+        }
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Builds a debtor with every field the bundled templates print filled in, and a page of treatments.
+     */
+    private static DebiteurWithPractitioner syntheticDebtor(int seq) {
+        Debiteur debiteur = new Debiteur();
+        debiteur.setInvoiceNumber(Integer.toString(100_000_000 + seq));
+        debiteur.setPrintDate("01-01-2025");
+        debiteur.setHcpName("Tandartspraktijk Warmup");
+        debiteur.setHcpStreet("Praktijkstraat");
+        debiteur.setHcpHouseNr("12");
+        debiteur.setHcpZipCode("1234 AB");
+        debiteur.setHcpCity("AMSTERDAM");
+        debiteur.setPracticeAgb("12345678");
+        debiteur.setHcpAgb("87654321");
+        debiteur.setInsuredId("20300148300001071");
+        debiteur.setPatientName("J. de Vries " + seq);
+        debiteur.setStreet("Dorpsstraat");
+        debiteur.setHouseNr(Integer.toString(1 + seq % 200));
+        debiteur.setZipCode("5678 CD");
+        debiteur.setCity("UTRECHT");
+        debiteur.setInvoiceAmountCents(12_345 + seq);
+        debiteur.setOpenImfCents(1_234);
+        debiteur.setPatientDob(LocalDate.of(1980, 1, 1));
+        debiteur.setFirstExpirationDate("31-01-2025");
+        debiteur.setInsurer("Zorgverzekeraar Warmup");
+        debiteur.setPeriodFrom(LocalDate.of(2025, 1, 1));
+        debiteur.setPeriodTo(LocalDate.of(2025, 1, 31));
+
+        List<Specificatie> treatments = new ArrayList<>(TREATMENT_ROWS);
+        for (int i = 0; i < TREATMENT_ROWS; i++) {
+            Specificatie treatment = new Specificatie();
+            treatment.setInvoiceNumber(debiteur.getInvoiceNumber());
+            treatment.setDate(LocalDate.of(2025, 1, 1 + i));
+            treatment.setTreatmentCode("C0" + (11 + i));
+            treatment.setDescription("Periodiek mondonderzoek " + (i + 1));
+            treatment.setAmountCents(2_500 + i * 100);
+            treatment.setTreatmentProvider("Warmup");
+            treatment.setVatIndicator("0");
+            treatment.setVatValueCents("0");
+            treatments.add(treatment);
+        }
+        DebiteurWithPractitioner model = new DebiteurWithPractitioner();
+        model.setDebiteur(debiteur);
+        model.setTreatments(treatments);
+        model.getPractitioner().getPractice().setName("Tandartspraktijk Warmup");
+        return model;
+    }
+}
@@ -6,6 +6,7 @@ import java.util.concurrent.Executors;
 
 import org.apache.coyote.ProtocolHandler;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.tomcat.TomcatProtocolHandlerCustomizer;
 import org.springframework.boot.tomcat.servlet.TomcatServletWebServerFactory;
 import org.springframework.boot.web.server.WebServerFactoryCustomizer;
@@ -73,6 +74,21 @@ public class ServerPerformanceConfiguration implements WebMvcConfigurer {
         });
     }
 
+    /**
+     * Small dedicated pool for interactive template previews, so designer requests never queue behind
+     * bulk conversions on {@code pdfConversionExecutor}.
+     */
+    @Bean(name = "pdfPreviewExecutor", destroyMethod = "shutdown")
+    public ExecutorService pdfPreviewExecutor(@Value("${preview.threads:2}") int threads) {
+        return Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r);
+            t.setName("pdf-preview-" + t.threadId());
+            t.setDaemon(true);
+            t.setPriority(Thread.MAX_PRIORITY);
+            return t;
+        });
+    }
+
     @Bean
     WebServerFactoryCustomizer<TomcatServletWebServerFactory> tomcatCustomizer() {
         return factory -> {
@@ -0,0 +1,37 @@
+package nl.infomedics.xhtml2pdf.web;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import nl.infomedics.invoicing.model.CacheStatsResponse;
+import nl.infomedics.invoicing.model.CacheStatsResponse.CacheStatistics;
+import nl.infomedics.reporting.cache.BoundedCacheFactory;
+
+/**
+ * REST controller reporting the hit and miss counts of the converter caches, so that clients balancing over several
+ * instances can see how well each one keeps its templates warm.
+ */
+@RestController
+@RequestMapping(path = "/api/v1/pdf")
+public class CacheStatsController {
+
+    private final BoundedCacheFactory cacheFactory;
+
+    public CacheStatsController(BoundedCacheFactory cacheFactory) {
+        this.cacheFactory = cacheFactory;
+    }
+
+    @GetMapping(path = "/cache-stats", produces = MediaType.APPLICATION_JSON_VALUE)
+    public CacheStatsResponse cacheStats() {
+        Map<String, CacheStatistics> caches = new LinkedHashMap<>();
+        cacheFactory.stats().forEach((name, stats) -> caches.put(name,
+                new CacheStatistics(stats.hitCount(), stats.missCount(), stats.evictionCount())));
+        return new CacheStatsResponse(caches, Instant.now());
+    }
+}
@@ -0,0 +1,70 @@
+package nl.infomedics.xhtml2pdf.web;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import jakarta.validation.Valid;
+import nl.infomedics.invoicing.model.TemplatePreviewRequest;
+import nl.infomedics.invoicing.model.TemplatePreviewResponse;
+import nl.infomedics.reporting.service.Html2PdfConverterService.HtmlToPdfConversionException;
+import nl.infomedics.reporting.service.TemplatePreviewService;
+import nl.infomedics.reporting.service.TemplatePreviewService.Preview;
+
+/**
+ * REST controller serving fast first-page previews for the template designer.
+ */
+@RestController
+@RequestMapping(path = "/api/v1/pdf")
+@Validated
+public class TemplatePreviewController {
+
+    private final TemplatePreviewService previewService;
+    private final ExecutorService pdfPreviewExecutor;
+
+    public TemplatePreviewController(TemplatePreviewService previewService,
+                                     @Qualifier("pdfPreviewExecutor") ExecutorService pdfPreviewExecutor) {
+        this.previewService = previewService;
+        this.pdfPreviewExecutor = pdfPreviewExecutor;
+    }
+
+    @PostMapping(
+            path = "/preview",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public CompletableFuture<ResponseEntity<TemplatePreviewResponse>> preview(
+            @Valid @RequestBody TemplatePreviewRequest request) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Preview preview = previewService.preview(request.html(), request.pages(), request.dpi());
+                return ResponseEntity.ok(new TemplatePreviewResponse(preview.pagePngs(), preview.totalPages(),
+                        preview.cached(), Instant.now()));
+            } catch (HtmlToPdfConversionException e) {
+                throw new CompletionException(e);
+            }
+        }, pdfPreviewExecutor);
+    }
+
+    @ExceptionHandler(HtmlToPdfConversionException.class)
+    public ResponseEntity<String> handleConversionException(HtmlToPdfConversionException ex) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .contentType(MediaType.TEXT_PLAIN)
+                .header(HttpHeaders.CONTENT_ENCODING, StandardCharsets.UTF_8.name())
+                .body(ex.getMessage());
+    }
+}
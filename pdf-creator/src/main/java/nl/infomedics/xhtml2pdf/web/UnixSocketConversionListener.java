@@ -0,0 +1,237 @@
+package nl.infomedics.xhtml2pdf.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import nl.infomedics.invoicing.model.BatchConversionRequest;
+import nl.infomedics.invoicing.model.BatchWireFormat;
+import nl.infomedics.reporting.service.BatchPdfRenderer;
+import nl.infomedics.reporting.service.RenderedBatch;
+
+/**
+ * Accepts batch conversions over a Unix domain socket, for an invoice-parser on the same host: no TLS handshake,
+ * no encryption and no TCP loopback stack. Requests go through the same {@link BatchPdfRenderer} as
+ * {@code POST /api/v1/pdf/convert-batch}. Listens only when {@code converter.uds.path} is set.
+ * <p>
+ * A connection carries any number of exchanges, one at a time. A request is a 4-byte big-endian length followed by
+ * that many bytes of {@code BatchConversionRequest}, either JSON or {@link BatchWireFormat} (told apart by its
+ * magic); the response is a 4-byte length, a status byte ({@code 0} = {@code BatchConversionResponse} in the
+ * request's encoding follows, {@code 1} = UTF-8 error message follows) and the payload. Requests longer than
+ * {@code converter.uds.max-request-size} are read past without being kept and answered with an error.
+ */
+@Slf4j
+@Component
+public class UnixSocketConversionListener {
+
+    private static final byte STATUS_OK = 0;
+    private static final byte STATUS_ERROR = 1;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .registerModule(new com.fasterxml.jackson.datatype.jsr310.JavaTimeModule())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .disable(com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private final BatchPdfRenderer batchRenderer;
+    private final String socketPath;
+    private final int maxRequestBytes;
+    private ServerSocketChannel server;
+    private ExecutorService connections;
+    private Path boundPath;
+
+    public UnixSocketConversionListener(BatchPdfRenderer batchRenderer,
+                                        @Value("${converter.uds.path:}") String socketPath,
+                                        @Value("${converter.uds.max-request-size:104857600}") int maxRequestBytes) {
+        this.batchRenderer = batchRenderer;
+        this.socketPath = socketPath;
+        this.maxRequestBytes = maxRequestBytes;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        if (socketPath == null || socketPath.isBlank()) {
+            return;
+        }
+        Path path = Path.of(socketPath.trim()).toAbsolutePath();
+        Files.createDirectories(path.getParent());
+        // A socket file left behind by a killed process would make bind fail
+        Files.deleteIfExists(path);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(path));
+        boundPath = path;
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-rw----"));
+        } catch (UnsupportedOperationException ex) {
+            log.debug("Cannot restrict permissions of {} on this file system", path);
+        }
+        connections = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("uds-conversion-", 0).factory());
+        Thread.ofPlatform().name("uds-accept").daemon(true).start(this::acceptLoop);
+        log.info("Accepting batch conversions on Unix domain socket {}", path);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (server == null) {
+            return;
+        }
+        server.close();
+        connections.shutdownNow();
+        Files.deleteIfExists(boundPath);
+    }
+
+    private void acceptLoop() {
+        while (server.isOpen()) {
+            try {
+                SocketChannel channel = server.accept();
+                connections.execute(() -> serve(channel));
+            } catch (ClosedChannelException ex) {
+                return;
+            } catch (IOException ex) {
+                log.warn("Unix domain socket accept failed: {}", ex.getMessage());
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel) {
+        try (channel) {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            while (true) {
+                header.clear();
+                if (!readFully(channel, header, true)) {
+                    return;
+                }
+                int length = header.flip().getInt();
+                if (length < 0) {
+                    throw new IOException("Invalid request frame length " + length);
+                }
+                if (length > maxRequestBytes) {
+                    // Read past the body without holding it, so the peer gets to read the answer
+                    skipFully(channel, length);
+                    log.warn("Rejected Unix domain socket request of {} bytes, limit is {}", length, maxRequestBytes);
+                    writeError(channel, "Request of " + length + " bytes exceeds the limit of " + maxRequestBytes + " bytes");
+                    continue;
+                }
+                ByteBuffer body = ByteBuffer.allocate(length);
+                readFully(channel, body, false);
+                RenderedBatch batch;
+                boolean binary = BatchWireFormat.isRequest(body.array());
+                try {
+                    BatchConversionRequest request = binary
+                            ? BatchWireFormat.readRequest(new ByteArrayInputStream(body.array()))
+                            : OBJECT_MAPPER.readValue(body.array(), BatchConversionRequest.class);
+                    if (request.html() == null || request.html().isBlank() || request.items() == null) {
+                        throw new IllegalArgumentException("html and items are required");
+                    }
+                    batch = batchRenderer.renderBatch(request);
+                } catch (Exception ex) {
+                    log.error("Unix domain socket batch failed: {}", ex.getMessage());
+                    writeError(channel, String.valueOf(ex.getMessage()));
+                    continue;
+                }
+                try (batch) {
+                    writeResponse(channel, binary ? batch::writeBinary : batch::writeJson);
+                }
+            }
+        } catch (IOException ex) {
+            log.debug("Unix domain socket connection closed: {}", ex.getMessage());
+        }
+    }
+
+    private static void writeError(SocketChannel channel, String message) throws IOException {
+        byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer responseHeader = ByteBuffer.allocate(Integer.BYTES + 1).putInt(payload.length).put(STATUS_ERROR).flip();
+        ByteBuffer responseBody = ByteBuffer.wrap(payload);
+        while (responseHeader.hasRemaining() || responseBody.hasRemaining()) {
+            channel.write(new ByteBuffer[] {responseHeader, responseBody});
+        }
+    }
+
+    /**
+     * Streams a response straight from the rendered segments. The frame starts with its length, so the payload is
+     * written twice: once into a counter for the length, then into the channel.
+     */
+    private static void writeResponse(SocketChannel channel, PayloadWriter payload) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream();
+        payload.writeTo(counter);
+        if (counter.count > Integer.MAX_VALUE) {
+            writeError(channel, "Response of " + counter.count + " bytes exceeds the frame limit");
+            return;
+        }
+        ByteBuffer responseHeader = ByteBuffer.allocate(Integer.BYTES + 1).putInt((int) counter.count).put(STATUS_OK).flip();
+        while (responseHeader.hasRemaining()) {
+            channel.write(responseHeader);
+        }
+        // Not closed: that would close the channel, which carries the next exchange
+        payload.writeTo(Channels.newOutputStream(channel));
+    }
+
+    @FunctionalInterface
+    private interface PayloadWriter {
+        void writeTo(OutputStream target) throws IOException;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            count += length;
+        }
+    }
+
+    private static void skipFully(SocketChannel channel, int length) throws IOException {
+        ByteBuffer scratch = ByteBuffer.allocate(64 * 1024);
+        int remaining = length;
+        while (remaining > 0) {
+            scratch.clear().limit(Math.min(scratch.capacity(), remaining));
+            readFully(channel, scratch, false);
+            remaining -= scratch.position();
+        }
+    }
+
+    /**
+     * Fills the buffer from the channel.
+     *
+     * @return {@code false} when the peer closed the connection before the first byte and {@code eofAllowed} is set
+     */
+    private static boolean readFully(SocketChannel channel, ByteBuffer buffer, boolean eofAllowed) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (eofAllowed && buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("Connection closed mid-frame");
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,97 @@
+package nl.infomedics.reporting.cache;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Creates the bounded in-memory caches used across the converter. All caches use Caffeine's W-TinyLFU
+ * eviction, record statistics and publish hit, miss, eviction and weight metrics under their name.
+ */
+@Slf4j
+@Component
+public class BoundedCacheFactory {
+
+    private static final String PROPERTY_PREFIX = "caches.";
+
+    private final MeterRegistry registry;
+    private final Environment environment;
+    private final Map<String, Cache<?, ?>> caches = new ConcurrentHashMap<>();
+
+    public BoundedCacheFactory(ObjectProvider<MeterRegistry> registryProvider, Environment environment) {
+        this.registry = registryProvider.getIfAvailable(SimpleMeterRegistry::new);
+        this.environment = environment;
+    }
+
+    /**
+     * Creates a cache bounded by entry count or expiry.
+     *
+     * @param name     cache name, used for configuration overrides and metrics
+     * @param defaults default bounds
+     * @return new cache
+     */
+    public <K, V> Cache<K, V> create(String name, CacheSpec defaults) {
+        return create(name, defaults, null);
+    }
+
+    /**
+     * Creates a cache bounded by entry count, weight or expiry.
+     *
+     * @param name     cache name, used for configuration overrides and metrics
+     * @param defaults default bounds
+     * @param weigher  entry weigher; required when the effective spec is bounded by weight
+     * @return new cache
+     */
+    public <K, V> Cache<K, V> create(String name, CacheSpec defaults, Weigher<? super K, ? super V> weigher) {
+        long maximumSize = environment.getProperty(PROPERTY_PREFIX + name + ".maximum-size", Long.class,
+                defaults.maximumSize());
+        long maximumWeight = environment.getProperty(PROPERTY_PREFIX + name + ".maximum-weight", Long.class,
+                defaults.maximumWeight());
+        Duration expireAfterAccess = environment.getProperty(PROPERTY_PREFIX + name + ".expire-after-access",
+                Duration.class, defaults.expireAfterAccess());
+
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().recordStats();
+        if (maximumWeight > 0 && weigher != null) {
+            builder.maximumWeight(maximumWeight).weigher(weigher::weigh);
+        } else if (maximumSize > 0) {
+            builder.maximumSize(maximumSize);
+        } else {
+            throw new IllegalStateException("Cache " + name + " needs a maximum size or a weigher with a maximum weight");
+        }
+        if (expireAfterAccess != null && !expireAfterAccess.isZero() && !expireAfterAccess.isNegative()) {
+            builder.expireAfterAccess(expireAfterAccess);
+        }
+        Cache<K, V> cache = builder.build();
+        CaffeineCacheMetrics.monitor(registry, cache, name);
+        caches.put(name, cache);
+        log.debug("Created cache {} (maximumSize={}, maximumWeight={}, expireAfterAccess={}).",
+                name, maximumWeight > 0 && weigher != null ? "-" : maximumSize,
+                maximumWeight > 0 && weigher != null ? maximumWeight : "-", expireAfterAccess);
+        return cache;
+    }
+
+    /**
+     * @return current statistics of every cache created by this factory, by name
+     */
+    public Map<String, CacheStats> stats() {
+        Map<String, CacheStats> stats = new TreeMap<>();
+        caches.forEach((name, cache) -> stats.put(name, cache.stats()));
+        return Collections.unmodifiableMap(stats);
+    }
+}
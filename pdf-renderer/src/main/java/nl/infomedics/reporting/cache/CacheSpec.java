@@ -0,0 +1,39 @@
+package nl.infomedics.reporting.cache;
+
+import java.time.Duration;
+
+/**
+ * Default bounds of a named cache. Every bound can be overridden per cache through the
+ * {@code caches.<name>.maximum-size}, {@code caches.<name>.maximum-weight} and
+ * {@code caches.<name>.expire-after-access} properties.
+ *
+ * @param maximumSize       maximum number of entries, or {@code 0} when the cache is bounded by weight
+ * @param maximumWeight     maximum total weight (usually bytes), or {@code 0} when bounded by size
+ * @param expireAfterAccess idle time after which an entry is dropped, or {@code null} for no expiry
+ */
+public record CacheSpec(long maximumSize, long maximumWeight, Duration expireAfterAccess) {
+
+    /**
+     * @param maximumSize maximum number of entries
+     * @return spec bounded by entry count
+     */
+    public static CacheSpec ofSize(long maximumSize) {
+        return new CacheSpec(maximumSize, 0L, null);
+    }
+
+    /**
+     * @param maximumWeight maximum total weight of all entries
+     * @return spec bounded by weight; the cache must be created with a weigher
+     */
+    public static CacheSpec ofWeight(long maximumWeight) {
+        return new CacheSpec(0L, maximumWeight, null);
+    }
+
+    /**
+     * @param expiry idle time after which an entry is dropped
+     * @return copy of this spec with the given expiry
+     */
+    public CacheSpec expireAfterAccess(Duration expiry) {
+        return new CacheSpec(maximumSize, maximumWeight, expiry);
+    }
+}
@@ -0,0 +1,58 @@
+package nl.infomedics.reporting.io;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Recycles the fixed-size byte segments that rendered PDFs are written into. Segments are small enough to stay
+ * out of G1's humongous regions, and reusing them avoids allocating a fresh multi-megabyte array per document.
+ * The pool is bounded; segments released while it is full are left to the garbage collector.
+ */
+@Slf4j
+@Component
+public class SegmentPool {
+
+    /**
+     * Size of one segment in bytes.
+     */
+    public static final int SEGMENT_SIZE = 64 * 1024;
+
+    private final BlockingQueue<byte[]> free;
+
+    /**
+     * @param maxPooledSegments maximum number of idle segments kept for reuse
+     */
+    public SegmentPool(@Value("${converter.output-buffer.max-pooled-segments:512}") int maxPooledSegments) {
+        this.free = new ArrayBlockingQueue<>(Math.max(1, maxPooledSegments));
+        log.debug("PDF output segment pool holds up to {} segments of {} KB.", Math.max(1, maxPooledSegments),
+                SEGMENT_SIZE / 1024);
+    }
+
+    /**
+     * @return new, empty buffer backed by this pool
+     */
+    public SegmentedBuffer newBuffer() {
+        return new SegmentedBuffer(this);
+    }
+
+    /**
+     * @return number of idle segments held by the pool
+     */
+    public int idleSegments() {
+        return free.size();
+    }
+
+    byte[] acquire() {
+        byte[] segment = free.poll();
+        return segment != null ? segment : new byte[SEGMENT_SIZE];
+    }
+
+    void release(byte[] segment) {
+        free.offer(segment);
+    }
+}
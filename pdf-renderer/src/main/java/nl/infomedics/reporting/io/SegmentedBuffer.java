@@ -0,0 +1,140 @@
+package nl.infomedics.reporting.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Growable byte buffer made of pooled {@link SegmentPool#SEGMENT_SIZE} segments. Growing never copies written
+ * data, and the content can be drained to a stream without first joining it into one array.
+ * Closing the buffer hands its segments back to the pool; the buffer must not be used afterwards.
+ * Instances are not thread-safe.
+ */
+public final class SegmentedBuffer implements AutoCloseable {
+
+    private final SegmentPool pool;
+    private final List<byte[]> segments = new ArrayList<>();
+    private final OutputStream outputStream = new SegmentOutputStream();
+    private byte[] current;
+    private int position;
+    private long size;
+    private boolean released;
+
+    SegmentedBuffer(SegmentPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns a stream appending to this buffer. Closing the stream does not release the buffer, so it can be
+     * handed to writers such as PDFBox that close their target when done.
+     *
+     * @return stream appending to this buffer
+     */
+    public OutputStream outputStream() {
+        return outputStream;
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Writes the content to a stream, segment by segment. Wrap the target with
+     * {@link java.util.Base64.Encoder#wrap(OutputStream)} to drain it as Base64.
+     *
+     * @param target stream to write to; it is not closed
+     * @throws IOException when the target cannot be written
+     */
+    public void writeTo(OutputStream target) throws IOException {
+        ensureNotReleased();
+        long remaining = size;
+        for (byte[] segment : segments) {
+            int length = (int) Math.min(segment.length, remaining);
+            target.write(segment, 0, length);
+            remaining -= length;
+        }
+    }
+
+    /**
+     * Copies the content into one exactly sized array, for consumers that still need a {@code byte[]}.
+     *
+     * @return copy of the content
+     */
+    public byte[] toByteArray() {
+        ensureNotReleased();
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Buffer of " + size + " bytes does not fit in an array");
+        }
+        byte[] copy = new byte[(int) size];
+        int offset = 0;
+        for (byte[] segment : segments) {
+            int length = Math.min(segment.length, copy.length - offset);
+            System.arraycopy(segment, 0, copy, offset, length);
+            offset += length;
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the segments to the pool. Calling it more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (released) {
+            return;
+        }
+        released = true;
+        for (byte[] segment : segments) {
+            pool.release(segment);
+        }
+        segments.clear();
+        current = null;
+    }
+
+    private void ensureNotReleased() {
+        if (released) {
+            throw new IllegalStateException("Buffer has been released");
+        }
+    }
+
+    private void nextSegment() {
+        current = pool.acquire();
+        segments.add(current);
+        position = 0;
+    }
+
+    private final class SegmentOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+            ensureNotReleased();
+            if (current == null || position == current.length) {
+                nextSegment();
+            }
+            current[position++] = (byte) b;
+            size++;
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) {
+            Objects.checkFromIndexSize(offset, length, data.length);
+            ensureNotReleased();
+            while (length > 0) {
+                if (current == null || position == current.length) {
+                    nextSegment();
+                }
+                int chunk = Math.min(length, current.length - position);
+                System.arraycopy(data, offset, current, position, chunk);
+                position += chunk;
+                offset += chunk;
+                length -= chunk;
+                size += chunk;
+            }
+        }
+    }
+}
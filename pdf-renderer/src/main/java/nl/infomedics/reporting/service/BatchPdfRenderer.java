@@ -0,0 +1,180 @@
+package nl.infomedics.reporting.service;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.infomedics.invoicing.model.BatchConversionItem;
+import nl.infomedics.invoicing.model.BatchConversionRequest;
+import nl.infomedics.invoicing.model.BatchConversionResponse;
+import nl.infomedics.invoicing.model.BatchSharedModel;
+import nl.infomedics.invoicing.model.DebiteurWithPractitioner;
+import nl.infomedics.reporting.metrics.DiagnosticsRecorder;
+import nl.infomedics.reporting.service.Html2PdfConverterService.PdfConversionResult;
+
+/**
+ * Converts a batch of debtors that share one template: the template is analysed once, each item's model is
+ * resolved into it and the documents are rendered in parallel on the conversion executor. This is the whole
+ * conversion pipeline behind the pdf-creator batch endpoint, usable in-process without the web layer.
+ */
+@Slf4j
+@Component
+public class BatchPdfRenderer {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .registerModule(new com.fasterxml.jackson.datatype.jsr310.JavaTimeModule())
+            .disable(com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private final Html2PdfConverterService converterService;
+    private final PlaceholderResolver placeholderResolver;
+    private final ExecutorService pdfConversionExecutor;
+    private final DiagnosticsRecorder diagnostics;
+
+    public BatchPdfRenderer(Html2PdfConverterService converterService,
+                            PlaceholderResolver placeholderResolver,
+                            @Qualifier("pdfConversionExecutor") ExecutorService pdfConversionExecutor,
+                            DiagnosticsRecorder diagnostics) {
+        this.converterService = converterService;
+        this.placeholderResolver = placeholderResolver;
+        this.pdfConversionExecutor = pdfConversionExecutor;
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Renders every item of the batch. Items that fail are reported with their error; they do not fail the batch.
+     *
+     * @param request shared template and per-item models
+     * @return one result per item, in request order
+     */
+    public BatchConversionResponse convertBatch(BatchConversionRequest request) {
+        try (RenderedBatch batch = renderBatch(request)) {
+            return batch.toResponse();
+        }
+    }
+
+    /**
+     * Like {@link #convertBatch(BatchConversionRequest)}, but leaves the PDFs in their pooled segments for the
+     * caller to drain; the caller must close the returned batch.
+     *
+     * @param request shared template and per-item models
+     * @return one result per item, in request order
+     */
+    public RenderedBatch renderBatch(BatchConversionRequest request) {
+        int maxInFlight = determineMaxInFlight(pdfConversionExecutor);
+        java.util.concurrent.Semaphore limiter = new java.util.concurrent.Semaphore(maxInFlight);
+        TemplateFeatures features = converterService.analyseTemplate(request.html());
+
+        List<CompletableFuture<RenderedBatch.Item>> futures;
+        try (var timer = diagnostics.start("creator.batch.total", java.util.Map.of(
+                "items", Integer.toString(request.items().size())
+        ))) {
+            futures = request.items().stream()
+                    .map(item -> CompletableFuture.supplyAsync(() -> {
+                                try {
+                                    limiter.acquire();
+                                    return convertSingleItem(request.html(), features, request.includeSanitisedXhtml(),
+                                            request.sharedModel(), item);
+                                } catch (InterruptedException ie) {
+                                    Thread.currentThread().interrupt();
+                                    return new RenderedBatch.Item(item.outputId(), null, "Interrupted");
+                                } finally {
+                                    limiter.release();
+                                }
+                            }, pdfConversionExecutor))
+                    .collect(Collectors.toList());
+        }
+
+        List<RenderedBatch.Item> results = futures.stream()
+                .map(CompletableFuture::join)
+                .collect(Collectors.toList());
+
+        return new RenderedBatch(results, Instant.now());
+    }
+
+    private DebiteurWithPractitioner parseDebiteur(Object jsonModel) throws Exception {
+        if (jsonModel == null) return new DebiteurWithPractitioner();
+        if (jsonModel instanceof DebiteurWithPractitioner direct) {
+            return direct;
+        }
+        if (jsonModel instanceof nl.infomedics.invoicing.model.SingleDebtorInvoice sdi
+                && sdi.getDebiteur() != null) {
+            return sdi.getDebiteur();
+        }
+        if (jsonModel instanceof java.util.Map<?, ?> map) {
+            // Untyped JSON binds to a map; convert it once instead of through a tree
+            Object root = map.get("debiteur") instanceof java.util.Map<?, ?> inner ? inner : map;
+            return OBJECT_MAPPER.convertValue(root, DebiteurWithPractitioner.class);
+        }
+
+        JsonNode root;
+        if (jsonModel instanceof String s) {
+            if (s.isBlank()) return new DebiteurWithPractitioner();
+            root = OBJECT_MAPPER.readTree(s);
+        } else {
+            root = OBJECT_MAPPER.valueToTree(jsonModel);
+        }
+
+        if (root.isObject() && root.has("debiteur") && root.get("debiteur").isObject()) {
+            root = root.get("debiteur");
+        }
+        return OBJECT_MAPPER.treeToValue(root, DebiteurWithPractitioner.class);
+    }
+
+    /**
+     * Completes an item model that left out what the batch shares. Builds a new model rather than filling in the
+     * item's, which in embedded mode belongs to the caller.
+     */
+    private static DebiteurWithPractitioner withSharedModel(DebiteurWithPractitioner dwp, BatchSharedModel sharedModel) {
+        if (sharedModel == null || sharedModel.practitioner() == null || dwp.getPractitioner() != null) {
+            return dwp;
+        }
+        return new DebiteurWithPractitioner(dwp.getDebiteur(), sharedModel.practitioner(), dwp.getTreatments());
+    }
+
+    private RenderedBatch.Item convertSingleItem(String sharedHtml, TemplateFeatures features,
+                                                        boolean includeSanitised, BatchSharedModel sharedModel,
+                                                        BatchConversionItem item) {
+        String outputId = item.outputId() != null ? item.outputId() : "unknown";
+        try (var itemTimer = diagnostics.start("creator.batch.item", java.util.Map.of(
+                "outputId", outputId
+        ))) {
+            DebiteurWithPractitioner dwp = null;
+            try {
+                dwp = withSharedModel(parseDebiteur(item.jsonModel()), sharedModel);
+            } catch (Exception parseEx) {
+                log.warn("Failed to parse debiteur model for {}: {}", item.outputId(), parseEx.getMessage());
+            }
+            final DebiteurWithPractitioner model = dwp;
+            java.util.function.UnaryOperator<String> resolver =
+                    text -> model != null ? placeholderResolver.resolve(text, model) : text;
+            PdfConversionResult result;
+            try (var renderTimer = diagnostics.start("creator.render", java.util.Map.of(
+                    "includeSanitised", Boolean.toString(includeSanitised)
+            ))) {
+                result = converterService.convertTemplate(sharedHtml, features, resolver, includeSanitised);
+            }
+            // The batch hands the segments back once its PDFs have been written out
+            return new RenderedBatch.Item(item.outputId(), result.pdf(), null);
+        } catch (Exception e) {
+            log.error("Batch item {} failed: {}", item.outputId(), e.getMessage());
+            return new RenderedBatch.Item(item.outputId(), null, e.getMessage());
+        }
+    }
+
+    private int determineMaxInFlight(ExecutorService executor) {
+        if (executor instanceof java.util.concurrent.ThreadPoolExecutor tpe) {
+            int max = tpe.getMaximumPoolSize();
+            return Math.max(1, max * 2); // allow small queueing but prevent floods
+        }
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -0,0 +1,146 @@
+package nl.infomedics.reporting.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.springframework.core.io.Resource;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Font file listed in the build-time {@link FontManifest}, read on first use rather than at startup. A font on the
+ * file system (exploded classes, IDE runs) is memory-mapped; a font inside a jar cannot be mapped and is read into
+ * memory once.
+ */
+@Slf4j
+final class EmbeddedFont {
+
+    private final FontManifest.Entry entry;
+    private final Resource resource;
+    private final Object loadLock = new Object();
+    private volatile ByteBuffer data;
+    private volatile byte[] bytes;
+
+    EmbeddedFont(FontManifest.Entry entry, Resource resource) {
+        this.entry = entry;
+        this.resource = resource;
+    }
+
+    FontManifest.Entry entry() {
+        return entry;
+    }
+
+    /**
+     * Opens a stream over the font data, for {@code PdfRendererBuilder.useFont}.
+     *
+     * @return new stream positioned at the start of the font
+     * @throws UncheckedIOException when the font cannot be read
+     */
+    InputStream openStream() {
+        return new BufferInputStream(buffer().duplicate());
+    }
+
+    /**
+     * Returns the font data as an array. The same array is returned on every call, so it can serve as an
+     * identity key for fonts loaded per document.
+     *
+     * @return font bytes
+     * @throws UncheckedIOException when the font cannot be read
+     */
+    byte[] bytes() {
+        byte[] result = bytes;
+        if (result == null) {
+            synchronized (loadLock) {
+                result = bytes;
+                if (result == null) {
+                    ByteBuffer buffer = buffer().duplicate();
+                    result = new byte[buffer.remaining()];
+                    buffer.get(result);
+                    bytes = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private ByteBuffer buffer() {
+        ByteBuffer result = data;
+        if (result == null) {
+            synchronized (loadLock) {
+                result = data;
+                if (result == null) {
+                    result = load();
+                    if (result.remaining() != entry.length()) {
+                        log.warn("Font {} is {} bytes, the font manifest lists {}; rebuild to refresh the manifest.",
+                                entry.path(), result.remaining(), entry.length());
+                    }
+                    data = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private ByteBuffer load() {
+        try {
+            if (resource.isFile()) {
+                try (FileChannel channel = FileChannel.open(resource.getFile().toPath(), StandardOpenOption.READ)) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+            try (InputStream input = resource.getInputStream()) {
+                byte[] read = input.readAllBytes();
+                bytes = read;
+                return ByteBuffer.wrap(read).asReadOnlyBuffer();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to read font " + entry.path(), ex);
+        }
+    }
+
+    /**
+     * Stream over a private view of the font buffer; the view's position is the stream position.
+     */
+    private static final class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package nl.infomedics.reporting.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
+
+/**
+ * Index of the fonts shipped in {@code fonts/}, written at build time so {@link FontRegistry} can register every
+ * alias at startup without scanning the classpath, reading font files or loading AWT font machinery. The
+ * manifest is generated by {@link #main(String[])} in the {@code process-classes} phase and stored next to the
+ * fonts as {@code fonts/font-manifest.properties}.
+ */
+public final class FontManifest {
+
+    /** Classpath location of the generated manifest. */
+    static final String RESOURCE = FontRegistry.FONT_RESOURCE_DIRECTORY + "/font-manifest.properties";
+
+    private static final int TTC_TAG = 0x74746366; // 'ttcf'
+    private static final int OS2_TAG = 0x4F532F32; // 'OS/2'
+    private static final int HEAD_TAG = 0x68656164; // 'head'
+
+    /**
+     * @param fileName file name, used for the fallback aliases ({@code Arial} etc.)
+     * @param path     classpath location of the font file
+     * @param offset   byte offset of the described face's table directory; {@code 0} except in collections
+     * @param length   size of the font file in bytes
+     * @param weight   CSS weight from the face's {@code OS/2} table
+     * @param style    style from the face's {@code OS/2} selection flags
+     * @param aliases  names the font can be referenced by in CSS, as derived by {@link FontRegistry}
+     */
+    record Entry(String fileName, String path, long offset, long length, int weight,
+                 PdfRendererBuilder.FontStyle style, List<String> aliases) { }
+
+    private FontManifest() {
+    }
+
+    /**
+     * Reads a manifest written by {@link #write(List, Writer)}.
+     *
+     * @param input manifest contents
+     * @return entries in manifest order
+     * @throws IOException when the manifest cannot be read or is incomplete
+     */
+    static List<Entry> read(InputStream input) throws IOException {
+        Properties properties = new Properties();
+        properties.load(new java.io.InputStreamReader(input, StandardCharsets.UTF_8));
+        int count = Integer.parseInt(required(properties, "font.count"));
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String prefix = "font." + i + ".";
+            try {
+                entries.add(new Entry(
+                        required(properties, prefix + "file"),
+                        required(properties, prefix + "path"),
+                        Long.parseLong(required(properties, prefix + "offset")),
+                        Long.parseLong(required(properties, prefix + "length")),
+                        Integer.parseInt(required(properties, prefix + "weight")),
+                        PdfRendererBuilder.FontStyle.valueOf(required(properties, prefix + "style")),
+                        List.of(required(properties, prefix + "aliases").split("\\|"))));
+            } catch (IllegalArgumentException ex) {
+                throw new IOException("Invalid font manifest entry " + i + ": " + ex.getMessage(), ex);
+            }
+        }
+        return List.copyOf(entries);
+    }
+
+    /**
+     * Writes the manifest in a stable order without a timestamp, so unchanged fonts give an identical file.
+     *
+     * @param entries entries to write
+     * @param out     target writer
+     * @throws IOException when writing fails
+     */
+    static void write(List<Entry> entries, Writer out) throws IOException {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put("font.count", Integer.toString(entries.size()));
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            String prefix = "font." + i + ".";
+            values.put(prefix + "file", entry.fileName());
+            values.put(prefix + "path", entry.path());
+            values.put(prefix + "offset", Long.toString(entry.offset()));
+            values.put(prefix + "length", Long.toString(entry.length()));
+            values.put(prefix + "weight", Integer.toString(entry.weight()));
+            values.put(prefix + "style", entry.style().name());
+            values.put(prefix + "aliases", String.join("|", entry.aliases()));
+        }
+        out.write("# Generated by " + FontManifest.class.getName() + " during the build; do not edit.\n");
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            // Properties.store escapes keys and values; its header and ordering are not stable, so store one pair at a time
+            Properties single = new Properties();
+            single.setProperty(value.getKey(), value.getValue());
+            StringWriter line = new StringWriter();
+            single.store(line, null);
+            for (String l : line.toString().split("\\R")) {
+                if (!l.isEmpty() && !l.startsWith("#")) {
+                    out.write(l);
+                    out.write('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Describes every font file below {@code fonts/} in a class output directory. Files are taken in the same
+     * order the classpath scan of {@link FontRegistry} uses: by extension, then by path, first file name wins.
+     *
+     * @param outputDirectory class output directory, e.g. {@code target/classes}
+     * @return manifest entries
+     * @throws IOException when a font cannot be read
+     */
+    static List<Entry> describe(Path outputDirectory) throws IOException {
+        Path fontDirectory = outputDirectory.resolve(FontRegistry.FONT_RESOURCE_DIRECTORY);
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.isDirectory(fontDirectory)) {
+            return entries;
+        }
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(fontDirectory)) {
+            files = walk.filter(Files::isRegularFile).filter(p -> extensionRank(p) >= 0)
+                    .sorted(Comparator.comparingInt(FontManifest::extensionRank)
+                            .thenComparing(p -> outputDirectory.relativize(p).toString().replace('\\', '/')))
+                    .toList();
+        }
+        java.util.Set<String> seen = new java.util.HashSet<>();
+        for (Path file : files) {
+            String fileName = file.getFileName().toString();
+            if (!seen.add(fileName)) {
+                continue;
+            }
+            byte[] data = Files.readAllBytes(file);
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            long offset = data.length >= 16 && buffer.getInt(0) == TTC_TAG ? Integer.toUnsignedLong(buffer.getInt(12)) : 0;
+            int[] weightAndItalic = readWeightAndItalic(buffer, (int) offset);
+            entries.add(new Entry(fileName, outputDirectory.relativize(file).toString().replace('\\', '/'), offset,
+                    data.length, weightAndItalic[0],
+                    weightAndItalic[1] != 0 ? PdfRendererBuilder.FontStyle.ITALIC : PdfRendererBuilder.FontStyle.NORMAL,
+                    List.copyOf(FontRegistry.deriveFontAliases(fileName, data))));
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the weight class and italic flag of the face whose table directory starts at {@code offset}, from
+     * its {@code OS/2} table or, lacking one, from the {@code head} table's style bits.
+     *
+     * @return weight and {@code 1} for italic, {@code 0} otherwise; {@code 400} and upright when unreadable
+     */
+    private static int[] readWeightAndItalic(ByteBuffer font, int offset) {
+        try {
+            int tables = Short.toUnsignedInt(font.getShort(offset + 4));
+            int headOffset = -1;
+            for (int i = 0; i < tables; i++) {
+                int record = offset + 12 + i * 16;
+                int tag = font.getInt(record);
+                int tableOffset = font.getInt(record + 8);
+                if (tag == OS2_TAG) {
+                    int weight = Short.toUnsignedInt(font.getShort(tableOffset + 4));
+                    int selection = Short.toUnsignedInt(font.getShort(tableOffset + 62));
+                    boolean italic = (selection & 0x0001) != 0 || (selection & 0x0200) != 0;
+                    return new int[] {weight >= 1 && weight <= 1000 ? weight : 400, italic ? 1 : 0};
+                }
+                if (tag == HEAD_TAG) {
+                    headOffset = tableOffset;
+                }
+            }
+            if (headOffset >= 0) {
+                int macStyle = Short.toUnsignedInt(font.getShort(headOffset + 44));
+                return new int[] {(macStyle & 0x1) != 0 ? 700 : 400, (macStyle & 0x2) != 0 ? 1 : 0};
+            }
+        } catch (IndexOutOfBoundsException ignored) {
+            // Truncated font; describe it with the defaults the renderer would use
+        }
+        return new int[] {400, 0};
+    }
+
+    private static int extensionRank(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? -1 : Arrays.asList(FontRegistry.FONT_EXTENSIONS).indexOf(name.substring(dot + 1));
+    }
+
+    private static String required(Properties properties, String key) throws IOException {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) {
+            throw new IOException("Font manifest is missing " + key);
+        }
+        return value;
+    }
+
+    /**
+     * Generates {@code fonts/font-manifest.properties} in the given class output directory. Invoked by the
+     * build in the {@code process-classes} phase.
+     *
+     * @param args class output directory
+     * @throws IOException when the fonts cannot be read or the manifest cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: FontManifest <class output directory>");
+        }
+        Path outputDirectory = Path.of(args[0]);
+        List<Entry> entries = describe(outputDirectory);
+        Path manifest = outputDirectory.resolve(RESOURCE);
+        Files.createDirectories(manifest.getParent());
+        try (Writer out = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8)) {
+            write(entries, out);
+        }
+        System.out.println("Wrote font manifest with " + entries.size() + " fonts to " + manifest);
+    }
+}
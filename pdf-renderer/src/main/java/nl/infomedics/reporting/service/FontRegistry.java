@@ -25,20 +25,23 @@ import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 
 /**
- * Loads and caches font resources shipped with the application, exposing them to the PDF renderer.
+ * Loads and caches font resources shipped with the application, exposing them to the PDF renderer. When the
+ * build-time {@link FontManifest} is on the classpath, startup reads only the manifest and font files are read on
+ * first use; otherwise the fonts are found by scanning the classpath and described with AWT.
  */
 @Slf4j
 @Component
 public class FontRegistry {
 
-    private static final String FONT_RESOURCE_DIRECTORY = "fonts";
-    private static final String[] FONT_EXTENSIONS = {"ttf", "otf", "ttc", "otc"};
+    static final String FONT_RESOURCE_DIRECTORY = "fonts";
+    static final String[] FONT_EXTENSIONS = {"ttf", "otf", "ttc", "otc"};
 
     private final ResourcePatternResolver resourceResolver;
     private final Object fontLoadLock = new Object();
     private volatile Map<String, byte[]> cachedFontData;
     private final Map<String, Set<String>> aliasCache = new ConcurrentHashMap<>();
-    private java.util.List<java.util.function.Consumer<PdfRendererBuilder>> cachedRegistrations;
+    private java.util.List<FontRegistration> cachedRegistrations;
+    private volatile java.util.List<EmbeddedFont> manifestFonts;
 
     /**
      * Creates a registry backed by a classpath-aware resource resolver.
@@ -61,6 +64,13 @@ public class FontRegistry {
      */
     @PostConstruct
     public void preloadEmbeddedFonts() {
+        java.util.List<EmbeddedFont> indexed = loadManifest();
+        if (indexed != null) {
+            this.manifestFonts = indexed;
+            this.cachedRegistrations = buildManifestRegistrations(indexed);
+            log.debug("Registered {} embedded fonts from the font manifest.", indexed.size());
+            return;
+        }
         Map<String, byte[]> fonts = loadEmbeddedFontData();
         fonts.forEach((name, data) ->
                 aliasCache.computeIfAbsent(buildAliasCacheKey(name, data),
@@ -70,8 +80,63 @@ public class FontRegistry {
         log.debug("Preloaded {} embedded fonts for OpenHTMLtoPDF.", fonts.size());
     }
 
-    private java.util.List<java.util.function.Consumer<PdfRendererBuilder>> buildRegistrations(Map<String, byte[]> fonts) {
-        java.util.List<java.util.function.Consumer<PdfRendererBuilder>> list = new java.util.ArrayList<>();
+    /**
+     * Reads the build-time font manifest.
+     *
+     * @return fonts listed in the manifest, or {@code null} when there is no readable manifest
+     */
+    private java.util.List<EmbeddedFont> loadManifest() {
+        Resource manifest = resourceResolver.getResource("classpath:" + FontManifest.RESOURCE);
+        if (!manifest.exists()) {
+            log.debug("No font manifest at {}; scanning the classpath for fonts.", FontManifest.RESOURCE);
+            return null;
+        }
+        try (InputStream input = manifest.getInputStream()) {
+            java.util.List<EmbeddedFont> fonts = new java.util.ArrayList<>();
+            for (FontManifest.Entry entry : FontManifest.read(input)) {
+                fonts.add(new EmbeddedFont(entry, resourceResolver.getResource("classpath:" + entry.path())));
+            }
+            return java.util.List.copyOf(fonts);
+        } catch (IOException e) {
+            log.warn("Unable to read font manifest {}: {}; scanning the classpath for fonts.",
+                    FontManifest.RESOURCE, e.getMessage());
+            return null;
+        }
+    }
+
+    private java.util.List<FontRegistration> buildManifestRegistrations(java.util.List<EmbeddedFont> fonts) {
+        java.util.List<FontRegistration> list = new java.util.ArrayList<>();
+        Map<String, EmbeddedFont> byFileName = new LinkedHashMap<>();
+        for (EmbeddedFont font : fonts) {
+            FontManifest.Entry entry = font.entry();
+            byFileName.putIfAbsent(entry.fileName(), font);
+            for (String alias : entry.aliases()) {
+                list.add(new FontRegistration(alias,
+                        b -> b.useFont(font::openStream, alias, entry.weight(), entry.style(), true)));
+            }
+        }
+
+        // Fallback aliases
+        DEFAULT_FONT_ALIASES.forEach((alias, backingFont) -> {
+            EmbeddedFont font = byFileName.get(backingFont);
+            if (font == null) {
+                log.warn("Fallback font mapping for {} references missing font {}", alias, backingFont);
+                return;
+            }
+            for (String name : buildAliasVariants(alias)) {
+                list.add(new FontRegistration(name, b -> {
+                    b.useFont(font::openStream, name, 400, PdfRendererBuilder.FontStyle.NORMAL, true);
+                    b.useFont(font::openStream, name, 700, PdfRendererBuilder.FontStyle.NORMAL, true);
+                    b.useFont(font::openStream, name, 400, PdfRendererBuilder.FontStyle.ITALIC, true);
+                    b.useFont(font::openStream, name, 700, PdfRendererBuilder.FontStyle.ITALIC, true);
+                }));
+            }
+        });
+        return java.util.Collections.unmodifiableList(list);
+    }
+
+    private java.util.List<FontRegistration> buildRegistrations(Map<String, byte[]> fonts) {
+        java.util.List<FontRegistration> list = new java.util.ArrayList<>();
         
         if (fonts != null && !fonts.isEmpty()) {
             for (Map.Entry<String, byte[]> entry : fonts.entrySet()) {
@@ -85,7 +150,8 @@ public class FontRegistry {
                 
                 if (aliases != null) {
                     for (String alias : aliases) {
-                        list.add(b -> b.useFont(() -> new ByteArrayInputStream(fontBytesCopy), alias));
+                        list.add(new FontRegistration(alias,
+                                b -> b.useFont(() -> new ByteArrayInputStream(fontBytesCopy), alias)));
                     }
                 }
             }
@@ -96,12 +162,12 @@ public class FontRegistry {
                 if (fontData != null && fontData.length > 0) {
                     Set<String> variants = buildAliasVariants(alias);
                     for (String name : variants) {
-                        list.add(b -> {
+                        list.add(new FontRegistration(name, b -> {
                             b.useFont(() -> new ByteArrayInputStream(fontData), name, 400, PdfRendererBuilder.FontStyle.NORMAL, true);
                             b.useFont(() -> new ByteArrayInputStream(fontData), name, 700, PdfRendererBuilder.FontStyle.NORMAL, true);
                             b.useFont(() -> new ByteArrayInputStream(fontData), name, 400, PdfRendererBuilder.FontStyle.ITALIC, true);
                             b.useFont(() -> new ByteArrayInputStream(fontData), name, 700, PdfRendererBuilder.FontStyle.ITALIC, true);
-                        });
+                        }));
                     }
                 }
             });
@@ -115,9 +181,21 @@ public class FontRegistry {
      * @param builder PDF renderer builder used during conversion
      */
     public void registerEmbeddedFonts(PdfRendererBuilder builder) {
+        registerEmbeddedFonts(builder, TemplateFeatures.ALL);
+    }
+
+    /**
+     * Registers only the embedded font aliases referenced by the supplied template features.
+     *
+     * @param builder  PDF renderer builder used during conversion
+     * @param features template feature profile; {@link TemplateFeatures#ALL} registers every alias
+     */
+    public void registerEmbeddedFonts(PdfRendererBuilder builder, TemplateFeatures features) {
         if (cachedRegistrations != null) {
-            for (java.util.function.Consumer<PdfRendererBuilder> consumer : cachedRegistrations) {
-                consumer.accept(builder);
+            for (FontRegistration registration : cachedRegistrations) {
+                if (features == null || features.usesFont(registration.alias())) {
+                    registration.action().accept(builder);
+                }
             }
         } else {
             Map<String, byte[]> fonts = loadEmbeddedFontData();
@@ -126,6 +204,50 @@ public class FontRegistry {
         }
     }
 
+    /**
+     * Looks up the raw data of an embedded font by one of its aliases, such as the PostScript name a
+     * renderer writes into the PDF.
+     *
+     * @param name font name or alias, compared case-insensitively
+     * @return font bytes, or {@code null} when no embedded font carries the name
+     */
+    public byte[] findFontData(String name) {
+        if (name == null || name.isBlank()) {
+            return null;
+        }
+        String wanted = name.trim();
+        java.util.List<EmbeddedFont> indexed = manifestFonts;
+        if (indexed != null) {
+            for (EmbeddedFont font : indexed) {
+                for (String alias : font.entry().aliases()) {
+                    if (alias.equalsIgnoreCase(wanted)) {
+                        try {
+                            return font.bytes();
+                        } catch (java.io.UncheckedIOException e) {
+                            log.warn("Unable to read embedded font {}: {}", font.entry().path(), e.getMessage());
+                            return null;
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+        for (Map.Entry<String, byte[]> entry : loadEmbeddedFontData().entrySet()) {
+            byte[] fontBytes = entry.getValue();
+            if (fontBytes == null || fontBytes.length == 0) {
+                continue;
+            }
+            Set<String> aliases = aliasCache.computeIfAbsent(buildAliasCacheKey(entry.getKey(), fontBytes),
+                    _ -> deriveFontAliases(entry.getKey(), fontBytes));
+            for (String alias : aliases) {
+                if (alias.equalsIgnoreCase(wanted)) {
+                    return fontBytes;
+                }
+            }
+        }
+        return null;
+    }
+
     /**
      * Registers the provided raw font map with the renderer builder.
      *
@@ -165,7 +287,14 @@ public class FontRegistry {
             synchronized (fontLoadLock) {
                 fonts = cachedFontData;
                 if (fonts == null) {
-                    fonts = Collections.unmodifiableMap(readFontsFromResources(FONT_RESOURCE_DIRECTORY));
+                    java.util.List<EmbeddedFont> indexed = manifestFonts;
+                    if (indexed != null) {
+                        Map<String, byte[]> read = new LinkedHashMap<>();
+                        indexed.forEach(font -> read.putIfAbsent(font.entry().fileName(), font.bytes()));
+                        fonts = Collections.unmodifiableMap(read);
+                    } else {
+                        fonts = Collections.unmodifiableMap(readFontsFromResources(FONT_RESOURCE_DIRECTORY));
+                    }
                     cachedFontData = fonts;
                 }
             }
@@ -211,7 +340,7 @@ public class FontRegistry {
      * @param fontBytes font data
      * @return immutable set of aliases
      */
-    private Set<String> deriveFontAliases(String fileName, byte[] fontBytes) {
+    static Set<String> deriveFontAliases(String fileName, byte[] fontBytes) {
         Set<String> aliases = new LinkedHashSet<>();
         addAliasVariant(aliases, stripExtension(fileName));
         addAliasVariant(aliases, fileName);
@@ -234,7 +363,7 @@ public class FontRegistry {
      * @param aliases collection to mutate
      * @param candidate base alias
      */
-    private void addAliasVariant(Set<String> aliases, String candidate) {
+    private static void addAliasVariant(Set<String> aliases, String candidate) {
         if (candidate == null) {
             return;
         }
@@ -263,7 +392,7 @@ public class FontRegistry {
      * @param aliases target alias set
      * @param candidate alias to consider
      */
-    private void addIfPresent(Set<String> aliases, String candidate) {
+    private static void addIfPresent(Set<String> aliases, String candidate) {
         if (candidate == null) {
             return;
         }
@@ -279,7 +408,7 @@ public class FontRegistry {
      * @param name font file name
      * @return base name without extension
      */
-    private String stripExtension(String name) {
+    private static String stripExtension(String name) {
         if (name == null) {
             return null;
         }
@@ -338,6 +467,11 @@ public class FontRegistry {
         }
     }
 
+    /**
+     * Deferred {@code useFont} call for a single alias, kept so registrations can be filtered per template.
+     */
+    private record FontRegistration(String alias, java.util.function.Consumer<PdfRendererBuilder> action) { }
+
     private Set<String> buildAliasVariants(String alias) {
         Set<String> variants = new LinkedHashSet<>();
         addAliasVariant(variants, alias);
@@ -0,0 +1,663 @@
+package nl.infomedics.reporting.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.openhtmltopdf.pdfboxout.PDFCreationListener;
+import com.openhtmltopdf.pdfboxout.PdfBoxRenderer;
+import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
+import com.openhtmltopdf.svgsupport.BatikSVGDrawer;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.infomedics.reporting.cache.BoundedCacheFactory;
+import nl.infomedics.reporting.cache.CacheSpec;
+import nl.infomedics.reporting.io.SegmentPool;
+import nl.infomedics.reporting.io.SegmentedBuffer;
+import nl.infomedics.reporting.metrics.DiagnosticsRecorder;
+
+/**
+ * Converts XHTML input into PDF output and tracks conversion statistics.
+ */
+@Slf4j
+@Service
+public class Html2PdfConverterService {
+    private static final ThreadLocal<Transformer> TRANSFORMER = ThreadLocal.withInitial(() -> {
+        try {
+            return TransformerFactory.newInstance().newTransformer();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private final QrBarcodeObjectFactory objectFactory = new QrBarcodeObjectFactory();
+    private final XhtmlDocumentParser documentParser = new XhtmlDocumentParser();
+    private final FontRegistry fontRegistry;
+    private static final long CONVERSION_IDLE_THRESHOLD_MS = 1_000L;
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final ZoneId SYSTEM_ZONE = ZoneId.systemDefault();
+    /** Elements a preview keeps per requested page on its first layout; multi-page invoices hold 40 to 100 a page. */
+    private static final int PREVIEW_ELEMENTS_PER_PAGE = 200;
+    /** Content that lays out differently once trailing elements are cut, so previews lay out the whole document. */
+    private static final Pattern PREVIEW_UNCUTTABLE = Pattern.compile(
+            "counter\\(\\s*pages\\s*\\)|position\\s*:\\s*(?:fixed|absolute)", Pattern.CASE_INSENSITIVE);
+    private final Semaphore conversionPermits;
+    private final AtomicInteger activeConversions = new AtomicInteger();
+    private final AtomicInteger peakConcurrentConversions = new AtomicInteger();
+    private final AtomicLong firstConversionStartMillis = new AtomicLong();
+    private final AtomicLong lastConversionFinishMillis = new AtomicLong();
+    private final AtomicReference<ScheduledFuture<?>> pendingBatchCompletionLog = new AtomicReference<>();
+    private final ScheduledExecutorService conversionTimingExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "conversion-timing");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final int maxConcurrentConversions;
+    private final byte[] srgbColorProfile;
+    private final DiagnosticsRecorder diagnostics;
+    private final boolean overlayEnabled;
+    private final OverlayRenderEngine overlayEngine;
+    private final SegmentPool segmentPool;
+    private final PdfMemoryPolicy memoryPolicy;
+    private final Cache<String, TemplateFeatures> templateFeatures;
+    private final Cache<String, OverlayRenderEngine.OverlayTemplate> overlayTemplates;
+
+    /**
+     * Creates the converter service with an injected font registry for renderer configuration.
+     *
+     * @param fontRegistry            registry responsible for exposing embedded fonts
+     * @param configuredMaxConcurrent configured concurrency limit
+     * @param overlayEnabled          whether eligible templates are rendered by stamping onto a pre-rendered background
+     * @param cacheFactory            factory for the bounded per-template caches
+     * @param segmentPool             pool of the segments rendered PDFs are written into
+     * @param memoryPolicy            storage policy for the PDFBox document of each rendered PDF
+     */
+    public Html2PdfConverterService(FontRegistry fontRegistry,
+                                    @Value("${converter.max-concurrent:16}") int configuredMaxConcurrent,
+                                    DiagnosticsRecorder diagnostics,
+                                    @Value("${converter.overlay.enabled:false}") boolean overlayEnabled,
+                                    BoundedCacheFactory cacheFactory,
+                                    SegmentPool segmentPool,
+                                    PdfMemoryPolicy memoryPolicy) {
+        this.fontRegistry = fontRegistry;
+        this.segmentPool = segmentPool;
+        this.memoryPolicy = memoryPolicy;
+        this.templateFeatures = cacheFactory.create("template-features", CacheSpec.ofWeight(64L * 1024 * 1024),
+                (String html, TemplateFeatures features) -> html.length() * 2 + features.staticLayer().weight());
+        this.overlayTemplates = cacheFactory.create("template-overlays", CacheSpec.ofWeight(128L * 1024 * 1024),
+                (String html, OverlayRenderEngine.OverlayTemplate overlay) -> html.length() * 2 + overlay.weight());
+        this.overlayEnabled = overlayEnabled;
+        this.overlayEngine = new OverlayRenderEngine(fontRegistry);
+        this.srgbColorProfile = loadSrgbColorProfile();
+        if (configuredMaxConcurrent < 1) {
+            int cores = Math.max(1, Runtime.getRuntime().availableProcessors());
+            log.warn("Configured converter.max-concurrent {} is invalid; defaulting to hardware cores ({}).",
+                    configuredMaxConcurrent, cores);
+            configuredMaxConcurrent = cores;
+        }
+        this.maxConcurrentConversions = Math.max(1, configuredMaxConcurrent);
+        this.conversionPermits = new Semaphore(this.maxConcurrentConversions);
+        this.diagnostics = diagnostics;
+        log.debug("Html2PdfConverterService concurrency limited to {} simultaneous conversions.",
+                this.maxConcurrentConversions);
+    }
+
+    /**
+     * Converts the supplied XHTML content into a PDF document.
+     *
+     * @param htmlContent XHTML content to convert
+     * @return {@link PdfConversionResult} containing the PDF bytes and optional sanitised XHTML snapshot
+     * @throws HtmlToPdfConversionException when conversion fails or the thread is interrupted
+     */
+    public PdfConversionResult convertHtmlToPdf(String htmlContent) throws HtmlToPdfConversionException {
+        return convertHtmlToPdf(htmlContent, false);
+    }
+
+    /**
+     * Converts the supplied XHTML content into a PDF document.
+     *
+     * @param htmlContent XHTML content to convert
+     * @param includeSanitisedXhtml whether to include the sanitised XHTML in the result
+     * @return {@link PdfConversionResult} containing the PDF bytes and optional sanitised XHTML snapshot
+     * @throws HtmlToPdfConversionException when conversion fails or the thread is interrupted
+     */
+    public PdfConversionResult convertHtmlToPdf(String htmlContent, boolean includeSanitisedXhtml)
+            throws HtmlToPdfConversionException {
+        return convertHtmlToPdf(htmlContent, includeSanitisedXhtml, TemplateFeatures.ALL);
+    }
+
+    /**
+     * Converts the supplied XHTML content into a PDF document using a renderer configured for the given
+     * template features only.
+     *
+     * @param htmlContent XHTML content to convert
+     * @param includeSanitisedXhtml whether to include the sanitised XHTML in the result
+     * @param features feature profile of the template the content was resolved from
+     * @return {@link PdfConversionResult} containing the PDF bytes and optional sanitised XHTML snapshot
+     * @throws HtmlToPdfConversionException when conversion fails or the thread is interrupted
+     */
+    public PdfConversionResult convertHtmlToPdf(String htmlContent, boolean includeSanitisedXhtml,
+                                                TemplateFeatures features) throws HtmlToPdfConversionException {
+        if (htmlContent == null) {
+            throw new HtmlToPdfConversionException("HTML content must not be null.");
+        }
+        
+        String cleanedHtml = stripBom(htmlContent);
+        TemplateFeatures effectiveFeatures = features != null ? features : TemplateFeatures.ALL;
+        
+        try (ConversionPermit _ = acquireConversionPermit();
+             var totalTimer = diagnostics.start("creator.convert.total", java.util.Map.of(
+                     "includeSanitised", Boolean.toString(includeSanitisedXhtml)
+             ))) {
+            long startMillis = System.currentTimeMillis();
+            noteConversionStarted();
+            
+            try {
+                Document document;
+                try (var parseTimer = diagnostics.start("creator.convert.parse", java.util.Map.of(
+                        "sanitise", Boolean.toString(includeSanitisedXhtml)
+                ))) {
+                    document = prepareDocument(cleanedHtml, effectiveFeatures);
+                }
+                
+                String sanitisedXhtml = null;
+                if (includeSanitisedXhtml) {
+                    try (var sanitiseTimer = diagnostics.start("creator.convert.sanitise", java.util.Map.of())) {
+                        sanitisedXhtml = serializeDocument(document);
+                    } catch (Exception e) {
+                        log.warn("Failed to produce sanitised XHTML snapshot: {}", e.getMessage());
+                    }
+                }
+                
+                boolean stampStaticLayer = effectiveFeatures.staticLayer().strip(document);
+
+                SegmentedBuffer pdf = segmentPool.newBuffer();
+                try (var renderTimer = diagnostics.start("creator.convert.render", java.util.Map.of())) {
+                    renderToPdf(document, cleanedHtml, effectiveFeatures, stampStaticLayer, pdf.outputStream());
+                } catch (Exception e) {
+                    pdf.close();
+                    throw e;
+                }
+
+                logConversionDuration(startMillis);
+
+                return new PdfConversionResult(pdf, sanitisedXhtml);
+                
+            } catch (Exception e) {
+                log.error("Error converting XHTML content", e);
+                throw new HtmlToPdfConversionException("Unable to convert XHTML content", e);
+            } finally {
+                trackBatchCompletion();
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new HtmlToPdfConversionException("Interrupted while waiting to acquire conversion permit", ie);
+        }
+    }
+
+    /**
+     * Converts a template for one debtor. When the overlay engine is enabled and the template is eligible, the
+     * resolved field values are stamped onto the template's pre-rendered background; otherwise, and whenever a
+     * value would not fit its field, the template is resolved as a whole and rendered by the HTML engine.
+     *
+     * @param templateHtml unresolved template markup shared by a batch
+     * @param features feature profile of the template, see {@link #analyseTemplate(String)}
+     * @param placeholderResolver resolves the placeholders in a piece of template text for the current debtor
+     * @param includeSanitisedXhtml whether to include the sanitised XHTML in the result
+     * @return {@link PdfConversionResult} containing the PDF bytes and optional sanitised XHTML snapshot
+     * @throws HtmlToPdfConversionException when conversion fails or the thread is interrupted
+     */
+    public PdfConversionResult convertTemplate(String templateHtml, TemplateFeatures features,
+                                               java.util.function.UnaryOperator<String> placeholderResolver,
+                                               boolean includeSanitisedXhtml) throws HtmlToPdfConversionException {
+        if (templateHtml == null) {
+            throw new HtmlToPdfConversionException("HTML content must not be null.");
+        }
+        if (overlayEnabled && !includeSanitisedXhtml) {
+            TemplateFeatures effectiveFeatures = features != null ? features : TemplateFeatures.ALL;
+            OverlayRenderEngine.OverlayTemplate overlay = overlayTemplates.get(templateHtml,
+                    html -> compileOverlay(html, effectiveFeatures));
+            if (overlay.eligible()) {
+                try (ConversionPermit _ = acquireConversionPermit();
+                     var overlayTimer = diagnostics.start("creator.convert.overlay", java.util.Map.of())) {
+                    long startMillis = System.currentTimeMillis();
+                    noteConversionStarted();
+                    SegmentedBuffer pdf = segmentPool.newBuffer();
+                    try {
+                        if (overlayEngine.render(overlay, placeholderResolver, pdf.outputStream())) {
+                            logConversionDuration(startMillis);
+                            return new PdfConversionResult(pdf, null);
+                        }
+                        pdf.close();
+                        log.debug("Field value does not fit the overlay layout; rendering with the HTML engine.");
+                    } catch (Exception e) {
+                        pdf.close();
+                        log.warn("Overlay rendering failed; rendering with the HTML engine: {}", e.getMessage());
+                    } finally {
+                        trackBatchCompletion();
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new HtmlToPdfConversionException("Interrupted while waiting to acquire conversion permit", ie);
+                }
+            }
+        }
+        return convertHtmlToPdf(placeholderResolver.apply(templateHtml), includeSanitisedXhtml, features);
+    }
+
+    /**
+     * Renders a quick, non-archival PDF of the leading pages of a template for interactive previews, without PDF/A
+     * conformance. Layout stops shortly after the first {@code maxPages} pages: the document is cut after a budget of
+     * elements that grows until the cut version runs past those pages, so a long template costs about as much as a
+     * short one. Templates that count pages or position content absolutely are laid out in full, because a cut would
+     * change their leading pages. Previews do not take a conversion permit, so they are never queued behind bulk batch
+     * traffic.
+     *
+     * @param htmlContent XHTML content to render
+     * @param maxPages maximum number of pages to paint
+     * @return {@link PreviewRendering} with the PDF bytes and the total page count of the document, or {@code 0} when
+     *         the document runs past {@code maxPages} and was not laid out to its end
+     * @throws HtmlToPdfConversionException when rendering fails
+     */
+    public PreviewRendering renderPreview(String htmlContent, int maxPages) throws HtmlToPdfConversionException {
+        if (htmlContent == null) {
+            throw new HtmlToPdfConversionException("HTML content must not be null.");
+        }
+        String cleanedHtml = stripBom(htmlContent);
+        TemplateFeatures features = TemplateFeatures.analyse(cleanedHtml);
+        int pageLimit = Math.max(1, maxPages);
+        int elementBudget = PREVIEW_UNCUTTABLE.matcher(cleanedHtml).find()
+                ? Integer.MAX_VALUE : PREVIEW_ELEMENTS_PER_PAGE * (pageLimit + 1);
+        try (var previewTimer = diagnostics.start("creator.preview.render", java.util.Map.of())) {
+            while (true) {
+                Document document = prepareDocument(cleanedHtml, features);
+                boolean cut = keepLeadingElements(document, elementBudget);
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                PdfRendererBuilder builder = configuredBuilderSkeleton(features, PdfRendererBuilder.PdfAConformance.NONE);
+                builder.withW3cDocument(document, "about:blank");
+                builder.toStream(outputStream);
+                try (PdfBoxRenderer renderer = builder.buildPdfRenderer()) {
+                    renderer.layout();
+                    java.util.List<com.openhtmltopdf.render.PageBox> pages = renderer.getRootBox().getLayer().getPages();
+                    int laidOut = pages.size();
+                    if (cut && laidOut <= pageLimit) {
+                        // The cut may have fallen inside the requested pages; lay out more of the document
+                        elementBudget = elementBudget > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : elementBudget * 2;
+                        continue;
+                    }
+                    if (laidOut > pageLimit) {
+                        // Dropping the trailing page boxes keeps the renderer from painting them
+                        pages.subList(pageLimit, laidOut).clear();
+                    }
+                    renderer.createPDF();
+                    return new PreviewRendering(outputStream.toByteArray(), cut ? 0 : laidOut);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Unable to render template preview: {}", e.getMessage());
+            throw new HtmlToPdfConversionException("Unable to render template preview", e);
+        }
+    }
+
+    /**
+     * Removes everything in the body after its first {@code budget} elements in document order, keeping the
+     * ancestors of the last element kept.
+     *
+     * @return {@code true} when anything was removed
+     */
+    private static boolean keepLeadingElements(Document document, int budget) {
+        Node body = document.getElementsByTagName("body").item(0);
+        if (body == null) {
+            return false;
+        }
+        int elements = 0;
+        Node node = body.getFirstChild();
+        while (node != null) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && elements++ == budget) {
+                Node parent = node.getParentNode();
+                while (true) {
+                    for (Node removed = node; removed != null; removed = node) {
+                        node = removed.getNextSibling();
+                        parent.removeChild(removed);
+                    }
+                    if (parent == body) {
+                        return true;
+                    }
+                    node = parent.getNextSibling();
+                    parent = parent.getParentNode();
+                }
+            }
+            if (node.getFirstChild() != null) {
+                node = node.getFirstChild();
+                continue;
+            }
+            while (node != body && node.getNextSibling() == null) {
+                node = node.getParentNode();
+            }
+            node = node == body ? null : node.getNextSibling();
+        }
+        return false;
+    }
+
+    private OverlayRenderEngine.OverlayTemplate compileOverlay(String templateHtml, TemplateFeatures features) {
+        String cleaned = stripBom(templateHtml);
+        return overlayEngine.compile(cleaned, documentParser.parse(cleaned, features.syntax()).document(),
+                () -> configuredBuilderSkeleton(features),
+                document -> {
+                    if (features.usesObjects()) {
+                        objectFactory.preprocessDocument(document);
+                    }
+                });
+    }
+
+    /**
+     * Returns the cached feature profile for a template, analysing it the first time it is seen.
+     *
+     * @param templateHtml unresolved template markup shared by a batch
+     * @return feature profile used to build a minimal renderer configuration
+     */
+    public TemplateFeatures analyseTemplate(String templateHtml) {
+        if (templateHtml == null) {
+            return TemplateFeatures.ALL;
+        }
+        return templateFeatures.get(templateHtml, html -> {
+            String cleaned = stripBom(html);
+            XhtmlDocumentParser.Parsed parsed = documentParser.parse(cleaned, XhtmlDocumentParser.Syntax.XML);
+            TemplateFeatures features = TemplateFeatures.analyse(html).withSyntax(parsed.syntax());
+            features = features.withStaticLayer(buildStaticRunningLayer(cleaned, parsed.document(), features));
+            log.debug("Template features: syntax={}, svg={}, objects={}, fonts={}, staticRunningLayer={}",
+                    features.syntax(), features.usesSvg(), features.usesObjects(),
+                    features.usesAllFonts() ? "all" : features.fontFamilies(),
+                    !features.staticLayer().isEmpty());
+            return features;
+        });
+    }
+
+    /**
+     * Renders the placeholder-free running header/footer content of a template once, so it can be stamped
+     * onto every page of every debtor document instead of being laid out and painted again each time.
+     * The parsed template is reduced to the layer in place.
+     */
+    private StaticRunningLayer buildStaticRunningLayer(String templateHtml, Document layerDocument,
+                                                       TemplateFeatures features) {
+        java.util.List<StaticRunningLayer.RunningBlock> blocks = StaticRunningLayer.findStaticBlocks(layerDocument, templateHtml);
+        if (blocks.isEmpty()) {
+            return StaticRunningLayer.NONE;
+        }
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            StaticRunningLayer.reduceToLayer(layerDocument, blocks);
+            if (features.usesObjects()) {
+                objectFactory.preprocessDocument(layerDocument);
+            }
+            // The layer becomes a Form XObject inside a PDF/A document, so it is rendered without its own conformance
+            PdfRendererBuilder builder = configuredBuilderSkeleton(features, PdfRendererBuilder.PdfAConformance.NONE);
+            builder.withW3cDocument(layerDocument, "about:blank");
+            builder.toStream(out);
+            builder.run();
+            byte[] layerPdf = out.toByteArray();
+            try (org.apache.pdfbox.pdmodel.PDDocument rendered = org.apache.pdfbox.pdmodel.PDDocument.load(layerPdf)) {
+                if (rendered.getNumberOfPages() != 1) {
+                    log.debug("Static running layer spans {} pages; rendering running elements per document.",
+                            rendered.getNumberOfPages());
+                    return StaticRunningLayer.NONE;
+                }
+            }
+            return StaticRunningLayer.of(blocks, layerPdf);
+        } catch (Exception ex) {
+            log.warn("Unable to pre-render static running elements; rendering them per document: {}", ex.getMessage());
+            return StaticRunningLayer.NONE;
+        }
+    }
+
+    private Document prepareDocument(String htmlContent, TemplateFeatures features) {
+        Document document = documentParser.parse(htmlContent, features.syntax()).document();
+        if (features.usesObjects()) {
+            objectFactory.preprocessDocument(document);
+        }
+        return document;
+    }
+
+    private void logConversionDuration(long startMillis) {
+        long duration = System.currentTimeMillis() - startMillis;
+        String timestamp = LocalTime.now().format(TIMESTAMP_FORMATTER);
+        log.info("{} Conversion time: {} ms", timestamp, duration);
+    }
+
+    private void trackBatchCompletion() {
+        long finishMillis = System.currentTimeMillis();
+        scheduleBatchCompletionCheck(finishMillis);
+    }
+
+
+    private void renderToPdf(Document document, String htmlContent, TemplateFeatures features,
+                             boolean stampStaticLayer, OutputStream outputStream) throws IOException {
+        try {
+            PdfRendererBuilder builder = configuredBuilderSkeleton(features);
+            builder.withW3cDocument(document, "about:blank");
+            builder.toStream(outputStream);
+            builder.usePDDocument(memoryPolicy.newDocument(htmlContent != null ? htmlContent.length() : 0));
+            if (!stampStaticLayer) {
+                builder.run();
+                return;
+            }
+            try (PdfBoxRenderer renderer = builder.buildPdfRenderer()) {
+                StaticRunningLayer layer = features.staticLayer();
+                renderer.setListener(new PDFCreationListener() {
+                    @Override
+                    public void preOpen(PdfBoxRenderer opening) {
+                    }
+
+                    @Override
+                    public void preWrite(PdfBoxRenderer writing, int pageCount) {
+                    }
+
+                    @Override
+                    public void onClose(PdfBoxRenderer closing) {
+                        try {
+                            layer.stampOnto(closing.getPdfDocument());
+                        } catch (IOException ex) {
+                            throw new java.io.UncheckedIOException("Unable to stamp static running layer", ex);
+                        }
+                    }
+                });
+                renderer.layout();
+                renderer.createPDF();
+            }
+        } catch (Exception ex) {
+            throw new IOException("Unable to render PDF", ex);
+        }
+    }
+
+    /**
+     * Builds a renderer with only the drawers and fonts the template needs. PDF/A conformance and the
+     * colour profile are part of the output contract and are therefore always applied.
+     */
+    private PdfRendererBuilder configuredBuilderSkeleton(TemplateFeatures features) {
+        return configuredBuilderSkeleton(features, PdfRendererBuilder.PdfAConformance.PDFA_2_A);
+    }
+
+    private PdfRendererBuilder configuredBuilderSkeleton(TemplateFeatures features,
+                                                         PdfRendererBuilder.PdfAConformance conformance) {
+        PdfRendererBuilder builder = new PdfRendererBuilder();
+        if (features.usesSvg()) {
+            builder.useSVGDrawer(new BatikSVGDrawer());
+        }
+        if (features.usesObjects()) {
+            builder.useObjectDrawerFactory(objectFactory);
+        }
+        builder.usePdfVersion(1.4f);
+        builder.usePdfAConformance(conformance);
+        builder.useColorProfile(srgbColorProfile);
+        fontRegistry.registerEmbeddedFonts(builder, features);
+        return builder;
+    }
+
+    private byte[] loadSrgbColorProfile() {
+        ClassPathResource resource = new ClassPathResource("colorspaces/sRGB.icc");
+        try (InputStream inputStream = resource.getInputStream()) {
+            return inputStream.readAllBytes();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to load sRGB color profile required for PDF/A output.", ex);
+        }
+    }
+
+    private String serializeDocument(Document document) throws Exception {
+        Transformer transformer = TRANSFORMER.get();
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.setOutputProperty(OutputKeys.METHOD, "xml");
+        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            transformer.transform(new DOMSource(document), new StreamResult(out));
+            return out.toString(StandardCharsets.UTF_8);
+        }
+    }
+
+    private String stripBom(String input) {
+        if (input == null || input.isEmpty()) return input;
+        if (input.charAt(0) == '\uFEFF') {
+            return input.substring(1);
+        }
+        return input;
+    }
+
+    private ConversionPermit acquireConversionPermit() throws InterruptedException {
+        conversionPermits.acquire();
+        int current = activeConversions.incrementAndGet();
+        int peak = peakConcurrentConversions.updateAndGet(prev -> Math.max(prev, current));
+        logActiveConversions(current, peak);
+        return new ConversionPermit();
+    }
+
+    private void logActiveConversions(int current, int peak) {
+        log.info("Active conversions: {}/{} (peak: {})", current, maxConcurrentConversions, peak);
+    }
+
+    private void noteConversionStarted() {
+        ScheduledFuture<?> pending = pendingBatchCompletionLog.getAndSet(null);
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        long now = System.currentTimeMillis();
+        firstConversionStartMillis.compareAndSet(0L, now);
+    }
+
+    private void scheduleBatchCompletionCheck(long finishMillis) {
+        lastConversionFinishMillis.set(finishMillis);
+        final ScheduledFuture<?>[] holder = new ScheduledFuture<?>[1];
+        Runnable task = () -> handlePotentialBatchCompletion(finishMillis, holder[0]);
+        ScheduledFuture<?> future = conversionTimingExecutor.schedule(task, CONVERSION_IDLE_THRESHOLD_MS, TimeUnit.MILLISECONDS);
+        holder[0] = future;
+        ScheduledFuture<?> previous = pendingBatchCompletionLog.getAndSet(future);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    private void handlePotentialBatchCompletion(long scheduledFinishMillis, ScheduledFuture<?> future) {
+        if (future == null) {
+            return;
+        }
+        if (!pendingBatchCompletionLog.compareAndSet(future, null)) {
+            return;
+        }
+        if (activeConversions.get() != 0) {
+            return;
+        }
+        long start = firstConversionStartMillis.get();
+        if (start == 0L) {
+            return;
+        }
+        long finishMillis = Math.max(lastConversionFinishMillis.get(), scheduledFinishMillis);
+        long elapsed = Math.max(finishMillis - start, 0L);
+        String timestamp = LocalTime.now().format(TIMESTAMP_FORMATTER);
+        log.info("{} Conversion batch elapsed: {} ms (first at {}, last at {})",
+                timestamp, elapsed, formatClockTime(start), formatClockTime(finishMillis));
+        firstConversionStartMillis.compareAndSet(start, 0L);
+    }
+
+    private String formatClockTime(long epochMillis) {
+        return Instant.ofEpochMilli(epochMillis).atZone(SYSTEM_ZONE).toLocalTime().format(TIMESTAMP_FORMATTER);
+    }
+
+    /**
+     * Result wrapper that exposes the generated PDF and an optional sanitised XHTML snapshot. The PDF is held in
+     * pooled segments; close the result once the PDF has been drained so the segments can be reused.
+     *
+     * @param pdf            rendered PDF
+     * @param sanitisedXhtml sanitised XHTML snapshot, or {@code null} when not requested
+     */
+    public record PdfConversionResult(SegmentedBuffer pdf, String sanitisedXhtml) implements AutoCloseable {
+
+        @Override
+        public void close() {
+            pdf.close();
+        }
+    }
+
+    /**
+     * Preview PDF holding only the leading pages, plus the page count of the complete document, or {@code 0} when the
+     * document runs past those pages and was not laid out to its end.
+     */
+    public record PreviewRendering(byte[] pdfContent, int totalPages) { }
+
+    /**
+     * Exception raised when XHTML-to-PDF conversion fails.
+     */
+    public static class HtmlToPdfConversionException extends Exception {
+        private static final long serialVersionUID = 7231358555978999078L;
+
+        public HtmlToPdfConversionException(String message) {
+            super(message);
+        }
+
+        public HtmlToPdfConversionException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private final class ConversionPermit implements AutoCloseable {
+        private boolean closed;
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            int current = activeConversions.decrementAndGet();
+            conversionPermits.release();
+            logActiveConversions(current, peakConcurrentConversions.get());
+        }
+    }
+}
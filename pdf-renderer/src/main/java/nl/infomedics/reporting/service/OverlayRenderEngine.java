@@ -0,0 +1,692 @@
+package nl.infomedics.reporting.service;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.pdfbox.contentstream.operator.color.SetNonStrokingColor;
+import org.apache.pdfbox.contentstream.operator.color.SetNonStrokingColorN;
+import org.apache.pdfbox.contentstream.operator.color.SetNonStrokingColorSpace;
+import org.apache.pdfbox.contentstream.operator.color.SetNonStrokingDeviceCMYKColor;
+import org.apache.pdfbox.contentstream.operator.color.SetNonStrokingDeviceGrayColor;
+import org.apache.pdfbox.contentstream.operator.color.SetNonStrokingDeviceRGBColor;
+import org.apache.pdfbox.contentstream.operator.state.SetLineWidth;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.graphics.state.PDGraphicsState;
+import org.apache.pdfbox.pdmodel.graphics.state.RenderingMode;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+import org.apache.pdfbox.util.Matrix;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.Text;
+
+import com.openhtmltopdf.pdfboxout.PDFCreationListener;
+import com.openhtmltopdf.pdfboxout.PagePosition;
+import com.openhtmltopdf.pdfboxout.PdfBoxRenderer;
+import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
+import com.openhtmltopdf.render.Box;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Alternative render engine for templates whose per-debtor content cannot reflow: the template is laid out
+ * once into a PDF background with its placeholder text hidden, and each debtor document is produced by
+ * stamping the resolved field values onto a copy of that background.
+ * <p>
+ * Field positions, alignment, fonts and colours are learned from the text layer of two probe renders, in
+ * which every placeholder text is replaced by markers of different lengths. A template is only eligible when
+ * no other text moves between the probes, so the layout provably does not depend on the field lengths.
+ * Repeat blocks, placeholders in attributes and CSS that changes how text is drawn (transforms, spacing,
+ * decorations) make a template ineligible. At render time a value that would not fit its box on one line
+ * makes the caller fall back to the HTML engine for that document.
+ * <p>
+ * Stamped values are drawn as artifacts, so they are not part of the PDF/A structure tree of the background.
+ */
+@Slf4j
+final class OverlayRenderEngine {
+
+    private static final Set<String> BLOCK_TAGS = Set.of("p", "div", "td", "th", "li", "h1", "h2", "h3", "h4",
+            "h5", "h6", "header", "footer", "section", "article", "body");
+    private static final Set<String> SKIPPED_TAGS = Set.of("head", "style", "script", "title");
+    private static final List<String> UNSUPPORTED_CSS = List.of("text-transform", "letter-spacing", "word-spacing",
+            "underline", "line-through", "overline", "justify", "white-space");
+    private static final String BOX_ID_PREFIX = "ovl-box-";
+    private static final String MARKER_OPEN = "ZQ";
+    private static final String MARKER_CLOSE = "QZ";
+    private static final String MARKER_PADDING = "WWWWWWWW";
+    private static final float POSITION_TOLERANCE = 0.1f;
+    private static final float FIT_TOLERANCE = 0.5f;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    /**
+     * Parsed fonts by their embedded font data. A PDType0Font belongs to one document, but the parsed TrueType font
+     * behind it can be reused; it reads its tables lazily and is not thread-safe, hence one set per thread.
+     */
+    private static final ThreadLocal<Map<byte[], TrueTypeFont>> PARSED_FONTS = ThreadLocal.withInitial(WeakHashMap::new);
+
+    private final FontRegistry fontRegistry;
+
+    OverlayRenderEngine(FontRegistry fontRegistry) {
+        this.fontRegistry = fontRegistry;
+    }
+
+    /**
+     * Analyses a template and renders its background when it is eligible for overlay rendering.
+     *
+     * @param templateHtml unresolved template markup
+     * @param template     parsed template; not modified
+     * @param builders     supplier of renderer builders configured for the template
+     * @param preprocessor document preprocessing applied before each render (e.g. object elements)
+     * @return compiled overlay template, or {@link OverlayTemplate#INELIGIBLE}
+     */
+    OverlayTemplate compile(String templateHtml, Document template, Supplier<PdfRendererBuilder> builders,
+                            Consumer<Document> preprocessor) {
+        if (template == null || templateHtml == null || !templateHtml.contains("${")) {
+            return OverlayTemplate.INELIGIBLE;
+        }
+        String lower = templateHtml.toLowerCase(Locale.ROOT);
+        for (String css : UNSUPPORTED_CSS) {
+            if (lower.contains(css)) {
+                return ineligible("template uses '" + css + "'");
+            }
+        }
+        List<Text> fieldNodes = new ArrayList<>();
+        String problem = collectFields(template.getDocumentElement(), fieldNodes);
+        if (problem != null) {
+            return ineligible(problem);
+        }
+        try {
+            List<String> boxIds = new ArrayList<>();
+            Document probeA = copyWithMarkers(template, fieldNodes.size(), false, boxIds);
+            Document probeB = copyWithMarkers(template, fieldNodes.size(), true, new ArrayList<>());
+            Document background = copyWithMarkers(template, fieldNodes.size(), false, null);
+            preprocessor.accept(probeA);
+            preprocessor.accept(probeB);
+            preprocessor.accept(background);
+
+            StringBuilder idPattern = new StringBuilder();
+            for (String id : new LinkedHashSet<>(boxIds)) {
+                idPattern.append(idPattern.isEmpty() ? "" : "|").append(Pattern.quote(id));
+            }
+            Rendered renderedA = render(probeA, builders, Pattern.compile(idPattern.toString()));
+            Rendered renderedB = render(probeB, builders, null);
+            Rendered renderedBackground = render(background, builders, null);
+
+            List<List<Glyph>> glyphsA = collectGlyphs(renderedA.pdf());
+            List<List<Glyph>> glyphsB = collectGlyphs(renderedB.pdf());
+            if (glyphsA.size() != glyphsB.size()) {
+                return ineligible("page count depends on field length");
+            }
+            for (List<Glyph> page : collectGlyphs(renderedBackground.pdf())) {
+                if (joinText(page).contains(MARKER_OPEN)) {
+                    return ineligible("hidden fields are still painted in the background");
+                }
+            }
+
+            boolean[][] markerGlyphsA = markerMask(glyphsA);
+            boolean[][] markerGlyphsB = markerMask(glyphsB);
+            List<Field> fields = new ArrayList<>(fieldNodes.size());
+            for (int i = 0; i < fieldNodes.size(); i++) {
+                List<Placement> placements = new ArrayList<>();
+                problem = locateField(i, boxIds.get(i), glyphsA, glyphsB, markerGlyphsA, markerGlyphsB,
+                        renderedA.boxes(), placements);
+                if (problem != null) {
+                    return ineligible(problem);
+                }
+                fields.add(new Field(fieldNodes.get(i).getData(), Collections.unmodifiableList(placements)));
+            }
+            if (!sameStaticText(glyphsA, glyphsB, markerGlyphsA, markerGlyphsB)) {
+                return ineligible("static text moves with the field length");
+            }
+            log.debug("Overlay engine enabled for template with {} fields.", fields.size());
+            return new OverlayTemplate(renderedBackground.pdf(), Collections.unmodifiableList(fields));
+        } catch (Exception ex) {
+            return ineligible("analysis failed: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Produces a debtor document by stamping the resolved field values onto the template background.
+     *
+     * @param template compiled overlay template
+     * @param resolver resolves the placeholders of a field text for the current debtor
+     * @param out      receives the PDF; nothing is written when a value does not fit
+     * @return {@code false} when a value does not fit and the HTML engine must be used instead
+     * @throws IOException when the background cannot be loaded or saved
+     */
+    boolean render(OverlayTemplate template, UnaryOperator<String> resolver, OutputStream out) throws IOException {
+        List<Field> fields = template.fields();
+        String[] values = new String[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            String resolved = resolver.apply(fields.get(i).text());
+            values[i] = resolved == null ? "" : WHITESPACE.matcher(resolved).replaceAll(" ").strip();
+        }
+        try (PDDocument document = PDDocument.load(template.background())) {
+            Map<byte[], PDType0Font> fonts = new IdentityHashMap<>();
+            List<List<Stamp>> stampsPerPage = new ArrayList<>();
+            for (int p = 0; p < document.getNumberOfPages(); p++) {
+                stampsPerPage.add(new ArrayList<>());
+            }
+            for (int i = 0; i < values.length; i++) {
+                if (values[i].isEmpty()) {
+                    continue;
+                }
+                for (Placement placement : fields.get(i).placements()) {
+                    PDType0Font font = fonts.computeIfAbsent(placement.fontData(), data -> loadFont(document, data));
+                    float width;
+                    try {
+                        width = font.getStringWidth(values[i]) / 1000f * placement.fontSize();
+                    } catch (IllegalArgumentException missingGlyph) {
+                        return false;
+                    }
+                    if (width > placement.maxWidth() + FIT_TOLERANCE || placement.page() >= stampsPerPage.size()) {
+                        return false;
+                    }
+                    stampsPerPage.get(placement.page()).add(new Stamp(placement, font, values[i], width));
+                }
+            }
+            for (int p = 0; p < stampsPerPage.size(); p++) {
+                List<Stamp> stamps = stampsPerPage.get(p);
+                if (!stamps.isEmpty()) {
+                    drawStamps(document, document.getPage(p), stamps);
+                }
+            }
+            document.save(out);
+            return true;
+        }
+    }
+
+    private void drawStamps(PDDocument document, PDPage page, List<Stamp> stamps) throws IOException {
+        try (PDPageContentStream content = new PDPageContentStream(document, page,
+                PDPageContentStream.AppendMode.APPEND, true, true)) {
+            content.beginMarkedContent(COSName.ARTIFACT);
+            for (Stamp stamp : stamps) {
+                Placement placement = stamp.placement();
+                float x = switch (placement.alignment()) {
+                    case LEFT -> placement.anchor();
+                    case RIGHT -> placement.anchor() - stamp.width();
+                    case CENTER -> placement.anchor() - stamp.width() / 2f;
+                };
+                Color colour = new Color(placement.rgb());
+                content.setNonStrokingColor(colour);
+                content.setStrokingColor(colour);
+                content.setLineWidth(placement.lineWidth());
+                content.beginText();
+                content.setFont(stamp.font(), placement.fontSize());
+                // Synthetic bold is drawn as fill+stroke by the HTML renderer
+                content.setRenderingMode(placement.renderingMode());
+                content.newLineAtOffset(x, placement.baseline());
+                content.showText(stamp.value());
+                content.endText();
+            }
+            content.endMarkedContent();
+        }
+    }
+
+    private static PDType0Font loadFont(PDDocument document, byte[] data) {
+        try {
+            Map<byte[], TrueTypeFont> parsed = PARSED_FONTS.get();
+            TrueTypeFont font = parsed.get(data);
+            if (font == null) {
+                font = new TTFParser().parse(new ByteArrayInputStream(data));
+                parsed.put(data, font);
+            }
+            return PDType0Font.load(document, font, true);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private String locateField(int index, String boxId, List<List<Glyph>> glyphsA, List<List<Glyph>> glyphsB,
+                               boolean[][] markerGlyphsA, boolean[][] markerGlyphsB,
+                               List<PagePosition<Box>> boxes, List<Placement> placements) {
+        String markerA = MARKER_OPEN + index + MARKER_CLOSE;
+        String markerB = MARKER_OPEN + index + MARKER_PADDING;
+        for (int page = 0; page < glyphsA.size(); page++) {
+            List<Run> runsA = findRuns(glyphsA.get(page), markerA, markerGlyphsA[page]);
+            List<Run> runsB = findRuns(glyphsB.get(page), markerB, markerGlyphsB[page]);
+            if (runsA.size() != runsB.size()) {
+                return "field " + index + " occurs a different number of times per probe";
+            }
+            for (int r = 0; r < runsA.size(); r++) {
+                Run a = runsA.get(r);
+                Run b = runsB.get(r);
+                if (!a.singleLine() || !b.singleLine() || Math.abs(a.baseline() - b.baseline()) > POSITION_TOLERANCE) {
+                    return "field " + index + " wraps or moves vertically";
+                }
+                Alignment alignment;
+                float anchor;
+                if (Math.abs(a.start() - b.start()) <= POSITION_TOLERANCE) {
+                    alignment = Alignment.LEFT;
+                    anchor = a.start();
+                } else if (Math.abs(a.end() - b.end()) <= POSITION_TOLERANCE) {
+                    alignment = Alignment.RIGHT;
+                    anchor = a.end();
+                } else if (Math.abs(a.centre() - b.centre()) <= POSITION_TOLERANCE) {
+                    alignment = Alignment.CENTER;
+                    anchor = a.centre();
+                } else {
+                    return "field " + index + " has no stable anchor";
+                }
+                PagePosition<Box> box = boxId == null ? null : findBox(boxes, boxId, a);
+                if (box == null) {
+                    return "no layout box found for field " + index;
+                }
+                float left = box.getX();
+                float right = box.getX() + box.getWidth();
+                float maxWidth = switch (alignment) {
+                    case LEFT -> right - anchor;
+                    case RIGHT -> anchor - left;
+                    case CENTER -> 2f * Math.min(anchor - left, right - anchor);
+                };
+                Glyph first = a.first();
+                byte[] fontData = fontRegistry.findFontData(baseFontName(first.fontName()));
+                if (fontData == null) {
+                    return "font " + first.fontName() + " of field " + index + " is not an embedded font";
+                }
+                placements.add(new Placement(page, anchor, a.baseline(), maxWidth, alignment, fontData,
+                        first.fontSize(), first.rgb(), first.renderingMode(), first.lineWidth()));
+            }
+        }
+        return placements.isEmpty() ? "field " + index + " is not painted" : null;
+    }
+
+    private static PagePosition<Box> findBox(List<PagePosition<Box>> boxes, String id, Run run) {
+        for (PagePosition<Box> box : boxes) {
+            if (id.equals(box.getId())
+                    && run.start() >= box.getX() - FIT_TOLERANCE
+                    && run.end() <= box.getX() + box.getWidth() + FIT_TOLERANCE
+                    && run.baseline() >= box.getY() - FIT_TOLERANCE
+                    && run.baseline() <= box.getY() + box.getHeight() + FIT_TOLERANCE) {
+                return box;
+            }
+        }
+        return null;
+    }
+
+    private static String baseFontName(String fontName) {
+        if (fontName == null) {
+            return null;
+        }
+        int plus = fontName.indexOf('+');
+        return plus == 6 ? fontName.substring(plus + 1) : fontName;
+    }
+
+    private static List<Run> findRuns(List<Glyph> glyphs, String marker, boolean[] mask) {
+        List<Run> runs = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        List<Integer> charToGlyph = new ArrayList<>();
+        for (int g = 0; g < glyphs.size(); g++) {
+            String unicode = glyphs.get(g).unicode();
+            for (int c = 0; c < unicode.length(); c++) {
+                text.append(unicode.charAt(c));
+                charToGlyph.add(g);
+            }
+        }
+        int from = 0;
+        int at;
+        while ((at = text.indexOf(marker, from)) >= 0) {
+            int firstGlyph = charToGlyph.get(at);
+            int lastGlyph = firstGlyph;
+            // Extend to the end of the marker, including the closing sequence and any padding
+            for (int g = firstGlyph; g < glyphs.size() && mask[g]; g++) {
+                lastGlyph = g;
+            }
+            runs.add(new Run(glyphs.subList(firstGlyph, lastGlyph + 1)));
+            from = at + marker.length();
+        }
+        return runs;
+    }
+
+    private static boolean[][] markerMask(List<List<Glyph>> pages) {
+        boolean[][] masks = new boolean[pages.size()][];
+        for (int p = 0; p < pages.size(); p++) {
+            List<Glyph> glyphs = pages.get(p);
+            boolean[] mask = new boolean[glyphs.size()];
+            String text = joinText(glyphs);
+            int[] charToGlyph = new int[text.length()];
+            int c = 0;
+            for (int g = 0; g < glyphs.size(); g++) {
+                for (int k = 0; k < glyphs.get(g).unicode().length(); k++) {
+                    charToGlyph[c++] = g;
+                }
+            }
+            int from = 0;
+            int open;
+            while ((open = text.indexOf(MARKER_OPEN, from)) >= 0) {
+                int close = text.indexOf(MARKER_CLOSE, open + MARKER_OPEN.length());
+                if (close < 0) {
+                    break;
+                }
+                for (int k = open; k < close + MARKER_CLOSE.length(); k++) {
+                    mask[charToGlyph[k]] = true;
+                }
+                from = close + MARKER_CLOSE.length();
+            }
+            masks[p] = mask;
+        }
+        return masks;
+    }
+
+    private static boolean sameStaticText(List<List<Glyph>> glyphsA, List<List<Glyph>> glyphsB,
+                                          boolean[][] maskA, boolean[][] maskB) {
+        for (int p = 0; p < glyphsA.size(); p++) {
+            List<Glyph> staticA = new ArrayList<>();
+            List<Glyph> staticB = new ArrayList<>();
+            for (int g = 0; g < glyphsA.get(p).size(); g++) {
+                if (!maskA[p][g]) {
+                    staticA.add(glyphsA.get(p).get(g));
+                }
+            }
+            for (int g = 0; g < glyphsB.get(p).size(); g++) {
+                if (!maskB[p][g]) {
+                    staticB.add(glyphsB.get(p).get(g));
+                }
+            }
+            if (staticA.size() != staticB.size()) {
+                return false;
+            }
+            for (int g = 0; g < staticA.size(); g++) {
+                Glyph a = staticA.get(g);
+                Glyph b = staticB.get(g);
+                if (!a.unicode().equals(b.unicode()) || Math.abs(a.x() - b.x()) > POSITION_TOLERANCE
+                        || Math.abs(a.y() - b.y()) > POSITION_TOLERANCE) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static String joinText(List<Glyph> glyphs) {
+        StringBuilder text = new StringBuilder();
+        for (Glyph glyph : glyphs) {
+            text.append(glyph.unicode());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Collects the placeholder text nodes of the template, or returns why the template is ineligible.
+     */
+    private static String collectFields(Node node, List<Text> fields) {
+        if (node instanceof Element element) {
+            String tag = element.getLocalName() != null ? element.getLocalName() : element.getTagName();
+            tag = tag.toLowerCase(Locale.ROOT);
+            if (element.hasAttribute("data-repeat-over")) {
+                return "template contains repeat blocks";
+            }
+            NamedNodeMap attributes = element.getAttributes();
+            for (int i = 0; i < attributes.getLength(); i++) {
+                if (attributes.item(i).getNodeValue().contains("${")) {
+                    return "placeholder in attribute " + attributes.item(i).getNodeName();
+                }
+            }
+            boolean skipped = SKIPPED_TAGS.contains(tag);
+            if (skipped && element.getTextContent().contains("${")) {
+                return "placeholder inside <" + tag + ">";
+            }
+            if ("object".equals(tag) && element.getTextContent().contains("${")) {
+                return "placeholder inside <object>";
+            }
+            if (skipped) {
+                return null;
+            }
+        } else if (node instanceof Text text && text.getData().contains("${")) {
+            String data = text.getData();
+            int open = data.indexOf("${");
+            while (open >= 0) {
+                int close = data.indexOf('}', open + 2);
+                if (close < 0) {
+                    return "placeholder split across markup";
+                }
+                open = data.indexOf("${", close + 1);
+            }
+            fields.add(text);
+            return null;
+        }
+        NodeList children = node.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            String problem = collectFields(children.item(i), fields);
+            if (problem != null) {
+                return problem;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copies the template and replaces each field text by a marker, keeping surrounding white space. Markers
+     * are hidden when no box ids are requested, which yields the background.
+     */
+    private static Document copyWithMarkers(Document template, int fieldCount, boolean padded, List<String> boxIds) {
+        Document copy = (Document) template.cloneNode(true);
+        List<Text> fields = new ArrayList<>(fieldCount);
+        collectFields(copy.getDocumentElement(), fields);
+        for (int i = 0; i < fields.size(); i++) {
+            Text field = fields.get(i);
+            String data = field.getData();
+            String leading = data.substring(0, data.length() - data.stripLeading().length());
+            String trailing = data.substring(data.stripTrailing().length());
+            String marker = MARKER_OPEN + i + (padded ? MARKER_PADDING : "") + MARKER_CLOSE;
+            Element parent = (Element) field.getParentNode();
+            if (boxIds != null) {
+                field.setData(leading + marker + trailing);
+                // Existing ids may be targeted by the stylesheet, so only blocks without one get a generated id
+                Element block = nearestBlock(parent);
+                if (block != null && !block.hasAttribute("id")) {
+                    block.setAttribute("id", BOX_ID_PREFIX + i);
+                }
+                boxIds.add(block != null ? block.getAttribute("id") : null);
+            } else {
+                Element hidden = copy.createElementNS(parent.getNamespaceURI(), "span");
+                hidden.setAttribute("style", "visibility:hidden;");
+                hidden.appendChild(copy.createTextNode(marker));
+                parent.insertBefore(copy.createTextNode(leading), field);
+                parent.insertBefore(hidden, field);
+                parent.insertBefore(copy.createTextNode(trailing), field);
+                parent.removeChild(field);
+            }
+        }
+        return copy;
+    }
+
+    private static Element nearestBlock(Element element) {
+        Node current = element;
+        while (current instanceof Element e) {
+            String tag = e.getLocalName() != null ? e.getLocalName() : e.getTagName();
+            if (BLOCK_TAGS.contains(tag.toLowerCase(Locale.ROOT))) {
+                return e;
+            }
+            current = e.getParentNode();
+        }
+        return null;
+    }
+
+    private static Rendered render(Document document, Supplier<PdfRendererBuilder> builders, Pattern boxIds)
+            throws IOException {
+        PdfRendererBuilder builder = builders.get();
+        builder.withW3cDocument(document, "about:blank");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.toStream(out);
+        List<PagePosition<Box>> boxes = new ArrayList<>();
+        try (PdfBoxRenderer renderer = builder.buildPdfRenderer()) {
+            if (boxIds != null) {
+                // Box positions are only available once the output device has been handed the laid out pages
+                renderer.setListener(new PDFCreationListener() {
+                    @Override
+                    public void preOpen(PdfBoxRenderer opening) {
+                    }
+
+                    @Override
+                    public void preWrite(PdfBoxRenderer writing, int pageCount) {
+                    }
+
+                    @Override
+                    public void onClose(PdfBoxRenderer closing) {
+                        boxes.addAll(closing.findPagePositionsByID(boxIds));
+                    }
+                });
+            }
+            renderer.layout();
+            renderer.createPDF();
+            return new Rendered(out.toByteArray(), boxes);
+        }
+    }
+
+    private static List<List<Glyph>> collectGlyphs(byte[] pdf) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            GlyphCollector collector = new GlyphCollector();
+            collector.getText(document);
+            return collector.pages;
+        }
+    }
+
+    private static OverlayTemplate ineligible(String reason) {
+        log.debug("Template not eligible for overlay rendering: {}", reason);
+        return OverlayTemplate.INELIGIBLE;
+    }
+
+    /**
+     * Text stripper that records every painted glyph with its position and drawing state, in content order.
+     */
+    private static final class GlyphCollector extends PDFTextStripper {
+        private final List<List<Glyph>> pages = new ArrayList<>();
+
+        GlyphCollector() throws IOException {
+            setSortByPosition(false);
+            // The text stripper ignores colour and line state by default; both are needed to reproduce the text
+            addOperator(new SetNonStrokingColorSpace());
+            addOperator(new SetNonStrokingColor());
+            addOperator(new SetNonStrokingColorN());
+            addOperator(new SetNonStrokingDeviceRGBColor());
+            addOperator(new SetNonStrokingDeviceGrayColor());
+            addOperator(new SetNonStrokingDeviceCMYKColor());
+            addOperator(new SetLineWidth());
+        }
+
+        @Override
+        protected void startPage(PDPage page) throws IOException {
+            pages.add(new ArrayList<>());
+            super.startPage(page);
+        }
+
+        @Override
+        protected void processTextPosition(TextPosition text) {
+            PDGraphicsState state = getGraphicsState();
+            int rgb;
+            try {
+                rgb = state.getNonStrokingColor().toRGB();
+            } catch (IOException | RuntimeException ex) {
+                rgb = 0;
+            }
+            Matrix matrix = text.getTextMatrix();
+            float lineWidth = state.getLineWidth() * state.getCurrentTransformationMatrix().getScalingFactorX();
+            pages.get(pages.size() - 1).add(new Glyph(text.getUnicode(), matrix.getTranslateX(),
+                    matrix.getTranslateY(), text.getWidthDirAdj(), text.getFont().getName(), text.getFontSizeInPt(),
+                    rgb, state.getTextState().getRenderingMode(), lineWidth));
+        }
+    }
+
+    private record Glyph(String unicode, float x, float y, float width, String fontName, float fontSize, int rgb,
+                         RenderingMode renderingMode, float lineWidth) { }
+
+    private record Run(List<Glyph> glyphs) {
+        Glyph first() {
+            return glyphs.get(0);
+        }
+
+        float start() {
+            return first().x();
+        }
+
+        float end() {
+            Glyph last = glyphs.get(glyphs.size() - 1);
+            return last.x() + last.width();
+        }
+
+        float centre() {
+            return (start() + end()) / 2f;
+        }
+
+        float baseline() {
+            return first().y();
+        }
+
+        boolean singleLine() {
+            for (Glyph glyph : glyphs) {
+                if (Math.abs(glyph.y() - baseline()) > POSITION_TOLERANCE) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private record Rendered(byte[] pdf, List<PagePosition<Box>> boxes) { }
+
+    private record Stamp(Placement placement, PDType0Font font, String value, float width) { }
+
+    enum Alignment { LEFT, RIGHT, CENTER }
+
+    /**
+     * Position and drawing state of one occurrence of a field.
+     */
+    record Placement(int page, float anchor, float baseline, float maxWidth, Alignment alignment,
+                             byte[] fontData, float fontSize, int rgb, RenderingMode renderingMode, float lineWidth) { }
+
+    /**
+     * Placeholder text node of the template and where it is painted.
+     */
+    record Field(String text, List<Placement> placements) { }
+
+    /**
+     * Compiled overlay: the rendered background and the fields to stamp onto it.
+     *
+     * @param background PDF rendered from the template with all field texts hidden
+     * @param fields     fields in document order
+     */
+    record OverlayTemplate(byte[] background, List<Field> fields) {
+        static final OverlayTemplate INELIGIBLE = new OverlayTemplate(null, List.of());
+
+        boolean eligible() {
+            return background != null;
+        }
+
+        /**
+         * @return approximate retained size in bytes, used to weigh cache entries
+         */
+        int weight() {
+            int weight = background == null ? 0 : background.length;
+            for (Field field : fields) {
+                weight += field.text().length() * 2 + field.placements().size() * 64;
+            }
+            return weight;
+        }
+    }
+}
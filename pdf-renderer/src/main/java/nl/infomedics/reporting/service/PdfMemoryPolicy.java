@@ -0,0 +1,89 @@
+package nl.infomedics.reporting.service;
+
+import java.io.File;
+import java.util.Locale;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Decides where PDFBox keeps the stream data of the document being rendered: on the heap, on the heap up to a
+ * limit and in a scratch file beyond it, or in a scratch file only. Large documents can additionally be forced
+ * onto a scratch file based on the size of their resolved markup, which is known before rendering starts.
+ */
+@Slf4j
+@Component
+public class PdfMemoryPolicy {
+
+    /**
+     * Storage used for the stream data of a rendered document.
+     */
+    public enum Mode {
+        /** Keep everything on the heap; the PDFBox default. */
+        MAIN_MEMORY,
+        /** Keep up to the main-memory limit on the heap and spill the rest to a scratch file. */
+        MIXED,
+        /** Keep all stream data in a scratch file. */
+        TEMP_FILE
+    }
+
+    private final Mode mode;
+    private final long maxMainMemoryBytes;
+    private final int tempFileThresholdChars;
+    private final File tempDir;
+
+    /**
+     * @param mode                   storage for ordinary documents
+     * @param maxMainMemoryBytes     heap budget per document in {@link Mode#MIXED}
+     * @param tempFileThresholdChars resolved markup length from which a document uses {@link Mode#TEMP_FILE},
+     *                               or {@code 0} to apply {@code mode} to every document
+     * @param tempDir                directory for scratch files, or blank for {@code java.io.tmpdir}
+     */
+    public PdfMemoryPolicy(@Value("${converter.pdf-memory.mode:MAIN_MEMORY}") String mode,
+                           @Value("${converter.pdf-memory.max-main-memory-bytes:8388608}") long maxMainMemoryBytes,
+                           @Value("${converter.pdf-memory.temp-file-threshold-chars:0}") int tempFileThresholdChars,
+                           @Value("${converter.pdf-memory.temp-dir:}") String tempDir) {
+        this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        this.maxMainMemoryBytes = Math.max(0L, maxMainMemoryBytes);
+        this.tempFileThresholdChars = Math.max(0, tempFileThresholdChars);
+        this.tempDir = tempDir == null || tempDir.isBlank() ? null : new File(tempDir.trim());
+        log.debug("PDF memory policy: mode={}, maxMainMemoryBytes={}, tempFileThresholdChars={}, tempDir={}",
+                this.mode, this.maxMainMemoryBytes, this.tempFileThresholdChars,
+                this.tempDir != null ? this.tempDir : "java.io.tmpdir");
+    }
+
+    /**
+     * @param markupLength length of the resolved markup of the document
+     * @return storage mode used for a document of that size
+     */
+    public Mode modeFor(int markupLength) {
+        if (tempFileThresholdChars > 0 && markupLength >= tempFileThresholdChars) {
+            return Mode.TEMP_FILE;
+        }
+        return mode;
+    }
+
+    /**
+     * Creates the empty document the renderer writes into. The renderer closes it after saving, which also
+     * deletes its scratch file.
+     *
+     * @param markupLength length of the resolved markup of the document
+     * @return new document using the storage this policy selects
+     */
+    public PDDocument newDocument(int markupLength) {
+        return new PDDocument(settingFor(modeFor(markupLength)));
+    }
+
+    private MemoryUsageSetting settingFor(Mode effective) {
+        MemoryUsageSetting setting = switch (effective) {
+            case MAIN_MEMORY -> MemoryUsageSetting.setupMainMemoryOnly();
+            case MIXED -> MemoryUsageSetting.setupMixed(maxMainMemoryBytes);
+            case TEMP_FILE -> MemoryUsageSetting.setupTempFileOnly();
+        };
+        return tempDir != null ? setting.setTempDir(tempDir) : setting;
+    }
+}
@@ -0,0 +1,229 @@
+package nl.infomedics.reporting.service;
+
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.infomedics.invoicing.model.DebiteurWithPractitioner;
+import nl.infomedics.reporting.cache.BoundedCacheFactory;
+import nl.infomedics.reporting.cache.CacheSpec;
+
+/**
+ * Resolves the {@code ${...}} placeholders and {@code data-repeat-over} blocks of a template against a debtor
+ * model. Templates are compiled once into a plan of literal and placeholder tokens, and property getters are
+ * looked up once per class, so resolving a batch only walks the plan.
+ */
+@Slf4j
+@Component
+public class PlaceholderResolver {
+
+    private static final java.util.regex.Pattern REPEAT_BLOCK_PATTERN = java.util.regex.Pattern.compile(
+            "(<([a-zA-Z0-9]+)([^>]*?data-repeat-over=\\\"([a-zA-Z0-9_\\.]+)\\\"[^>]*?data-repeat-var=\\\"([a-zA-Z0-9_]+)\\\"[^>]*?)>)([\\s\\S]*?)(</\\2>)"
+    );
+
+    private final Cache<String, RepeatPlan> repeatPlanCache;
+    private final Cache<String, java.lang.reflect.Method> methodCache;
+
+    public PlaceholderResolver(BoundedCacheFactory cacheFactory) {
+        this.repeatPlanCache = cacheFactory.create("repeat-plans", CacheSpec.ofWeight(64L * 1024 * 1024),
+                (String template, RepeatPlan plan) -> template.length() * 4);
+        this.methodCache = cacheFactory.create("property-accessors", CacheSpec.ofSize(2_048));
+    }
+
+    /**
+     * Expands {@code data-repeat-over} blocks and replaces {@code ${path}} placeholders with values read from the
+     * model through its getters.
+     *
+     * @param htmlString template markup
+     * @param debiteur   model supplying the values
+     * @return resolved markup; the input unchanged when it has nothing to resolve or resolution fails
+     */
+    public String resolve(String htmlString, DebiteurWithPractitioner debiteur) {
+        if (htmlString == null || htmlString.isEmpty() || debiteur == null) return htmlString;
+        RepeatPlan plan = repeatPlanCache.get(htmlString, this::compileRepeatPlan);
+        if (!plan.hasRepeat && !plan.hasPlaceholders) return htmlString;
+
+        try {
+            java.util.function.BiFunction<Object,String,Object> resolvePath = (root, path) -> {
+                if (root == null || path == null || path.isEmpty()) return null;
+                Object current = root;
+                for (String part : path.split("\\.")) {
+                    if (current == null) return null;
+                    if (current instanceof java.util.Map<?,?> m && m.containsKey(part)) {
+                        current = m.get(part);
+                    } else {
+                        current = invokeProperty(current, part);
+                    }
+                }
+                return current;
+            };
+            
+            return executePlan(plan, debiteur, resolvePath);
+        } catch (Exception e) {
+            log.warn("resolvePropertyPlaceholders failed: {}", e.getMessage());
+            return htmlString;
+        }
+    }
+
+    private String executePlan(RepeatPlan plan, Object debiteurMap,
+                               java.util.function.BiFunction<Object,String,Object> resolvePath) {
+        StringBuilder out = new StringBuilder();
+        
+        java.util.function.Function<String, String> globalResolver = key -> {
+             Object val = resolvePath.apply(debiteurMap, key);
+             return val != null ? val.toString() : "";
+        };
+
+        if (!plan.hasRepeat) {
+            resolveParsed(plan.tail, out, globalResolver);
+            return out.toString();
+        }
+
+        for (RepeatSegment seg : plan.segments) {
+            resolveParsed(seg.prefix, out, globalResolver);
+            
+            Object collectionObj = resolvePath.apply(debiteurMap, seg.collectionPath);
+            if (collectionObj instanceof java.lang.Iterable<?> iterable) {
+                for (Object item : iterable) {
+                    processInner(seg, item, out, resolvePath, globalResolver);
+                }
+            } else if (collectionObj != null && collectionObj.getClass().isArray()) {
+                int length = java.lang.reflect.Array.getLength(collectionObj);
+                for (int idx = 0; idx < length; idx++) {
+                    Object item = java.lang.reflect.Array.get(collectionObj, idx);
+                    processInner(seg, item, out, resolvePath, globalResolver);
+                }
+            }
+        }
+        resolveParsed(plan.tail, out, globalResolver);
+        return out.toString();
+    }
+
+    private void processInner(RepeatSegment seg, Object item, StringBuilder out, 
+                              java.util.function.BiFunction<Object,String,Object> resolvePath,
+                              java.util.function.Function<String, String> globalResolver) {
+        out.append(seg.openingTagStripped);
+        for (Token t : seg.inner.tokens) {
+            if (!t.isPlaceholder) {
+                out.append(t.content);
+            } else {
+                String key = t.content;
+                String val;
+                if (key.startsWith(seg.varName + ".")) {
+                    String path = key.substring(seg.varName.length() + 1);
+                    Object obj = resolvePath.apply(item, path);
+                    val = obj != null ? obj.toString() : "";
+                } else {
+                    val = globalResolver.apply(key);
+                }
+                
+                if (val != null) {
+                    out.append(val);
+                } else {
+                    out.append("${").append(key).append("}");
+                }
+            }
+        }
+        out.append(seg.closingTag);
+    }
+
+    private void resolveParsed(ParsedString ps, StringBuilder out, java.util.function.Function<String, String> resolver) {
+        for (Token t : ps.tokens) {
+            if (!t.isPlaceholder) {
+                out.append(t.content);
+            } else {
+                String val = resolver.apply(t.content);
+                if (val != null) {
+                    out.append(val);
+                } else {
+                    out.append("${").append(t.content).append("}");
+                }
+            }
+        }
+    }
+
+    private ParsedString parseString(String input) {
+        if (input == null || input.isEmpty()) return new ParsedString(java.util.Collections.emptyList());
+        java.util.List<Token> tokens = new java.util.ArrayList<>();
+        int i = 0; int len = input.length();
+        while (i < len) {
+            int start = input.indexOf("${", i);
+            if (start < 0) {
+                tokens.add(new Token(false, input.substring(i)));
+                break;
+            }
+            if (start > i) {
+                tokens.add(new Token(false, input.substring(i, start)));
+            }
+            int end = input.indexOf('}', start + 2);
+            if (end < 0) {
+                tokens.add(new Token(false, input.substring(start)));
+                break;
+            }
+            tokens.add(new Token(true, input.substring(start + 2, end).trim()));
+            i = end + 1;
+        }
+        return new ParsedString(tokens);
+    }
+
+    private Object invokeProperty(Object obj, String name) {
+        if (obj == null || name == null || name.isEmpty()) return null;
+        Class<?> c = obj.getClass();
+        String capital = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        String keyGet = c.getName()+"#get"+capital;
+        String keyIs = c.getName()+"#is"+capital;
+        String keyPlain = c.getName()+"#"+name;
+        try {
+            java.lang.reflect.Method m = methodCache.getIfPresent(keyGet);
+            if (m == null) { m = c.getMethod("get" + capital); methodCache.put(keyGet, m); }
+            return m.invoke(obj);
+        } catch (Exception ignored) {}
+        try {
+            java.lang.reflect.Method m = methodCache.getIfPresent(keyIs);
+            if (m == null) { m = c.getMethod("is" + capital); methodCache.put(keyIs, m); }
+            return m.invoke(obj);
+        } catch (Exception ignored) {}
+        try {
+            java.lang.reflect.Method m = methodCache.getIfPresent(keyPlain);
+            if (m == null) { m = c.getMethod(name); methodCache.put(keyPlain, m); }
+            if (m.getParameterCount()==0) return m.invoke(obj);
+        } catch (Exception ignored) {}
+        return null;
+    }
+
+    private RepeatPlan compileRepeatPlan(String html) {
+        boolean hasRepeat = html.contains("data-repeat-over");
+        boolean hasPlaceholders = html.contains("${");
+        if (!hasRepeat) {
+            return new RepeatPlan(hasRepeat, hasPlaceholders, java.util.Collections.emptyList(), parseString(html));
+        }
+        java.util.List<RepeatSegment> segments = new java.util.ArrayList<>();
+        java.util.regex.Matcher rm = REPEAT_BLOCK_PATTERN.matcher(html);
+        int last = 0;
+        while (rm.find()) {
+            String prefix = html.substring(last, rm.start());
+            String openingTag = rm.group(1);
+            String collectionPath = rm.group(4);
+            String varName = rm.group(5);
+            String inner = rm.group(6);
+            String closingTag = "</" + rm.group(2) + ">";
+            String strippedOpening = openingTag
+                    .replace("data-repeat-over=\"" + collectionPath + "\"", "")
+                    .replace("data-repeat-var=\"" + varName + "\"", "");
+            segments.add(new RepeatSegment(parseString(prefix), strippedOpening, closingTag, collectionPath, varName, parseString(inner)));
+            last = rm.end();
+        }
+        String tail = html.substring(last);
+        return new RepeatPlan(true, hasPlaceholders, java.util.Collections.unmodifiableList(segments), parseString(tail));
+    }
+
+    private record Token(boolean isPlaceholder, String content) {}
+    private record ParsedString(java.util.List<Token> tokens) {}
+
+    private record RepeatPlan(boolean hasRepeat, boolean hasPlaceholders,
+                              java.util.List<RepeatSegment> segments, ParsedString tail) { }
+
+    private record RepeatSegment(ParsedString prefix, String openingTagStripped, String closingTag,
+                                 String collectionPath, String varName, ParsedString inner) { }
+}
@@ -0,0 +1,157 @@
+package nl.infomedics.reporting.service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import nl.infomedics.invoicing.model.BatchConversionResponse;
+import nl.infomedics.invoicing.model.BatchConversionResultItem;
+import nl.infomedics.invoicing.model.BatchWireFormat;
+import nl.infomedics.reporting.io.SegmentedBuffer;
+
+/**
+ * Rendered batch whose PDFs are still held in pooled segments, so a transport can drain them straight into its
+ * response instead of copying each into one array first. Close the batch once it has been written to hand the
+ * segments back to the pool.
+ *
+ * @param results    one result per item, in request order
+ * @param generatedAt when rendering finished
+ */
+public record RenderedBatch(List<Item> results, Instant generatedAt) implements AutoCloseable {
+
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * @param outputId id of the item
+     * @param pdf      rendered PDF, or {@code null} when the item failed
+     * @param error    failure message, or {@code null} on success
+     */
+    public record Item(String outputId, SegmentedBuffer pdf, String error) implements BatchWireFormat.Result {
+
+        @Override
+        public long pdfSize() {
+            return pdf != null ? pdf.size() : -1;
+        }
+
+        @Override
+        public void writePdf(OutputStream target) throws IOException {
+            pdf.writeTo(target);
+        }
+    }
+
+    /**
+     * Writes the batch as {@value BatchWireFormat#MEDIA_TYPE}.
+     */
+    public void writeBinary(OutputStream target) throws IOException {
+        BatchWireFormat.writeResponse(generatedAt, results, target);
+    }
+
+    /**
+     * Writes the batch as the JSON form of {@link BatchConversionResponse}, Base64-encoding each PDF while it is
+     * drained.
+     */
+    public void writeJson(OutputStream target) throws IOException {
+        OutputStream out = new BufferedOutputStream(target, 64 * 1024);
+        out.write('{');
+        writeField(out, "results");
+        out.write('[');
+        for (int i = 0; i < results.size(); i++) {
+            Item item = results.get(i);
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write('{');
+            writeField(out, "outputId");
+            writeString(out, item.outputId());
+            out.write(',');
+            writeField(out, "pdfContent");
+            if (item.pdf() == null) {
+                out.write(NULL);
+            } else {
+                out.write('"');
+                // Closing the encoder writes its padding; it must not close the response along with it
+                try (OutputStream base64 = Base64.getEncoder().wrap(new UnclosableOutputStream(out))) {
+                    item.pdf().writeTo(base64);
+                }
+                out.write('"');
+            }
+            out.write(',');
+            writeField(out, "error");
+            writeString(out, item.error());
+            out.write('}');
+        }
+        out.write(']');
+        out.write(',');
+        writeField(out, "generatedAt");
+        writeString(out, generatedAt != null ? generatedAt.toString() : null);
+        out.write('}');
+        out.flush();
+    }
+
+    /**
+     * Copies the PDFs into a {@link BatchConversionResponse}, for callers that need them as arrays.
+     */
+    public BatchConversionResponse toResponse() {
+        List<BatchConversionResultItem> items = new ArrayList<>(results.size());
+        for (Item item : results) {
+            items.add(new BatchConversionResultItem(item.outputId(),
+                    item.pdf() != null ? item.pdf().toByteArray() : null, item.error()));
+        }
+        return new BatchConversionResponse(items, generatedAt);
+    }
+
+    @Override
+    public void close() {
+        for (Item item : results) {
+            if (item.pdf() != null) {
+                item.pdf().close();
+            }
+        }
+    }
+
+    private static void writeField(OutputStream out, String name) throws IOException {
+        writeString(out, name);
+        out.write(':');
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.write(NULL);
+            return;
+        }
+        out.write('"');
+        out.write(JsonStringEncoder.getInstance().quoteAsUTF8(value));
+        out.write('"');
+    }
+
+    private static final class UnclosableOutputStream extends OutputStream {
+
+        private final OutputStream target;
+
+        UnclosableOutputStream(OutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+        }
+
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            target.write(data, offset, length);
+        }
+
+        @Override
+        public void close() {
+            // The target stays open
+        }
+    }
+}
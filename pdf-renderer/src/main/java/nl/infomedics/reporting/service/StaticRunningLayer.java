@@ -0,0 +1,411 @@
+package nl.infomedics.reporting.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.multipdf.LayerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.form.PDFormXObject;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Static part of a template's running page headers and footers ({@code position: running(...)}),
+ * pre-rendered once per template and stamped onto every page as a shared Form XObject.
+ * <p>
+ * A running element without placeholders is removed from each per-debtor document entirely. When a
+ * running element mixes static and placeholder blocks, only its placeholder-free child blocks are taken
+ * over by the layer; they stay in the per-debtor layout but are hidden so they are not painted twice.
+ * Partial running elements are only accepted when every dynamic sibling has a fixed inline height, which
+ * keeps the layout of the pre-rendered layer identical to the per-debtor layout. A template is not eligible when a
+ * later element takes over the running name of a leading one, as later pages would then show different content.
+ */
+@Slf4j
+public final class StaticRunningLayer {
+
+    /**
+     * Layer used when a template has no static running content.
+     */
+    public static final StaticRunningLayer NONE = new StaticRunningLayer(List.of(), null);
+
+    private static final Pattern CSS_COMMENT_PATTERN = Pattern.compile("/\\*.*?\\*/", Pattern.DOTALL);
+    private static final Pattern CSS_RULE_PATTERN = Pattern.compile("([^{}]+)\\{([^{}]*)}");
+    private static final Pattern RUNNING_POSITION_PATTERN = Pattern.compile(
+            "position\\s*:\\s*running\\(\\s*([\\w-]+)\\s*\\)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SIMPLE_CLASS_SELECTOR = Pattern.compile("\\.([\\w-]+)");
+    private static final Pattern PAGE_SELECTOR_PATTERN = Pattern.compile("@page\\s*[^\\s{]");
+    private static final Pattern FIXED_HEIGHT_PATTERN = Pattern.compile("(^|;)\\s*height\\s*:", Pattern.CASE_INSENSITIVE);
+    private static final String HIDDEN_STYLE = "visibility:hidden;";
+
+    private final List<RunningBlock> blocks;
+    private final byte[] layerPdf;
+    /** The layer page parsed on first use; guarded by {@code this}, as PDFBox documents are not thread-safe. */
+    private PDDocument parsedLayer;
+
+    private StaticRunningLayer(List<RunningBlock> blocks, byte[] layerPdf) {
+        this.blocks = blocks;
+        this.layerPdf = layerPdf;
+    }
+
+    /**
+     * @return {@code true} when there is no pre-rendered static content to stamp
+     */
+    public boolean isEmpty() {
+        return blocks.isEmpty() || layerPdf == null;
+    }
+
+    /**
+     * @return approximate retained size in bytes, used to weigh cache entries; counts the parsed layer as well
+     */
+    public int weight() {
+        return layerPdf == null ? 0 : layerPdf.length * 2;
+    }
+
+    /**
+     * Determines which running elements (or child blocks of them) of a template are placeholder-free.
+     *
+     * @param template parsed, unresolved template
+     * @param templateHtml raw template markup, used for page-level CSS checks
+     * @return list of static running blocks; empty when the template is not eligible
+     */
+    static List<RunningBlock> findStaticBlocks(Document template, String templateHtml) {
+        if (template == null || templateHtml == null) {
+            return List.of();
+        }
+        // Page counters, :first/:left/:right and named pages make margin boxes differ between pages
+        if (templateHtml.contains("counter(") || PAGE_SELECTOR_PATTERN.matcher(templateHtml).find()) {
+            return List.of();
+        }
+        Map<String, String> runningNames = findRunningClasses(template);
+        if (runningNames.isEmpty()) {
+            return List.of();
+        }
+        Element body = findBody(template);
+        if (body == null) {
+            return List.of();
+        }
+        List<Element> children = childElements(body);
+        List<RunningBlock> blocks = new ArrayList<>();
+        Set<String> leadingNames = new LinkedHashSet<>();
+        int bodyIndex = 0;
+        // Only leading running elements apply from the first page on, which is where the layer is rendered
+        for (; bodyIndex < children.size(); bodyIndex++) {
+            Element child = children.get(bodyIndex);
+            String runningClass = matchRunningClass(child, runningNames.keySet());
+            if (runningClass == null) {
+                break;
+            }
+            leadingNames.add(runningNames.get(runningClass));
+            RunningBlock block = analyseRunningElement(child, bodyIndex);
+            if (block != null) {
+                blocks.add(block);
+            }
+        }
+        // An element further down that re-declares a leading name replaces it from its page on
+        for (Element child : children.subList(bodyIndex, children.size())) {
+            if (redeclaresRunningName(child, runningNames, leadingNames)) {
+                return List.of();
+            }
+        }
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * Reduces a copy of the template to its static running content so it can be rendered once.
+     *
+     * @param layerDocument copy of the parsed template; mutated in place
+     * @param blocks static blocks returned by {@link #findStaticBlocks(Document, String)}
+     */
+    static void reduceToLayer(Document layerDocument, List<RunningBlock> blocks) {
+        Element body = findBody(layerDocument);
+        if (body == null) {
+            return;
+        }
+        List<Element> children = childElements(body);
+        for (int i = 0; i < children.size(); i++) {
+            Element child = children.get(i);
+            RunningBlock block = blockAt(blocks, i);
+            if (block == null) {
+                body.removeChild(child);
+                continue;
+            }
+            if (block.fullyStatic()) {
+                continue;
+            }
+            List<Element> parts = childElements(child);
+            for (int p = 0; p < parts.size(); p++) {
+                if (!block.staticChildren().contains(p)) {
+                    hide(parts.get(p));
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the layer from the rendered static content.
+     *
+     * @param blocks static blocks of the template
+     * @param layerPdf single-page PDF holding the static running content
+     * @return layer ready to be applied to per-debtor documents
+     */
+    static StaticRunningLayer of(List<RunningBlock> blocks, byte[] layerPdf) {
+        if (blocks == null || blocks.isEmpty() || layerPdf == null || layerPdf.length == 0) {
+            return NONE;
+        }
+        return new StaticRunningLayer(blocks, layerPdf);
+    }
+
+    /**
+     * Removes or hides the static running content in a resolved per-debtor document.
+     *
+     * @param document resolved document about to be rendered
+     * @return {@code true} if the document matched the template structure and the layer must be stamped
+     */
+    boolean strip(Document document) {
+        if (isEmpty() || document == null) {
+            return false;
+        }
+        Element body = findBody(document);
+        if (body == null) {
+            return false;
+        }
+        List<Element> children = childElements(body);
+        for (RunningBlock block : blocks) {
+            if (block.bodyIndex() >= children.size()) {
+                return false;
+            }
+        }
+        for (RunningBlock block : blocks) {
+            Element running = children.get(block.bodyIndex());
+            if (block.fullyStatic()) {
+                body.removeChild(running);
+                continue;
+            }
+            List<Element> parts = childElements(running);
+            for (int index : block.staticChildren()) {
+                if (index < parts.size()) {
+                    hide(parts.get(index));
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Draws the pre-rendered static layer on every page of the target document as a marked artifact.
+     * The layer is parsed once per template and imported once per document, so all pages share a single Form XObject.
+     *
+     * @param target document produced by the renderer, before it is saved
+     * @throws IOException when the layer cannot be imported
+     */
+    void stampOnto(PDDocument target) throws IOException {
+        if (isEmpty() || target == null || target.getNumberOfPages() == 0) {
+            return;
+        }
+        PDRectangle layerBox;
+        PDFormXObject form;
+        // The import copies the layer into the target, which then no longer shares anything with the parsed layer
+        synchronized (this) {
+            if (parsedLayer == null) {
+                parsedLayer = PDDocument.load(layerPdf);
+            }
+            layerBox = parsedLayer.getPage(0).getMediaBox();
+            form = new LayerUtility(target).importPageAsForm(parsedLayer, 0);
+        }
+        for (PDPage page : target.getPages()) {
+            PDRectangle pageBox = page.getMediaBox();
+            if (Math.abs(pageBox.getWidth() - layerBox.getWidth()) > 0.5f
+                    || Math.abs(pageBox.getHeight() - layerBox.getHeight()) > 0.5f) {
+                log.warn("Static running layer size {}x{} does not match page size {}x{}; stamping anyway.",
+                        layerBox.getWidth(), layerBox.getHeight(), pageBox.getWidth(), pageBox.getHeight());
+            }
+            try (PDPageContentStream content = new PDPageContentStream(target, page,
+                    PDPageContentStream.AppendMode.APPEND, true, true)) {
+                content.beginMarkedContent(COSName.ARTIFACT);
+                content.drawForm(form);
+                content.endMarkedContent();
+            }
+        }
+    }
+
+    private static RunningBlock analyseRunningElement(Element running, int bodyIndex) {
+        if (!containsPlaceholder(running)) {
+            return new RunningBlock(bodyIndex, true, Set.of());
+        }
+        if (running.hasAttribute("data-repeat-over") || hasRepeatDescendant(running)) {
+            return null;
+        }
+        List<Element> parts = childElements(running);
+        Set<Integer> staticChildren = new LinkedHashSet<>();
+        for (int i = 0; i < parts.size(); i++) {
+            Element part = parts.get(i);
+            if (!containsPlaceholder(part)) {
+                staticChildren.add(i);
+            } else if (!hasFixedHeight(part)) {
+                // A flowing dynamic block could move the static blocks around it
+                return null;
+            }
+        }
+        if (staticChildren.isEmpty()) {
+            return null;
+        }
+        return new RunningBlock(bodyIndex, false, Collections.unmodifiableSet(staticChildren));
+    }
+
+    private static boolean hasRepeatDescendant(Element element) {
+        NodeList descendants = element.getElementsByTagName("*");
+        for (int i = 0; i < descendants.getLength(); i++) {
+            if (descendants.item(i) instanceof Element e && e.hasAttribute("data-repeat-over")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasFixedHeight(Element element) {
+        return FIXED_HEIGHT_PATTERN.matcher(element.getAttribute("style")).find();
+    }
+
+    private static boolean containsPlaceholder(Node node) {
+        if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) {
+            return containsPlaceholderMarker(node.getNodeValue());
+        }
+        NamedNodeMap attributes = node.getAttributes();
+        if (attributes != null) {
+            for (int i = 0; i < attributes.getLength(); i++) {
+                if (containsPlaceholderMarker(attributes.item(i).getNodeValue())) {
+                    return true;
+                }
+            }
+        }
+        NodeList children = node.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (containsPlaceholder(children.item(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsPlaceholderMarker(String value) {
+        // Placeholders may be split over inline markup, so a lone "${" is enough to treat the block as dynamic
+        return value != null && value.contains("${");
+    }
+
+    private static boolean redeclaresRunningName(Element element, Map<String, String> runningNames,
+                                                 Set<String> leadingNames) {
+        String runningClass = matchRunningClass(element, runningNames.keySet());
+        if (runningClass != null && leadingNames.contains(runningNames.get(runningClass))) {
+            return true;
+        }
+        for (Element child : childElements(element)) {
+            if (redeclaresRunningName(child, runningNames, leadingNames)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return running element name by the class that declares it
+     */
+    private static Map<String, String> findRunningClasses(Document template) {
+        Map<String, String> classes = new LinkedHashMap<>();
+        NodeList styles = template.getElementsByTagName("style");
+        if (styles.getLength() == 0) {
+            styles = template.getElementsByTagNameNS("*", "style");
+        }
+        for (int i = 0; i < styles.getLength(); i++) {
+            String css = CSS_COMMENT_PATTERN.matcher(styles.item(i).getTextContent()).replaceAll(" ");
+            Matcher rules = CSS_RULE_PATTERN.matcher(css);
+            while (rules.find()) {
+                Matcher running = RUNNING_POSITION_PATTERN.matcher(rules.group(2));
+                if (!running.find()) {
+                    continue;
+                }
+                for (String selector : rules.group(1).split(",")) {
+                    Matcher simple = SIMPLE_CLASS_SELECTOR.matcher(selector.trim());
+                    if (simple.matches()) {
+                        classes.put(simple.group(1), running.group(1).toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+        }
+        return classes;
+    }
+
+    private static String matchRunningClass(Element element, Set<String> runningClasses) {
+        for (String token : element.getAttribute("class").trim().split("\\s+")) {
+            if (runningClasses.contains(token)) {
+                return token;
+            }
+        }
+        return null;
+    }
+
+    private static Element findBody(Document document) {
+        NodeList bodies = document.getElementsByTagName("body");
+        if (bodies.getLength() == 0) {
+            bodies = document.getElementsByTagNameNS("*", "body");
+        }
+        return bodies.getLength() > 0 && bodies.item(0) instanceof Element body ? body : null;
+    }
+
+    private static List<Element> childElements(Element parent) {
+        List<Element> elements = new ArrayList<>();
+        NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element element) {
+                elements.add(element);
+            }
+        }
+        return elements;
+    }
+
+    private static RunningBlock blockAt(List<RunningBlock> blocks, int bodyIndex) {
+        for (RunningBlock block : blocks) {
+            if (block.bodyIndex() == bodyIndex) {
+                return block;
+            }
+        }
+        return null;
+    }
+
+    private static void hide(Element element) {
+        String style = element.getAttribute("style").trim();
+        if (style.toLowerCase(Locale.ROOT).contains(HIDDEN_STYLE)) {
+            return;
+        }
+        if (!style.isEmpty() && !style.endsWith(";")) {
+            style += ";";
+        }
+        element.setAttribute("style", style + HIDDEN_STYLE);
+    }
+
+    /**
+     * Static content of one leading running element.
+     *
+     * @param bodyIndex      element index of the running element among the body children
+     * @param fullyStatic    whether the whole running element is placeholder-free
+     * @param staticChildren element indexes of the placeholder-free child blocks when only partially static
+     */
+    record RunningBlock(int bodyIndex, boolean fullyStatic, Set<Integer> staticChildren) { }
+}
@@ -0,0 +1,170 @@
+package nl.infomedics.reporting.service;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Describes which renderer features a template relies on, so the PDF builder only installs what is needed.
+ *
+ * @param usesSvg      whether inline SVG or SVG images occur and the Batik drawer is required
+ * @param usesObjects  whether {@code <object>} elements occur and the ZXing object factory is required
+ * @param fontFamilies lower-case font family names referenced by the template, or {@code null} when every
+ *                     embedded font must be registered
+ * @param staticLayer  pre-rendered static running header/footer content, or {@link StaticRunningLayer#NONE}
+ * @param syntax       parser the template markup needs; documents resolved from it are parsed the same way
+ */
+public record TemplateFeatures(boolean usesSvg, boolean usesObjects, Set<String> fontFamilies,
+                               StaticRunningLayer staticLayer, XhtmlDocumentParser.Syntax syntax) {
+
+    /**
+     * Profile that enables every renderer feature; used when no template analysis is available.
+     */
+    public static final TemplateFeatures ALL = new TemplateFeatures(true, true, null);
+
+    private static final Pattern FONT_FAMILY_PATTERN = Pattern.compile(
+            "font-family\\s*:\\s*((?:&quot;|&#39;|[^;}<>])+)", Pattern.CASE_INSENSITIVE);
+    /** The {@code font} shorthand; the lookbehind keeps {@code font-family} and vendor prefixes out. */
+    private static final Pattern FONT_SHORTHAND_PATTERN = Pattern.compile(
+            "(?<![-\\w])font\\s*:\\s*((?:&quot;|&#39;|[^;}<>])+)", Pattern.CASE_INSENSITIVE);
+    /** Font size, optionally with a line height, after which the shorthand lists the families. */
+    private static final Pattern SHORTHAND_SIZE_PATTERN = Pattern.compile(
+            "(?:^|\\s)(?:[\\d.]+(?:px|pt|pc|em|rem|ex|ch|%|cm|mm|in|q|vw|vh|vmin|vmax)"
+                    + "|xx-small|x-small|small|medium|large|x-large|xx-large|smaller|larger)"
+                    + "(?:\\s*/\\s*\\S+)?\\s+(\\S.*)$", Pattern.CASE_INSENSITIVE);
+    /** Stylesheets the scan cannot see into. */
+    private static final Pattern EXTERNAL_STYLESHEET_PATTERN = Pattern.compile(
+            "@import|<link[^>]*stylesheet", Pattern.CASE_INSENSITIVE);
+    private static final Set<String> SYSTEM_FONT_KEYWORDS = Set.of(
+            "caption", "icon", "menu", "message-box", "small-caption", "status-bar");
+    private static final Pattern FONT_FACE_ATTR_PATTERN = Pattern.compile(
+            "<font[^>]*?\\sface\\s*=\\s*[\"']([^\"']+)[\"']", Pattern.CASE_INSENSITIVE);
+    private static final Set<String> IGNORED_FAMILY_KEYWORDS = Set.of("inherit", "initial", "unset", "revert");
+
+    public TemplateFeatures {
+        fontFamilies = fontFamilies == null ? null : Collections.unmodifiableSet(new LinkedHashSet<>(fontFamilies));
+        staticLayer = staticLayer == null ? StaticRunningLayer.NONE : staticLayer;
+        syntax = syntax == null ? XhtmlDocumentParser.Syntax.XML : syntax;
+    }
+
+    public TemplateFeatures(boolean usesSvg, boolean usesObjects, Set<String> fontFamilies) {
+        this(usesSvg, usesObjects, fontFamilies, StaticRunningLayer.NONE, XhtmlDocumentParser.Syntax.XML);
+    }
+
+    /**
+     * @param layer pre-rendered static running content of the template
+     * @return copy of this profile carrying the given static layer
+     */
+    public TemplateFeatures withStaticLayer(StaticRunningLayer layer) {
+        return new TemplateFeatures(usesSvg, usesObjects, fontFamilies, layer, syntax);
+    }
+
+    /**
+     * @param markupSyntax parser the template markup turned out to need
+     * @return copy of this profile carrying the given syntax
+     */
+    public TemplateFeatures withSyntax(XhtmlDocumentParser.Syntax markupSyntax) {
+        return new TemplateFeatures(usesSvg, usesObjects, fontFamilies, staticLayer, markupSyntax);
+    }
+
+    /**
+     * @return {@code true} when the template could not be narrowed down to a known set of font families
+     */
+    public boolean usesAllFonts() {
+        return fontFamilies == null;
+    }
+
+    /**
+     * Checks whether a font alias is referenced by the template.
+     *
+     * @param alias font alias as registered with the renderer
+     * @return {@code true} if the alias must be registered for this template
+     */
+    public boolean usesFont(String alias) {
+        return fontFamilies == null || (alias != null && fontFamilies.contains(alias.trim().toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * Scans the raw template markup for SVG content, object elements and font family declarations.
+     * The scan is text based and deliberately conservative: anything it cannot classify enables the feature, and fonts
+     * are only narrowed down when no stylesheet is linked or imported.
+     *
+     * @param html template markup
+     * @return detected feature profile
+     */
+    public static TemplateFeatures analyse(String html) {
+        if (html == null || html.isEmpty()) {
+            return ALL;
+        }
+        String lower = html.toLowerCase(Locale.ROOT);
+        boolean usesSvg = lower.contains("<svg") || lower.contains("image/svg") || lower.contains(".svg");
+        boolean usesObjects = lower.contains("<object");
+        // Batik may lay out SVG text with any registered family, so keep the full font set in that case
+        Set<String> families = usesSvg ? null : collectFontFamilies(html);
+        return new TemplateFeatures(usesSvg, usesObjects, families);
+    }
+
+    private static Set<String> collectFontFamilies(String html) {
+        if (EXTERNAL_STYLESHEET_PATTERN.matcher(html).find()) {
+            return null;
+        }
+        Set<String> families = new LinkedHashSet<>();
+        Matcher declarations = FONT_FAMILY_PATTERN.matcher(html);
+        while (declarations.find()) {
+            if (!addFamilies(families, declarations.group(1))) {
+                return null;
+            }
+        }
+        Matcher shorthands = FONT_SHORTHAND_PATTERN.matcher(html);
+        while (shorthands.find()) {
+            if (!addShorthandFamilies(families, shorthands.group(1))) {
+                return null;
+            }
+        }
+        Matcher faces = FONT_FACE_ATTR_PATTERN.matcher(html);
+        while (faces.find()) {
+            if (!addFamilies(families, faces.group(1))) {
+                return null;
+            }
+        }
+        return families;
+    }
+
+    /**
+     * Adds the families at the end of a {@code font} shorthand, returning {@code false} when they cannot be told apart
+     * from the other parts of the value.
+     */
+    private static boolean addShorthandFamilies(Set<String> families, String declaration) {
+        String value = declaration.replace("!important", "").trim();
+        String keyword = value.toLowerCase(Locale.ROOT);
+        if (SYSTEM_FONT_KEYWORDS.contains(keyword) || IGNORED_FAMILY_KEYWORDS.contains(keyword)) {
+            return true;
+        }
+        Matcher size = SHORTHAND_SIZE_PATTERN.matcher(value);
+        return size.find() && addFamilies(families, size.group(1));
+    }
+
+    /**
+     * Adds each family of a CSS font-family list, returning {@code false} when the value is dynamic.
+     */
+    private static boolean addFamilies(Set<String> families, String declaration) {
+        String value = declaration.replace("&quot;", "\"").replace("&#39;", "'");
+        if (value.contains("${") || value.contains("var(")) {
+            return false;
+        }
+        for (String part : value.split(",")) {
+            String family = part.replace("\"", "").replace("'", "").replace("!important", "").trim();
+            if (family.isEmpty()) {
+                continue;
+            }
+            String normalised = family.toLowerCase(Locale.ROOT);
+            if (!IGNORED_FAMILY_KEYWORDS.contains(normalised)) {
+                families.add(normalised);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,131 @@
+package nl.infomedics.reporting.service;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.infomedics.reporting.cache.BoundedCacheFactory;
+import nl.infomedics.reporting.cache.CacheSpec;
+import nl.infomedics.reporting.service.Html2PdfConverterService.HtmlToPdfConversionException;
+import nl.infomedics.reporting.service.Html2PdfConverterService.PreviewRendering;
+
+/**
+ * Produces PNG previews of the leading pages of a template for the template designer, caching the result by
+ * template hash so unchanged templates are served without rendering.
+ */
+@Slf4j
+@Service
+public class TemplatePreviewService {
+
+    private final Html2PdfConverterService converterService;
+    private final int defaultPages;
+    private final int defaultDpi;
+    private final Cache<String, Preview> previewCache;
+
+    public TemplatePreviewService(Html2PdfConverterService converterService,
+                                  @Value("${preview.default-pages:1}") int defaultPages,
+                                  @Value("${preview.default-dpi:96}") int defaultDpi,
+                                  BoundedCacheFactory cacheFactory) {
+        this.converterService = converterService;
+        this.defaultPages = Math.max(1, defaultPages);
+        this.defaultDpi = Math.max(24, defaultDpi);
+        this.previewCache = cacheFactory.create("template-previews",
+                CacheSpec.ofWeight(32L * 1024 * 1024).expireAfterAccess(Duration.ofHours(1)),
+                (String key, Preview preview) -> preview.weight());
+    }
+
+    /**
+     * Renders (or returns the cached) PNG preview of the leading pages of a template.
+     *
+     * @param html  template markup
+     * @param pages requested page count; values below one select the configured default
+     * @param dpi   requested raster resolution; values below one select the configured default
+     * @return preview with one PNG per rendered page
+     * @throws HtmlToPdfConversionException when the template cannot be rendered or rasterised
+     */
+    public Preview preview(String html, int pages, int dpi) throws HtmlToPdfConversionException {
+        int effectivePages = pages > 0 ? pages : defaultPages;
+        int effectiveDpi = dpi > 0 ? dpi : defaultDpi;
+        String key = sha256(html) + ":" + effectivePages + ":" + effectiveDpi;
+        Preview cached = previewCache.getIfPresent(key);
+        if (cached != null) {
+            return cached.asCached();
+        }
+        long start = System.currentTimeMillis();
+        PreviewRendering rendering = converterService.renderPreview(html, effectivePages);
+        Preview preview = new Preview(rasterise(rendering.pdfContent(), effectivePages, effectiveDpi),
+                rendering.totalPages(), false);
+        previewCache.put(key, preview);
+        log.debug("Rendered {}-page template preview at {} dpi in {} ms.",
+                preview.pagePngs().size(), effectiveDpi, System.currentTimeMillis() - start);
+        return preview;
+    }
+
+    private List<byte[]> rasterise(byte[] pdf, int pages, int dpi) throws HtmlToPdfConversionException {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            PDFRenderer renderer = new PDFRenderer(document);
+            renderer.setSubsamplingAllowed(true);
+            int count = Math.min(pages, document.getNumberOfPages());
+            List<byte[]> images = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                BufferedImage image = renderer.renderImageWithDPI(i, dpi, ImageType.RGB);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ImageIO.write(image, "png", out);
+                images.add(out.toByteArray());
+            }
+            return Collections.unmodifiableList(images);
+        } catch (IOException e) {
+            throw new HtmlToPdfConversionException("Unable to rasterise template preview", e);
+        }
+    }
+
+    private static String sha256(String html) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(html.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Rasterised preview pages.
+     *
+     * @param pagePngs   PNG bytes per rendered page
+     * @param totalPages page count of the complete document, or {@code 0} when it runs past the rendered pages and
+     *                   was not laid out to its end
+     * @param cached     whether the preview came from the cache
+     */
+    public record Preview(List<byte[]> pagePngs, int totalPages, boolean cached) {
+        Preview asCached() {
+            return new Preview(pagePngs, totalPages, true);
+        }
+
+        int weight() {
+            int weight = 0;
+            for (byte[] png : pagePngs) {
+                weight += png.length;
+            }
+            return weight;
+        }
+    }
+}
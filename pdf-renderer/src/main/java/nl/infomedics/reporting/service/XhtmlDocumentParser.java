@@ -0,0 +1,126 @@
+package nl.infomedics.reporting.service;
+
+import java.io.StringReader;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.jsoup.Jsoup;
+import org.jsoup.helper.W3CDom;
+import org.w3c.dom.Document;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Turns template markup into the W3C DOM the renderer consumes. Well-formed XHTML goes through the JDK's XML
+ * parser; anything it rejects (designer fragments, HTML5 void elements, a doctype) is parsed with jsoup's
+ * HTML5 tree builder instead. The syntax a template needed is remembered in its {@link TemplateFeatures}, so
+ * documents resolved from a non-XML template go straight to jsoup and no document is parsed twice.
+ */
+@Slf4j
+public final class XhtmlDocumentParser {
+
+    /**
+     * Parser a template's markup is known to need.
+     */
+    public enum Syntax {
+        /** Well-formed XHTML, parsed by the XML parser. */
+        XML,
+        /** Markup that is not well-formed XML, parsed as HTML5. */
+        HTML
+    }
+
+    /**
+     * @param document parsed document
+     * @param syntax   parser that produced it
+     */
+    public record Parsed(Document document, Syntax syntax) { }
+
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = ThreadLocal.withInitial(() -> {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            return factory.newDocumentBuilder();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    /**
+     * Malformed input falls back to the HTML parser; this keeps the default handler from printing it to stderr.
+     */
+    private static final ErrorHandler SILENT_ERRORS = new ErrorHandler() {
+        @Override
+        public void warning(SAXParseException exception) {
+        }
+
+        @Override
+        public void error(SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+    };
+
+    private static final ThreadLocal<W3CDom> W3C_DOM = ThreadLocal.withInitial(W3CDom::new);
+
+    /**
+     * Parses markup with the parser its template is known to need, falling back to HTML5 when markup
+     * expected to be XML turns out not to be well-formed.
+     *
+     * @param markup   markup without byte order mark
+     * @param expected syntax of the template the markup was resolved from
+     * @return parsed document and the syntax that produced it
+     */
+    public Parsed parse(String markup, Syntax expected) {
+        if (expected == Syntax.XML) {
+            try {
+                return new Parsed(parseXml(markup), Syntax.XML);
+            } catch (SAXException ex) {
+                log.debug("Markup is not well-formed XML ({}); parsing it as HTML5.", ex.getMessage());
+            }
+        }
+        return new Parsed(parseHtml(markup), Syntax.HTML);
+    }
+
+    /**
+     * Parses well-formed XHTML with the XML parser.
+     *
+     * @param markup markup without byte order mark
+     * @return parsed document
+     * @throws SAXException when the markup is not well-formed XML
+     */
+    public Document parseXml(String markup) throws SAXException {
+        DocumentBuilder builder = DOCUMENT_BUILDER.get();
+        builder.reset();
+        builder.setErrorHandler(SILENT_ERRORS);
+        try {
+            Document document = builder.parse(new InputSource(new StringReader(markup)));
+            document.getDocumentElement().normalize();
+            return document;
+        } catch (java.io.IOException ex) {
+            throw new java.io.UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Parses markup with jsoup's HTML5 tree builder and converts the result to a namespace-aware W3C DOM in
+     * the XHTML namespace.
+     *
+     * @param markup markup without byte order mark
+     * @return parsed document
+     */
+    public Document parseHtml(String markup) {
+        return W3C_DOM.get().fromJsoup(Jsoup.parse(markup));
+    }
+}
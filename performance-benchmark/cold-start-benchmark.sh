@@ -0,0 +1,71 @@
+#!/bin/bash
+# Measures pdf-creator cold start: the time from launching the JVM until the first converted PDF is returned,
+# once from the plain executable jar and once from the AOT cache built with `mvn -Paot-cache package`.
+# The render warmup is disabled, so the first request pays the full class loading and linking cost.
+#
+# Usage: ./cold-start-benchmark.sh [runs] [port]
+
+RUNS=${1:-5}
+PORT=${2:-6971}
+PDF_CREATOR_DIR="../pdf-creator"
+JAR="pdf-creator-0.0.1-SNAPSHOT-exec.jar"
+AOT_DIR="$PDF_CREATOR_DIR/target/aot"
+URL="https://localhost:$PORT/api/v1/pdf/convert-batch"
+BODY='{"html":"<html xmlns=\"http://www.w3.org/1999/xhtml\"><body><p>${debiteur.patientName}</p></body></html>","includeSanitisedXhtml":false,"items":[{"outputId":"cold-start","jsonModel":{"debiteur":{"patientName":"J. Jansen"}}}]}'
+
+if [ -n "$JAVA_HOME25" ]; then
+    export JAVA_HOME="$JAVA_HOME25"
+    export PATH="$JAVA_HOME/bin:$PATH"
+fi
+
+if [ -f "$AOT_DIR/pdf-creator.aot" ]; then
+    AOT_OPTION="-XX:AOTCache=$AOT_DIR/pdf-creator.aot"
+elif [ -f "$AOT_DIR/pdf-creator.jsa" ]; then
+    AOT_OPTION="-XX:SharedArchiveFile=$AOT_DIR/pdf-creator.jsa"
+else
+    echo "No AOT cache in $AOT_DIR; build it first with: (cd $PDF_CREATOR_DIR && mvn -Paot-cache package)"
+    exit 1
+fi
+
+# Prints the milliseconds from launch until the first successful conversion
+time_to_first_pdf() {
+    local start end pid
+    start=$(date +%s%N)
+    java ${JAVA_OPTS:-} "$@" --server.port=$PORT --warmup.enabled=false > /dev/null 2>&1 &
+    pid=$!
+    for _ in $(seq 1 1200); do
+        if curl -sk -o /dev/null -w "%{http_code}" -H "Content-Type: application/json" -d "$BODY" "$URL" 2>/dev/null | grep -q 200; then
+            end=$(date +%s%N)
+            kill $pid 2>/dev/null
+            wait $pid 2>/dev/null
+            echo $(( (end - start) / 1000000 ))
+            return 0
+        fi
+        sleep 0.05
+    done
+    kill -9 $pid 2>/dev/null
+    echo "timeout"
+    return 1
+}
+
+run_mode() {
+    local label=$1; shift
+    local total=0 count=0 ms
+    for i in $(seq 1 "$RUNS"); do
+        ms=$(time_to_first_pdf "$@")
+        echo "  $label run $i: $ms ms"
+        if [[ "$ms" =~ ^[0-9]+$ ]]; then
+            total=$((total + ms))
+            count=$((count + 1))
+        fi
+    done
+    if [ $count -gt 0 ]; then
+        echo "$label average: $((total / count)) ms over $count runs"
+    fi
+}
+
+echo "Time to first converted PDF ($RUNS runs each)"
+PLAIN=$(run_mode "plain" -jar "$PDF_CREATOR_DIR/target/$JAR")
+echo "$PLAIN"
+AOT=$(run_mode "aot-cache" "$AOT_OPTION" -jar "$AOT_DIR/$JAR")
+echo "$AOT"
@@ -0,0 +1,46 @@
+package nl.infomedics.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Document;
+import nl.infomedics.reporting.service.XhtmlDocumentParser;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two parse paths of pdf-creator on real templates: the JDK XML {@code DocumentBuilder} used for
+ * well-formed XHTML, and jsoup's HTML5 parser plus W3C DOM conversion used for everything else.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(value = Mode.AverageTime)
+@OutputTimeUnit(value = TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1)
+@Threads(value = 1)
+public class DocumentParserBenchmark {
+
+    private final XhtmlDocumentParser parser = new XhtmlDocumentParser();
+    private String markup;
+
+    @Param({"factuur-1", "factuur-20"})
+    private String template;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        // Use templates from the sibling module
+        String html = Files.readString(Path.of("../invoice-parser/for-pdf", template + ".html"));
+        markup = !html.isEmpty() && html.charAt(0) == '﻿' ? html.substring(1) : html;
+    }
+
+    @Benchmark
+    public Document xmlDocumentBuilder() throws Exception {
+        return parser.parseXml(markup);
+    }
+
+    @Benchmark
+    public Document jsoupW3cDom() {
+        return parser.parseHtml(markup);
+    }
+}
@@ -0,0 +1,92 @@
+package nl.infomedics.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.core.env.StandardEnvironment;
+import io.micrometer.core.instrument.MeterRegistry;
+import nl.infomedics.reporting.cache.BoundedCacheFactory;
+import nl.infomedics.reporting.io.SegmentPool;
+import nl.infomedics.reporting.metrics.DiagnosticsRecorder;
+import nl.infomedics.reporting.service.FontRegistry;
+import nl.infomedics.reporting.service.Html2PdfConverterService;
+import nl.infomedics.reporting.service.Html2PdfConverterService.PdfConversionResult;
+import nl.infomedics.reporting.service.PdfMemoryPolicy;
+import nl.infomedics.reporting.service.TemplateFeatures;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders 1-, 10- and 100-page invoices in-process with each PDFBox memory policy of pdf-creator.
+ * Run with {@code -prof gc} to compare allocation per document and GC counts alongside throughput, e.g.
+ * {@code java -jar target/benchmarks.jar PdfMemoryPolicyBenchmark -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(value = Mode.Throughput)
+@OutputTimeUnit(value = TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 5, timeUnit = TimeUnit.SECONDS)
+// Same heap ceiling as pdf-creator/start.bat, so large documents put comparable pressure on the collector
+@Fork(value = 1, jvmArgsAppend = {"-Xmx512m", "-Xms256m", "-XX:+UseG1GC"})
+@Threads(value = 4)
+public class PdfMemoryPolicyBenchmark {
+
+    private static final int ROWS_PER_PAGE = 38;
+
+    private Html2PdfConverterService converter;
+    private String html;
+    private TemplateFeatures features;
+
+    @Param({"1", "10", "100"})
+    private int pages;
+
+    @Param({"MAIN_MEMORY", "MIXED", "TEMP_FILE"})
+    private String memoryMode;
+
+    @Param({"1048576"})
+    private long maxMainMemoryBytes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        System.setProperty("xr.util-logging.loggingEnabled", "false");
+        FontRegistry fontRegistry = new FontRegistry();
+        fontRegistry.preloadEmbeddedFonts();
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        DiagnosticsRecorder diagnostics = new DiagnosticsRecorder(beanFactory.getBeanProvider(MeterRegistry.class), false);
+        BoundedCacheFactory cacheFactory = new BoundedCacheFactory(beanFactory.getBeanProvider(MeterRegistry.class),
+                new StandardEnvironment());
+        PdfMemoryPolicy memoryPolicy = new PdfMemoryPolicy(memoryMode, maxMainMemoryBytes, 0, "");
+        converter = new Html2PdfConverterService(fontRegistry, 16, diagnostics, false, cacheFactory,
+                new SegmentPool(512), memoryPolicy);
+        html = invoice(pages * ROWS_PER_PAGE);
+        features = converter.analyseTemplate(html);
+    }
+
+    @Benchmark
+    public void render(Blackhole blackhole) throws Exception {
+        try (PdfConversionResult result = converter.convertHtmlToPdf(html, false, features)) {
+            blackhole.consume(result.pdf().size());
+        }
+    }
+
+    /**
+     * Builds an XHTML invoice with a treatment table of the given number of rows.
+     */
+    private static String invoice(int rows) {
+        StringBuilder sb = new StringBuilder(rows * 256 + 2048);
+        sb.append("<!DOCTYPE html><html xmlns=\"http://www.w3.org/1999/xhtml\"><head><title>Factuur</title>")
+          .append("<style>@page { size: A4; margin: 20mm; } body { font-family: sans-serif; font-size: 9pt; }")
+          .append("table { width: 100%; border-collapse: collapse; } td, th { border-bottom: 0.5pt solid #999; padding: 2pt; }")
+          .append(".amount { text-align: right; }</style></head><body>")
+          .append("<h1>Factuur 2025-000123</h1><p>Debiteur: J. Jansen, Dorpsstraat 1, 1234 AB Amsterdam</p>")
+          .append("<table><thead><tr><th>Datum</th><th>Code</th><th>Omschrijving</th><th class=\"amount\">Bedrag</th></tr></thead><tbody>");
+        for (int i = 0; i < rows; i++) {
+            sb.append("<tr><td>").append(String.format("%02d-%02d-2025", 1 + i % 28, 1 + i % 12))
+              .append("</td><td>").append(2044 + i % 7)
+              .append("</td><td>Behandeling ").append(i + 1).append(" volgens zorgplan, consult en verrichting")
+              .append("</td><td class=\"amount\">").append(String.format("%d,%02d", 10 + i % 90, i % 100))
+              .append("</td></tr>");
+        }
+        sb.append("</tbody></table><p>Totaal te betalen binnen 30 dagen.</p></body></html>");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,225 @@
+package nl.infomedics.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import nl.infomedics.invoicing.metrics.DiagnosticsRecorder;
+import nl.infomedics.invoicing.model.BatchConversionItem;
+import nl.infomedics.invoicing.model.BatchConversionRequest;
+import nl.infomedics.invoicing.model.BatchConversionResponse;
+import nl.infomedics.invoicing.model.BatchConversionResultItem;
+import nl.infomedics.invoicing.model.BatchWireFormat;
+import nl.infomedics.invoicing.model.Debiteur;
+import nl.infomedics.invoicing.model.DebiteurWithPractitioner;
+import nl.infomedics.invoicing.service.PdfRenderer;
+import nl.infomedics.invoicing.service.UnixSocketPdfClient;
+import nl.infomedics.invoicing.service.Xhtml2PdfClient;
+import nl.infomedics.reporting.io.SegmentPool;
+import nl.infomedics.reporting.io.SegmentedBuffer;
+import nl.infomedics.reporting.service.BatchPdfRenderer;
+import nl.infomedics.reporting.service.RenderedBatch;
+import nl.infomedics.xhtml2pdf.web.UnixSocketConversionListener;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+/**
+ * Compares the transport cost between invoice-parser and pdf-creator: {@code Xhtml2PdfClient} over HTTPS on
+ * loopback TCP against {@code UnixSocketPdfClient} talking to pdf-creator's {@code UnixSocketConversionListener}.
+ * Both servers answer with the same canned batch response (85 KB per PDF), serialised per request, so rendering is
+ * left out and only framing, TLS and the socket path are measured, once with JSON and once with
+ * {@link BatchWireFormat}. After every iteration the process CPU time per batch is printed, which shows the
+ * encryption and encoding cost that throughput alone hides on an idle machine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(value = Mode.Throughput)
+@OutputTimeUnit(value = TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 5, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 1)
+@Threads(value = 4)
+public class TransportBenchmark {
+
+    private static final int PDF_BYTES = 85 * 1024;
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .registerModule(new com.fasterxml.jackson.datatype.jsr310.JavaTimeModule())
+            .disable(com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    @Param({"https", "uds"})
+    private String transport;
+
+    @Param({"json", "binary"})
+    private String wireFormat;
+
+    @Param({"10", "100"})
+    private int items;
+
+    private PdfRenderer client;
+    private HttpsServer httpsServer;
+    private UnixSocketConversionListener listener;
+    private Path socketDir;
+    private String html;
+    private List<BatchConversionItem> batch;
+    private final AtomicLong batches = new AtomicLong();
+    private long cpuAtIterationStart;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        html = Files.readString(Path.of("../invoice-parser/for-pdf/factuur-20.html"));
+        BatchConversionResponse canned = cannedResponse(items);
+        batch = new ArrayList<>(items);
+        for (int i = 0; i < items; i++) {
+            Debiteur debiteur = new Debiteur();
+            debiteur.setInvoiceNumber(Integer.toString(100_000 + i));
+            debiteur.setPatientName("J. Jansen");
+            debiteur.setStreet("Dorpsstraat");
+            debiteur.setHouseNr(Integer.toString(i));
+            debiteur.setZipCode("1234 AB");
+            debiteur.setCity("AMSTERDAM");
+            debiteur.setInvoiceAmountCents(12345);
+            DebiteurWithPractitioner model = new DebiteurWithPractitioner();
+            model.setDebiteur(debiteur);
+            batch.add(new BatchConversionItem(model, "item-" + i));
+        }
+        DiagnosticsRecorder diagnostics = new DiagnosticsRecorder(
+                new DefaultListableBeanFactory().getBeanProvider(MeterRegistry.class), false);
+        if ("https".equals(transport)) {
+            httpsServer = HttpsServer.create(new InetSocketAddress("localhost", 0), 0);
+            httpsServer.setHttpsConfigurator(new HttpsConfigurator(serverSslContext()));
+            httpsServer.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+            httpsServer.createContext("/api/v1/pdf/convert-batch", exchange -> {
+                boolean binary = BatchWireFormat.MEDIA_TYPE.equals(exchange.getRequestHeaders().getFirst("Content-Type"));
+                try (InputStream in = exchange.getRequestBody()) {
+                    if (binary) {
+                        BatchWireFormat.readRequest(in);
+                    } else {
+                        MAPPER.readValue(in, BatchConversionRequest.class);
+                    }
+                }
+                byte[] body;
+                if (binary) {
+                    ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+                    BatchWireFormat.writeResponse(canned, encoded);
+                    body = encoded.toByteArray();
+                } else {
+                    body = MAPPER.writeValueAsBytes(canned);
+                }
+                exchange.getResponseHeaders().add("Content-Type", binary ? BatchWireFormat.MEDIA_TYPE : "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            httpsServer.start();
+            client = new Xhtml2PdfClient("https://localhost:" + httpsServer.getAddress().getPort(), Duration.ofMinutes(2),
+                    Duration.ofSeconds(5), "../keystore/infomedics-trust.p12", "changeit", wireFormat,
+                    java.net.http.HttpClient.Version.HTTP_1_1, 0, 1, "least-outstanding", 1.25, 1, Duration.ZERO, 3, 3.0,
+                    Duration.ofSeconds(30), Duration.ZERO, diagnostics);
+        } else {
+            socketDir = Files.createTempDirectory("jmh-uds");
+            Path socket = socketDir.resolve("pdf-creator.sock");
+            SegmentPool segments = new SegmentPool(512);
+            BatchPdfRenderer renderer = new BatchPdfRenderer(null, null, null, null) {
+                @Override
+                public RenderedBatch renderBatch(BatchConversionRequest request) {
+                    List<RenderedBatch.Item> results = new ArrayList<>(canned.results().size());
+                    for (BatchConversionResultItem result : canned.results()) {
+                        SegmentedBuffer pdf = segments.newBuffer();
+                        try {
+                            pdf.outputStream().write(result.pdfContent());
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                        results.add(new RenderedBatch.Item(result.outputId(), pdf, null));
+                    }
+                    return new RenderedBatch(results, canned.generatedAt());
+                }
+            };
+            listener = new UnixSocketConversionListener(renderer, socket.toString(), Integer.MAX_VALUE);
+            listener.start();
+            client = new UnixSocketPdfClient(socket.toString(), Duration.ofMinutes(2), wireFormat, diagnostics);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (httpsServer != null) {
+            httpsServer.stop(0);
+        }
+        if (client instanceof UnixSocketPdfClient uds) {
+            uds.shutdown();
+        }
+        if (listener != null) {
+            listener.stop();
+            Files.deleteIfExists(socketDir);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        batches.set(0);
+        cpuAtIterationStart = processCpuNanos();
+    }
+
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        long count = Math.max(1, batches.get());
+        System.out.printf("%n  %s/%s, %d items: %.2f ms process CPU per batch%n", transport, wireFormat, items,
+                (processCpuNanos() - cpuAtIterationStart) / 1_000_000.0 / count);
+    }
+
+    @Benchmark
+    public int convertBatch() throws Exception {
+        int converted = client.convertBatch(html, false, batch).size();
+        batches.incrementAndGet();
+        return converted;
+    }
+
+    private static BatchConversionResponse cannedResponse(int items) {
+        Random random = new Random(42);
+        List<BatchConversionResultItem> results = new ArrayList<>(items);
+        for (int i = 0; i < items; i++) {
+            byte[] pdf = new byte[PDF_BYTES];
+            random.nextBytes(pdf);
+            results.add(BatchConversionResultItem.success("item-" + i, pdf));
+        }
+        return new BatchConversionResponse(results, Instant.now());
+    }
+
+    private static SSLContext serverSslContext() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(Path.of("../keystore/infomedics-server.p12"))) {
+            keyStore.load(in, "changeit".toCharArray());
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, "changeit".toCharArray());
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), null, null);
+        return context;
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+}